@@ -1,5 +1,6 @@
 package compiler;
 
+import java.io.File;
 import java.io.IOException;
 
 import compiler.common.report.*;
@@ -10,9 +11,12 @@ import compiler.phase.seman.*;
 import compiler.phase.lincode.*;
 import compiler.phase.frames.*;
 import compiler.phase.imcode.*;
+import compiler.phase.optimize.*;
+import compiler.phase.ssa.*;
 import compiler.phase.codegen.*;
 import compiler.phase.regalloc.*;
 import compiler.phase.build.*;
+import compiler.sim.*;
 
 /**
  * The compiler's entry point.
@@ -39,6 +43,14 @@ public class Main {
             // Carry out the compilation up to the specified phase.
             while (true) {
 
+                // ***** Simulation of an assembled program. *****
+                if (task.srcFName.endsWith(".mms")) {
+                    Run run = new Run(task, Assembler.read(new File(task.srcFName)));
+                    run.run();
+                    run.close();
+                    break;
+                }
+
                 // ***** Lexical analysis. *****
                 if (task.phase.equals("lexan")) {
                     LexAn lexAn = new LexAn(task);
@@ -77,7 +89,8 @@ public class Main {
 
                 // Frames and accesses.
                 Frames frames = new Frames(task);
-                (new EvalFrames(task.prgAttrs)).visit(task.prgAST);
+                (new EvalFrames(task.prgAttrs, task.regArgs,
+                        task.optimizations.indexOf("mem2reg") != -1)).visit(task.prgAST);
                 frames.close();
                 if (task.phase.equals("frames"))
                     break;
@@ -89,6 +102,27 @@ public class Main {
                 if (task.phase.equals("imcode"))
                     break;
 
+                // Optimization of the intermediate code.
+                Optimize optimize = new Optimize(task);
+                optimize.inline();
+                optimize.fold();
+                optimize.valueNumbering();
+                optimize.deadCode();
+                optimize.loopInvariants();
+                optimize.inductionVariables();
+                optimize.deadCode();
+                optimize.tailCalls();
+                optimize.close();
+                if (task.phase.equals("optimize"))
+                    break;
+
+                // Optimization in static single assignment form.
+                Ssa ssa = new Ssa(task);
+                ssa.optimize();
+                ssa.close();
+                if (task.phase.equals("ssa"))
+                    break;
+
                 // Linearization of the intermediate code.
                 LinCode linCode = new LinCode(task);
                 //(new EvalLinCode(task.fragments)).visit(task.prgAST);
@@ -122,6 +156,13 @@ public class Main {
                 if(task.phase.equals("build"))
                     break;
 
+                // ***** Simulation. *****
+                if(task.phase.equals("run")){
+                    Run run = new Run(task, build.assemble());
+                    run.run();
+                    run.close();
+                }
+
                 break;
             }
         } catch (CompilerError errorReport) {
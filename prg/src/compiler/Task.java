@@ -24,7 +24,10 @@ public class Task {
     public final String xslDName;
 
     /** A regular expression describing all phases of the compiler. */
-    private static final String allPhases = "(lexan|synan|abstr|seman|frames|imcode|lincode|codegen|regalloc|build)";
+    private static final String allPhases = "(lexan|synan|abstr|seman|frames|imcode|optimize|ssa|lincode|codegen|regalloc|build|run)";
+
+    /** A regular expression describing all optimizations of the intermediate code. */
+    private static final String allOptimizations = "(mem2reg|inline|fold|cse|dce|licm|iv|tail|ssa)";
 
     /** A list of phases logging should be performed for. */
     public final String loggedPhases;
@@ -35,6 +38,21 @@ public class Task {
     /** The number of registers */
     public final int registers;
 
+    /** The number of leading arguments passed in registers (none by default). */
+    public final int regArgs;
+
+    /** Whether the statistics of the back end should be reported. */
+    public final boolean stats;
+
+    /** Whether code fragments should be processed in parallel by the back end. */
+    public final boolean parallel;
+
+    /** The kind of the output file: assembly source (mms) or object code (mmo). */
+    public final String emit;
+
+    /** A list of optimizations to be performed (all of them by default). */
+    public final String optimizations;
+
     /**
      * Construct a new compilation task based on the command-line agruments.
      *
@@ -49,6 +67,11 @@ public class Task {
         String loggedPhases = "";
         String phase = "";
         int reg = 0;
+        int regArgs = -1;
+        boolean stats = false;
+        boolean parallel = false;
+        String emit = "";
+        String optimizations = null;
 
         for (int argc = 0; argc < args.length; argc++) {
             if (args[argc].startsWith("-")) {
@@ -110,6 +133,61 @@ public class Task {
                         }
                     }else
                         Report.warning("Number of registers already specified, option '" + args[argc] + "' ignored");
+                    continue;
+                }
+
+                if(args[argc].startsWith("--regargs=")){
+                    if(regArgs == -1){
+                        try{
+                            regArgs = Integer.parseInt(args[argc].replaceFirst("--regargs=",""));
+                            if(regArgs<0 || regArgs>16){
+                                Report.warning("Number of register arguments has to be between 0 and 16");
+                                regArgs = -1;
+                            }
+                        }catch(NumberFormatException ex){
+                            Report.warning("No number specified by '" + args[argc] + "'; option ignored");
+                        }
+                    }else
+                        Report.warning("Number of register arguments already specified, option '" + args[argc] + "' ignored");
+                    continue;
+                }
+
+                if(args[argc].equals("--stats")){
+                    stats = true;
+                    continue;
+                }
+
+                if(args[argc].equals("--parallel")){
+                    parallel = true;
+                    continue;
+                }
+
+                if(args[argc].startsWith("--emit=")){
+                    if(emit == ""){
+                        emit = args[argc].replaceFirst("--emit=","");
+                        if(!emit.matches("(mms|mmo)")){
+                            Report.warning("Illegal output kind specified by '" + args[argc] + "' ignored.");
+                            emit = "";
+                        }
+                    }else
+                        Report.warning("Output kind already specified, option '" + args[argc] + "' ignored.");
+                    continue;
+                }
+
+                if(args[argc].startsWith("--optimize=")){
+                    if(optimizations == null){
+                        optimizations = args[argc].replaceFirst("--optimize=","");
+                        if(optimizations.equals("none")){
+                            optimizations = "";
+                        }else if(optimizations.equals("all")){
+                            optimizations = null;
+                        }else if(!optimizations.matches(allOptimizations + "(," + allOptimizations + ")*")){
+                            Report.warning("Illegal optimizations specified by '" + args[argc] + "' ignored.");
+                            optimizations = null;
+                        }
+                    }else
+                        Report.warning("Optimizations already specified, option '" + args[argc] + "' ignored.");
+                    continue;
                 }
 
                 Report.warning("Unknown command line option '" + args[argc] + "'.");
@@ -129,6 +207,11 @@ public class Task {
         this.loggedPhases = loggedPhases;
         this.phase = phase;
         this.registers = (reg==0 ? 8 : reg);
+        this.regArgs = (regArgs == -1 ? 0 : regArgs);
+        this.stats = stats;
+        this.parallel = parallel;
+        this.emit = (emit == "" ? "mms" : emit);
+        this.optimizations = (optimizations == null ? allOptimizations.replaceAll("[()]","").replace('|',',') : optimizations);
 
         // Check the source file name.
         if (this.srcFName == "")
@@ -146,8 +229,9 @@ public class Task {
     public Attributes prgAttrs = new Attributes();
 
     /**
-     * Fragments of the program (indexed by entry labels).
+     * Fragments of the program (indexed by entry labels) in the order they
+     * were defined.
      */
-     public HashMap<String, Fragment> fragments = new HashMap<String, Fragment>();
+     public LinkedHashMap<String, Fragment> fragments = new LinkedHashMap<String, Fragment>();
 
 }
@@ -0,0 +1,42 @@
+package compiler.data.acc;
+
+import compiler.common.logger.*;
+
+/**
+ * Access to a variable kept in a temporary, i.e., a scalar variable or
+ * parameter whose address is never taken and which is not used by nested
+ * functions.
+ */
+public class TempAccess extends Access {
+
+	/**
+	 * The slot a parameter is passed in (or null if this is a local variable).
+	 */
+	public final OffsetAccess param;
+
+	/**
+	 * Constructs a new access to a variable kept in a temporary.
+	 *
+	 * @param param
+	 *            The slot a parameter is passed in (or null).
+	 * @param size
+	 *            The size of a variable.
+	 */
+	public TempAccess(OffsetAccess param, long size) {
+		super(size);
+		this.param = param;
+	}
+
+	@Override
+	public void log(Logger logger) {
+		logger.begElement("access");
+		logger.addAttribute("temp", "true");
+		if (param != null) {
+			logger.addAttribute("level", Long.toString(param.level));
+			logger.addAttribute("offset", Long.toString(param.offset));
+		}
+		logger.addAttribute("size", Long.toString(size));
+		logger.endElement();
+	}
+
+}
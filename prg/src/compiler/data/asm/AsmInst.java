@@ -45,7 +45,17 @@ public abstract class AsmInst{
     }
 
     public String format(HashMap<TEMP,String> map){
-        String str = String.format("%-5s %s", mnemonic, assem);
+        return substitute(String.format("%-5s %s", mnemonic, assem), map);
+    }
+
+    /**
+     * Returns the operands with registers and labels filled in.
+     */
+    public String operands(HashMap<TEMP,String> map){
+        return substitute(assem, map);
+    }
+
+    private String substitute(String str, HashMap<TEMP,String> map){
         for(int i=0; i<uses.size(); i++){
             TEMP tmp = uses.get(i);
             String reg = null;
@@ -30,7 +30,10 @@ public class CodeFragment extends Fragment {
     public final IMCStmt stmt;
 
     /** The linearized intermediate code. */
-    public final STMTS linCode;
+    public STMTS linCode;
+
+    /** The calls in tail position that reuse the function's frame. */
+    public HashSet<CALL> tailCalls;
 
     /** The assembly instructions */
     public LinkedList<AsmInst> asmcode;
@@ -63,6 +66,7 @@ public class CodeFragment extends Fragment {
         this.RV = RV;
         this.stmt = stmt;
         this.linCode = (this.stmt == null) ? null : this.stmt.linCode();
+        this.tailCalls = new HashSet<CALL>();
         this.asmcode = null;
         this.graph = null;
         this.registers = null;
@@ -30,6 +30,13 @@ public class Frame implements Loggable {
      */
     public final long inpCallSize;
 
+    /**
+     * The widths of the leading arguments (the static link included) passed in
+     * registers $0, $1, ... of the callee. Their slots in the block of input
+     * arguments are kept, so the callee can store them there if needed.
+     */
+    public final long[] inpRegs;
+
     /**
      * The size of block containing local variables.
      */
@@ -62,10 +69,20 @@ public class Frame implements Loggable {
      */
     public Frame(int level, String label, long inpCallSize, long locVarsSize, long tmpVarsSize, long hidRegsSize,
             long outCallSize) {
+        this(level, label, inpCallSize, new long[0], locVarsSize, tmpVarsSize, hidRegsSize, outCallSize);
+    }
+
+    /**
+     * Constructs a new empty stack frame of a function taking some of its
+     * arguments in registers.
+     */
+    public Frame(int level, String label, long inpCallSize, long[] inpRegs, long locVarsSize, long tmpVarsSize,
+            long hidRegsSize, long outCallSize) {
         this.level = level;
         this.label = label;
 
         this.inpCallSize = inpCallSize;
+        this.inpRegs = inpRegs;
         this.locVarsSize = locVarsSize;
         this.tmpVarsSize = tmpVarsSize;
         this.hidRegsSize = hidRegsSize;
@@ -81,6 +98,7 @@ public class Frame implements Loggable {
         logger.addAttribute("label", label);
         logger.addAttribute("size", Long.toString(size));
         logger.addAttribute("inpCallSize", Long.toString(inpCallSize));
+        logger.addAttribute("inpRegs", Integer.toString(inpRegs.length));
         logger.addAttribute("locVarsSize", Long.toString(locVarsSize));
         logger.addAttribute("tmpVarsSize", Long.toString(tmpVarsSize));
         logger.addAttribute("hidRegsSize", Long.toString(hidRegsSize));
@@ -24,6 +24,9 @@ public class BINOP extends IMCExpr {
     /** The second subexpression. */
     public final IMCExpr expr2;
 
+    /** The hash code, computed once as the node never changes. */
+    private final int hash;
+
     /**
      * Constructs a new BINOP.
      *
@@ -38,6 +41,7 @@ public class BINOP extends IMCExpr {
         this.oper = oper;
         this.expr1 = expr1;
         this.expr2 = expr2;
+        this.hash = (31 * oper.ordinal() + Objects.hashCode(expr1)) * 31 + Objects.hashCode(expr2);
     }
 
     @Override
@@ -50,15 +54,29 @@ public class BINOP extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
+    public IMCExpr linCode(STMTS.Builder lc) {
         int result = TEMP.newTempName();
-        SEXPR expr1LC = expr1.linCode();
-        SEXPR expr2LC = expr2.linCode();
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        lc.addAll(((STMTS)(expr1LC.stmt)).stmts());
-        lc.addAll(((STMTS)(expr2LC.stmt)).stmts());
-        lc.add(new MOVE(new TEMP(result), new BINOP(oper, expr1LC.expr, expr2LC.expr)));
-        return new SEXPR(new STMTS(lc), new TEMP(result));
+        IMCExpr expr1LC = expr1.linCode(lc);
+        IMCExpr expr2LC = expr2.linCode(lc);
+        TEMP temp = new TEMP(result);
+        lc.add(new MOVE(temp, expr1LC == expr1 && expr2LC == expr2 ? this : new BINOP(oper, expr1LC, expr2LC)));
+        return temp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof BINOP))
+            return false;
+        BINOP binop = (BINOP) obj;
+        return hash == binop.hash && oper == binop.oper && Objects.equals(expr1, binop.expr1)
+                && Objects.equals(expr2, binop.expr2);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
     }
 
 }
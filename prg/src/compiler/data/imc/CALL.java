@@ -31,16 +31,16 @@ public class CALL extends IMCExpr {
      * @param widths
      *            The width of the arguments (in bytes).
      */
-    public CALL(String label, Vector<IMCExpr> args, Vector<Long> widths) {
-        this.label = label;
-        if (args.size() != widths.size())
+    public CALL(String label, IMCExpr[] args, long[] widths) {
+        this(label, args, widths, args.length);
+        if (args.length != widths.length)
             throw new InternalCompilerError ();
-        this.args = new IMCExpr[args.size()];
-        for (int arg = 0; arg < args.size(); arg++)
-            this.args[arg] = args.get(arg);
-        this.widths = new long[widths.size()];
-        for (int width = 0; width < widths.size(); width++)
-            this.widths[width] = widths.get(width);
+    }
+
+    private CALL(String label, IMCExpr[] args, long[] widths, int size) {
+        this.label = label;
+        this.args = Arrays.copyOf(args, size);
+        this.widths = Arrays.copyOf(widths, size);
     }
 
     /**
@@ -80,21 +80,64 @@ public class CALL extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
+    public IMCExpr linCode(STMTS.Builder lc) {
         int result = TEMP.newTempName();
 
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        SEXPR[] argsLC = new SEXPR[args.length];
-        Vector<IMCExpr> newargs = new Vector<IMCExpr>();
-        Vector<Long> newwidths = new Vector<Long>();
-        for (int arg = 0; arg < args.length; arg++) {
-            argsLC[arg] = args[arg].linCode();
-            lc.addAll(((STMTS)(argsLC[arg].stmt)).stmts());
-            newargs.add(argsLC[arg].expr);
-            newwidths.add(widths[arg]);
+        IMCExpr[] newargs = new IMCExpr[args.length];
+        for (int arg = 0; arg < args.length; arg++)
+            newargs[arg] = args[arg].linCode(lc);
+        lc.add(new MOVE(new TEMP(result), new CALL(label, newargs, widths)));
+        return new TEMP(result);
+    }
+
+    /**
+     * Collects the arguments of a function call.
+     */
+    public static class Builder {
+
+        private final String label;
+
+        private IMCExpr[] args;
+
+        private long[] widths;
+
+        private int size;
+
+        /**
+         * @param label
+         *            The function's label.
+         */
+        public Builder(String label) {
+            this.label = label;
+            this.args = new IMCExpr[4];
+            this.widths = new long[4];
+            this.size = 0;
         }
-        lc.add(new MOVE(new TEMP(result), new CALL(label, newargs, newwidths)));
-        return new SEXPR(new STMTS(lc), new TEMP(result));
+
+        /**
+         * Appends an argument.
+         *
+         * @param arg
+         *            The argument.
+         * @param width
+         *            The width of the argument (in bytes).
+         * @return This builder.
+         */
+        public Builder add(IMCExpr arg, long width) {
+            if (size == args.length) {
+                args = Arrays.copyOf(args, 2 * size);
+                widths = Arrays.copyOf(widths, 2 * size);
+            }
+            args[size] = arg;
+            widths[size] = width;
+            size++;
+            return this;
+        }
+
+        public CALL build() {
+            return new CALL(label, args, widths, size);
+        }
+
     }
 
 }
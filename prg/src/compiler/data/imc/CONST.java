@@ -31,8 +31,18 @@ public class CONST extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
-        return new SEXPR(new STMTS(new Vector<IMCStmt>()), new CONST(value));
+    public IMCExpr linCode(STMTS.Builder lc) {
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CONST && value == ((CONST) obj).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
     }
 
 }
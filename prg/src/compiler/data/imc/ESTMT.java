@@ -33,12 +33,9 @@ public class ESTMT extends IMCStmt {
     }
 
     @Override
-    public STMTS linCode() {
-        SEXPR exprLC = expr.linCode();
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        lc.addAll(((STMTS)(exprLC.stmt)).stmts());
-        // expression part of exprLC is thrown away
-        return new STMTS(lc);
+    public void linCode(STMTS.Builder lc) {
+        // the value of the expression is thrown away
+        expr.linCode(lc);
     }
 
 }
@@ -7,6 +7,14 @@ package compiler.data.imc;
  */
 public abstract class IMCExpr extends IMC {
 
-	public abstract SEXPR linCode();
+	/**
+	 * Appends the linearized statements computing the value of the
+	 * expression.
+	 * 
+	 * @param lc
+	 *            The linearized statements of the fragment.
+	 * @return A temporary or a constant holding the value.
+	 */
+	public abstract IMCExpr linCode(STMTS.Builder lc);
 
 }
@@ -0,0 +1,51 @@
+package compiler.data.imc;
+
+import java.util.*;
+
+/**
+ * A factory of pure expressions that returns the same node for all
+ * structurally equal expressions it builds.
+ *
+ * <p>
+ * Nodes never change once they are built, so a subtree can be shared by any
+ * number of parents. As the subexpressions of a node built here are shared
+ * too, looking a node up only compares its children by reference. Calls and
+ * expressions with statements are not pure and are never shared.
+ * </p>
+ */
+public class IMCFactory {
+
+    /** The shared nodes, each mapped to itself. */
+    private final HashMap<IMCExpr, IMCExpr> nodes = new HashMap<IMCExpr, IMCExpr>();
+
+    public CONST CONST(long value) {
+        return shared(new CONST(value));
+    }
+
+    public NAME NAME(String name) {
+        return shared(new NAME(name));
+    }
+
+    public TEMP TEMP(int name) {
+        return shared(new TEMP(name));
+    }
+
+    public BINOP BINOP(BINOP.Oper oper, IMCExpr expr1, IMCExpr expr2) {
+        return shared(new BINOP(oper, expr1, expr2));
+    }
+
+    public UNOP UNOP(UNOP.Oper oper, IMCExpr expr) {
+        return shared(new UNOP(oper, expr));
+    }
+
+    public MEM MEM(IMCExpr addr, long width) {
+        return shared(new MEM(addr, width));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <Node extends IMCExpr> Node shared(Node node) {
+        IMCExpr old = nodes.putIfAbsent(node, node);
+        return old == null ? node : (Node) old;
+    }
+
+}
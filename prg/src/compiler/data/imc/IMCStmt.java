@@ -7,6 +7,23 @@ package compiler.data.imc;
  */
 public abstract class IMCStmt extends IMC {
 	
-	public abstract STMTS linCode();
+	/**
+	 * Appends the linearized statements of the command.
+	 * 
+	 * @param lc
+	 *            The linearized statements of the fragment.
+	 */
+	public abstract void linCode(STMTS.Builder lc);
+
+	/**
+	 * Returns the linearized command, built in a single traversal.
+	 * 
+	 * @return The linearized statements.
+	 */
+	public STMTS linCode() {
+		STMTS.Builder lc = new STMTS.Builder();
+		linCode(lc);
+		return lc.build();
+	}
 
 }
@@ -32,10 +32,8 @@ public class JUMP extends IMCStmt {
     }
 
     @Override
-    public STMTS linCode() {
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        lc.add(new JUMP(label));
-        return new STMTS(lc);
+    public void linCode(STMTS.Builder lc) {
+        lc.add(this);
     }
 
 }
@@ -1,6 +1,8 @@
 package compiler.data.imc;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import compiler.common.logger.*;
 
@@ -32,23 +34,38 @@ public class LABEL extends IMCStmt {
     }
 
     /** The number of all anonymous label names. */
-    private static int labelNameCount = 0;
+    private static final AtomicInteger labelNameCount = new AtomicInteger(0);
 
     /**
-     * Returns a new anonymous label name.
+     * Returns a new anonymous label name. It is safe to call this method from
+     * several threads at once.
      *
      * @return A new anonymous label name.
      */
     public static String newLabelName() {
-        labelNameCount++;
-        return "L" + labelNameCount;
+        return "L" + labelNameCount.incrementAndGet();
+    }
+
+    /** The number of label names of each code fragment. */
+    private static final ConcurrentHashMap<String, AtomicInteger> fragLabelNameCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Returns a new anonymous label name within a code fragment. The names of
+     * each fragment are numbered on their own, so they do not depend on the
+     * order in which fragments processed in parallel ask for them.
+     *
+     * @param fragment
+     *            The label of the code fragment.
+     * @return A new anonymous label name.
+     */
+    public static String newLabelName(String fragment) {
+        AtomicInteger count = fragLabelNameCounts.computeIfAbsent(fragment, k -> new AtomicInteger(0));
+        return "L" + fragment + "_" + count.incrementAndGet();
     }
 
     @Override
-    public STMTS linCode() {
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        lc.add(new LABEL(label));
-        return new STMTS(lc);
+    public void linCode(STMTS.Builder lc) {
+        lc.add(this);
     }
 
 }
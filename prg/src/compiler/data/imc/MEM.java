@@ -17,6 +17,9 @@ public class MEM extends IMCExpr {
     /** The width (in bytes) of the memory access. */
     public final long width;
 
+    /** The hash code, computed once as the node never changes. */
+    private final int hash;
+
     /**
      * Constructs a new memory access.
      *
@@ -28,6 +31,7 @@ public class MEM extends IMCExpr {
     public MEM(IMCExpr addr, long width) {
         this.addr = addr;
         this.width = width;
+        this.hash = 31 * Objects.hashCode(addr) + Long.hashCode(width);
     }
 
     @Override
@@ -39,13 +43,27 @@ public class MEM extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
+    public IMCExpr linCode(STMTS.Builder lc) {
         int result = TEMP.newTempName();
-        SEXPR addrLC = addr.linCode();
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        lc.addAll(((STMTS)(addrLC.stmt)).stmts());
-        lc.add(new MOVE(new TEMP(result), new MEM(addrLC.expr, width)));
-        return new SEXPR(new STMTS(lc), new TEMP(result));
+        IMCExpr addrLC = addr.linCode(lc);
+        TEMP temp = new TEMP(result);
+        lc.add(new MOVE(temp, addrLC == addr ? this : new MEM(addrLC, width)));
+        return temp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof MEM))
+            return false;
+        MEM mem = (MEM) obj;
+        return hash == mem.hash && width == mem.width && Objects.equals(addr, mem.addr);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
     }
 
 }
@@ -41,27 +41,17 @@ public class MOVE extends IMCStmt {
     }
 
     @Override
-    public STMTS linCode() {
-        SEXPR dstLC;
-        SEXPR srcLC;
-
+    public void linCode(STMTS.Builder lc) {
         if (dst instanceof MEM) {
-            dstLC = ((MEM)dst).addr.linCode();
-            srcLC = src.linCode();
-            Vector<IMCStmt> lc = new Vector<IMCStmt>();
-            lc.addAll(((STMTS)(dstLC.stmt)).stmts());
-            lc.addAll(((STMTS)(srcLC.stmt)).stmts());
-            lc.add(new MOVE(new MEM(dstLC.expr, ((MEM)dst).width), srcLC.expr));
-            return new STMTS(lc);
+            IMCExpr dstLC = ((MEM)dst).addr.linCode(lc);
+            IMCExpr srcLC = src.linCode(lc);
+            lc.add(new MOVE(new MEM(dstLC, ((MEM)dst).width), srcLC));
+            return;
         }
         if (dst instanceof TEMP) {
-            dstLC = dst.linCode();
-            srcLC = src.linCode();
-            Vector<IMCStmt> lc = new Vector<IMCStmt>();
-            lc.addAll(((STMTS)(dstLC.stmt)).stmts());
-            lc.addAll(((STMTS)(srcLC.stmt)).stmts());
-            lc.add(new MOVE(dstLC.expr, srcLC.expr));
-            return new STMTS(lc);
+            IMCExpr srcLC = src.linCode(lc);
+            lc.add(new MOVE(dst, srcLC));
+            return;
         }
         throw new InternalCompilerError();
     }
@@ -32,8 +32,18 @@ public class NAME extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
-        return new SEXPR(new STMTS(new Vector<IMCStmt>()), new NAME(name));
+    public IMCExpr linCode(STMTS.Builder lc) {
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof NAME && name.equals(((NAME) obj).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
     }
 
 }
@@ -22,8 +22,8 @@ public class NOP extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
-        return new SEXPR(new STMTS(new Vector<IMCStmt>()), new NOP());
+    public IMCExpr linCode(STMTS.Builder lc) {
+        return this;
     }
 
 
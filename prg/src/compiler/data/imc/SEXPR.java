@@ -40,13 +40,9 @@ public class SEXPR extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
-        STMTS stmtLC = stmt.linCode();
-        SEXPR exprLC = expr.linCode();
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        lc.addAll(stmtLC.stmts());
-        lc.addAll(((STMTS)(exprLC.stmt)).stmts());
-        return new SEXPR(new STMTS(lc), exprLC.expr);
+    public IMCExpr linCode(STMTS.Builder lc) {
+        stmt.linCode(lc);
+        return expr.linCode(lc);
     }
 
 }
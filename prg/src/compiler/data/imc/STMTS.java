@@ -12,48 +12,100 @@ import compiler.common.logger.*;
 public class STMTS extends IMCStmt {
 
     /** A sequence of statements. */
-    private final Vector<IMCStmt> stmts;
+    private final IMCStmt[] stmts;
 
     /**
      * Constructs a new sequence of statements.
      *
      * @param stmts Statements.
      */
-    public STMTS(Vector<IMCStmt> stmts) {
-        this.stmts = new Vector<IMCStmt>();
-        this.stmts.addAll(stmts);
+    public STMTS(IMCStmt... stmts) {
+        this(stmts, stmts.length);
+    }
+
+    /**
+     * Constructs a new sequence of statements.
+     *
+     * @param stmts Statements.
+     */
+    public STMTS(List<IMCStmt> stmts) {
+        this.stmts = stmts.toArray(new IMCStmt[stmts.size()]);
+    }
+
+    private STMTS(IMCStmt[] stmts, int size) {
+        this.stmts = Arrays.copyOf(stmts, size);
     }
 
     public int numStmts() {
-        return stmts.size();
+        return stmts.length;
     }
 
     public IMCStmt stmts(int stmt) {
-        return stmts.get(stmt);
+        return stmts[stmt];
     }
 
-    public Vector<IMCStmt> stmts() {
-        Vector<IMCStmt> _stmts = new Vector<IMCStmt>();
-        _stmts.addAll(stmts);
-        return _stmts;
+    /**
+     * Returns a read-only view of the statements.
+     */
+    public List<IMCStmt> stmts() {
+        return Collections.unmodifiableList(Arrays.asList(stmts));
     }
 
     @Override
     public void toXML(Logger logger) {
         logger.begElement("imc");
         logger.addAttribute("kind", "STMTS");
-        for (int stmt = 0; stmt < stmts.size(); stmt++)
-            this.stmts.get(stmt).toXML(logger);
+        for (int stmt = 0; stmt < stmts.length; stmt++)
+            this.stmts[stmt].toXML(logger);
         logger.endElement();
     }
 
-    public STMTS linCode() {
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        for (int stmt = 0; stmt < stmts.size(); stmt++) {
-            STMTS lcStmt = stmts.get(stmt).linCode();
-            lc.addAll(lcStmt.stmts());
+    @Override
+    public void linCode(STMTS.Builder lc) {
+        for (int stmt = 0; stmt < stmts.length; stmt++)
+            stmts[stmt].linCode(lc);
+    }
+
+    /**
+     * Collects statements into a sequence.
+     */
+    public static class Builder {
+
+        private IMCStmt[] stmts;
+
+        private int size;
+
+        public Builder() {
+            this.stmts = new IMCStmt[16];
+            this.size = 0;
         }
-        return new STMTS(lc);
+
+        /**
+         * Appends a statement.
+         *
+         * @param stmt The statement.
+         * @return This builder.
+         */
+        public Builder add(IMCStmt stmt) {
+            if (size == stmts.length)
+                stmts = Arrays.copyOf(stmts, 2 * size);
+            stmts[size++] = stmt;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the sequence of the statements collected so far.
+         *
+         * @return The sequence of statements.
+         */
+        public STMTS build() {
+            return new STMTS(stmts, size);
+        }
+
     }
 
 }
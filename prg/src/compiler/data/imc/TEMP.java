@@ -1,6 +1,7 @@
 package compiler.data.imc;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import compiler.common.logger.*;
 
@@ -32,21 +33,21 @@ public class TEMP extends IMCExpr {
     }
 
     /** The number of all temporary register names. */
-    private static int tempNameCount = 0;
+    private static final AtomicInteger tempNameCount = new AtomicInteger(0);
 
     /**
-     * Returns a new temporary register name.
+     * Returns a new temporary register name. It is safe to call this method
+     * from several threads at once.
      *
      * @return A new temporary register name.
      */
     public static int newTempName() {
-        tempNameCount++;
-        return tempNameCount;
+        return tempNameCount.incrementAndGet();
     }
 
     @Override
-    public SEXPR linCode() {
-        return new SEXPR(new STMTS(new Vector<IMCStmt>()), new TEMP(name));
+    public IMCExpr linCode(STMTS.Builder lc) {
+        return this;
     }
 
 	@Override
@@ -54,4 +55,9 @@ public class TEMP extends IMCExpr {
 	    if(!(t instanceof TEMP)) return false;
         else return this.name==((TEMP)t).name;
 	}
+
+	@Override
+	public int hashCode(){
+	    return name;
+	}
 }
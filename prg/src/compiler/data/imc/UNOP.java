@@ -21,6 +21,9 @@ public class UNOP extends IMCExpr {
     /** The subexpression. */
     public final IMCExpr expr;
 
+    /** The hash code, computed once as the node never changes. */
+    private final int hash;
+
     /**
      * Constructs a new UNOP.
      *
@@ -32,6 +35,7 @@ public class UNOP extends IMCExpr {
     public UNOP(Oper oper, IMCExpr expr) {
         this.oper = oper;
         this.expr = expr;
+        this.hash = 31 * oper.ordinal() + Objects.hashCode(expr);
     }
 
     @Override
@@ -43,13 +47,27 @@ public class UNOP extends IMCExpr {
     }
 
     @Override
-    public SEXPR linCode() {
+    public IMCExpr linCode(STMTS.Builder lc) {
         int result = TEMP.newTempName();
-        SEXPR exprLC = expr.linCode();
-        Vector<IMCStmt> lc = new Vector<IMCStmt>();
-        lc.addAll(((STMTS)(exprLC.stmt)).stmts());
-        lc.add(new MOVE(new TEMP(result), new UNOP( oper, exprLC.expr)));
-        return new SEXPR(new STMTS(lc), new TEMP(result));
+        IMCExpr exprLC = expr.linCode(lc);
+        TEMP temp = new TEMP(result);
+        lc.add(new MOVE(temp, exprLC == expr ? this : new UNOP(oper, exprLC)));
+        return temp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof UNOP))
+            return false;
+        UNOP unop = (UNOP) obj;
+        return hash == unop.hash && oper == unop.oper && Objects.equals(expr, unop.expr);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
     }
 
 }
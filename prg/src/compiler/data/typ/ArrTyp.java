@@ -5,7 +5,7 @@ import compiler.common.logger.*;
 /**
  * @author sliva
  */
-public class ArrTyp extends Typ {
+public class ArrTyp extends Typ implements AssignableTyp {
 
     public final long size;
 
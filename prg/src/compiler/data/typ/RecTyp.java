@@ -7,7 +7,7 @@ import compiler.common.logger.*;
 /**
  * @author sliva
  */
-public class RecTyp extends Typ {
+public class RecTyp extends Typ implements AssignableTyp {
 
     public final String nameSpace;
 
@@ -46,9 +46,10 @@ public class RecTyp extends Typ {
     
     @Override
     public long size() {
+        // Every component starts at an octa boundary.
         long size = 0;
         for (int c = 0; c < this.compTyps.length; c++)
-            size = size + this.compTyps[c].size();
+            size = size + ((this.compTyps[c].size() + 7) & ~7);
         return size;
     }
 
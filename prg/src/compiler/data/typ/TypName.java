@@ -77,6 +77,9 @@ public class TypName extends Typ {
     public boolean isStructEquivTo(Typ typ) {
         if (typ == null)
             return false;
+        // A recursive type is equivalent to itself without unfolding it.
+        if (typ == this)
+            return true;
         return this.actualTyp().isStructEquivTo(typ);
     }
 
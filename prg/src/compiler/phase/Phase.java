@@ -1,7 +1,13 @@
 package compiler.phase;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
 import compiler.*;
 import compiler.common.logger.*;
+import compiler.common.report.*;
+import compiler.data.frg.*;
 
 /**
  * An abstract class acting as a template for each individual phase.
@@ -36,6 +42,67 @@ public abstract class Phase implements AutoCloseable {
 			logger = null;
 	}
 
+	/**
+	 * Performs an action on every code fragment. If parallel compilation has
+	 * been requested, the fragments are processed concurrently on a fork-join
+	 * pool, otherwise one after another.
+	 * 
+	 * <p>
+	 * The output is the same either way only if the action changes nothing but
+	 * its own fragment and nothing it produces depends on the order in which
+	 * the fragments are processed. In particular, names that end up in the
+	 * output must not come from a counter shared by all fragments: new labels
+	 * are taken from {@link compiler.data.imc.LABEL#newLabelName(String)}.
+	 * Temporaries may come from the shared counter, as they are only required
+	 * to be distinct. The check <code>compiler.sim.ParallelCheck</code> (make
+	 * parallel-check) compares the output of both modes.
+	 * </p>
+	 * 
+	 * @param action
+	 *            The action performed on a single code fragment.
+	 */
+	protected void forEachCodeFragment(Consumer<CodeFragment> action) {
+		LinkedList<CodeFragment> frags = new LinkedList<CodeFragment>();
+		for (Fragment frag : task.fragments.values()) {
+			if (frag instanceof CodeFragment)
+				frags.add((CodeFragment) frag);
+		}
+
+		if (!task.parallel) {
+			for (CodeFragment frag : frags)
+				action.accept(frag);
+			return;
+		}
+
+		LinkedList<Callable<Void>> jobs = new LinkedList<Callable<Void>>();
+		for (CodeFragment frag : frags) {
+			jobs.add(() -> {
+				action.accept(frag);
+				return null;
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			for (Future<Void> job : pool.invokeAll(jobs))
+				job.get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			// The pool may rethrow a copy of the exception thrown by a worker.
+			if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+				cause = cause.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new InternalCompilerError();
+		} catch (InterruptedException ex) {
+			throw new InternalCompilerError();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	@Override
 	public void close() {
 		if (logger != null)
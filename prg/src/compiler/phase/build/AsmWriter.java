@@ -0,0 +1,85 @@
+package compiler.phase.build;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Writes the lines of the program to a file in a single pass. Mnemonics start
+ * in a fixed column (longer labels push them to the right), and the bytes are
+ * buffered in front of a file channel.
+ */
+class AsmWriter implements Emitter, Closeable{
+
+    /** The column of the mnemonics. */
+    private static final int column = 16;
+
+    /** The width of the mnemonic field. */
+    private static final int mnemonicWidth = 6;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+    public AsmWriter(File file) throws IOException{
+        channel = FileChannel.open(file.toPath(),StandardOpenOption.WRITE,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void line(String label, String mnemonic, String operands) throws IOException{
+        int pos = 0;
+        if(label != null){
+            write(label);
+            pos = label.length();
+        }
+        pos = pad(pos,column);
+        write(mnemonic);
+        if(!operands.isEmpty()){
+            pad(pos+mnemonic.length(),pos+mnemonicWidth);
+            write(operands);
+        }
+        put('\n');
+    }
+
+    @Override
+    public void separator() throws IOException{
+        put('\n');
+    }
+
+    @Override
+    public void close() throws IOException{
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Writes spaces up to the column, but at least one, and returns the new
+     * position.
+     */
+    private int pad(int pos, int column) throws IOException{
+        do{
+            put(' ');
+            pos++;
+        }while(pos < column);
+        return pos;
+    }
+
+    /**
+     * MMIXAL sources are plain ASCII, so every character is a single byte.
+     */
+    private void write(String string) throws IOException{
+        for(int i=0; i<string.length(); i++) put(string.charAt(i));
+    }
+
+    private void put(char c) throws IOException{
+        if(!buffer.hasRemaining()) flush();
+        buffer.put((byte)c);
+    }
+
+    private void flush() throws IOException{
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
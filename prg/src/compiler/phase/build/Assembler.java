@@ -0,0 +1,594 @@
+package compiler.phase.build;
+
+import java.io.*;
+import java.util.*;
+
+import compiler.common.report.*;
+
+/**
+ * A two-pass MMIX assembler for the programs produced by the build phase.
+ *
+ * The first pass (while the lines are received) lays out the program and
+ * defines the labels, the second pass encodes the instructions and data into
+ * a sparse memory image that is written as an MMIX object file.
+ */
+public class Assembler implements Emitter{
+
+    private static class Line{
+        final String label;
+        final String mnemonic;
+        final String[] operands;
+        long loc;
+
+        Line(String label, String mnemonic, String operands){
+            this.label = label;
+            this.mnemonic = mnemonic;
+            this.operands = split(operands);
+        }
+    }
+
+    /** The opcodes in numerical order. */
+    private static final String[] opcodes = (
+            "TRAP FCMP FUN FEQL FADD FIX FSUB FIXU FLOT FLOTI FLOTU FLOTUI SFLOT SFLOTI SFLOTU SFLOTUI " +
+            "FMUL FCMPE FUNE FEQLE FDIV FSQRT FREM FINT MUL MULI MULU MULUI DIV DIVI DIVU DIVUI " +
+            "ADD ADDI ADDU ADDUI SUB SUBI SUBU SUBUI 2ADDU 2ADDUI 4ADDU 4ADDUI 8ADDU 8ADDUI 16ADDU 16ADDUI " +
+            "CMP CMPI CMPU CMPUI NEG NEGI NEGU NEGUI SL SLI SLU SLUI SR SRI SRU SRUI " +
+            "BN BNB BZ BZB BP BPB BOD BODB BNN BNNB BNZ BNZB BNP BNPB BEV BEVB " +
+            "PBN PBNB PBZ PBZB PBP PBPB PBOD PBODB PBNN PBNNB PBNZ PBNZB PBNP PBNPB PBEV PBEVB " +
+            "CSN CSNI CSZ CSZI CSP CSPI CSOD CSODI CSNN CSNNI CSNZ CSNZI CSNP CSNPI CSEV CSEVI " +
+            "ZSN ZSNI ZSZ ZSZI ZSP ZSPI ZSOD ZSODI ZSNN ZSNNI ZSNZ ZSNZI ZSNP ZSNPI ZSEV ZSEVI " +
+            "LDB LDBI LDBU LDBUI LDW LDWI LDWU LDWUI LDT LDTI LDTU LDTUI LDO LDOI LDOU LDOUI " +
+            "LDSF LDSFI LDHT LDHTI CSWAP CSWAPI LDUNC LDUNCI LDVTS LDVTSI PRELD PRELDI PREGO PREGOI GO GOI " +
+            "STB STBI STBU STBUI STW STWI STWU STWUI STT STTI STTU STTUI STO STOI STOU STOUI " +
+            "STSF STSFI STHT STHTI STCO STCOI STUNC STUNCI SYNCD SYNCDI PREST PRESTI SYNCID SYNCIDI PUSHGO PUSHGOI " +
+            "OR ORI ORN ORNI NOR NORI XOR XORI AND ANDI ANDN ANDNI NAND NANDI NXOR NXORI " +
+            "BDIF BDIFI WDIF WDIFI TDIF TDIFI ODIF ODIFI MUX MUXI SADD SADDI MOR MORI MXOR MXORI " +
+            "SETH SETMH SETML SETL INCH INCMH INCML INCL ORH ORMH ORML ORL ANDNH ANDNMH ANDNML ANDNL " +
+            "JMP JMPB PUSHJ PUSHJB GETA GETAB PUT PUTI POP RESUME SAVE UNSAVE SYNC SWYM GET TRIP").split(" ");
+
+    private static final HashMap<String,Integer> opcode = new HashMap<String,Integer>();
+
+    /** Symbols predefined by MMIXAL. */
+    private static final HashMap<String,Long> predefined = new HashMap<String,Long>();
+
+    static{
+        for(int op=0; op<opcodes.length; op++) opcode.put(opcodes[op],op);
+
+        String[] special = ("rB rD rE rH rJ rM rR rBB rC rN rO rS rI rT rTT rK rQ rU rV rG rL rA rF rP " +
+                "rW rX rY rZ rWW rXX rYY rZZ").split(" ");
+        for(int r=0; r<special.length; r++) predefined.put(special[r],(long)r);
+
+        String[] traps = "Halt Fopen Fclose Fread Fgets Fgetws Fwrite Fputs Fputws Fseek Ftell".split(" ");
+        for(int t=0; t<traps.length; t++) predefined.put(traps[t],(long)t);
+
+        predefined.put("StdIn",0L);
+        predefined.put("StdOut",1L);
+        predefined.put("StdErr",2L);
+        predefined.put("Text_Segment",0L);
+        predefined.put("Data_Segment",0x2000000000000000L);
+        predefined.put("Pool_Segment",0x4000000000000000L);
+        predefined.put("Stack_Segment",0x6000000000000000L);
+    }
+
+    private final LinkedList<Line> lines;
+
+    /** The labels in the order of their definition */
+    private final LinkedHashMap<String,Long> symbols;
+
+    /** The current location (during the first pass) */
+    private long loc;
+
+    /** The number of the lowest global register */
+    private int rG;
+    /** The initial values of global registers */
+    private final long[] globals;
+
+    /** The memory image (tetras indexed by their addresses) */
+    private final TreeMap<Long,byte[]> memory;
+
+    public Assembler(){
+        this.lines = new LinkedList<Line>();
+        this.symbols = new LinkedHashMap<String,Long>();
+        this.loc = 0;
+        this.rG = 255;
+        this.globals = new long[256];
+        this.memory = new TreeMap<Long,byte[]>();
+    }
+
+    /**
+     * Assembles an MMIXAL source file: a line starts with a label unless it
+     * starts with a blank, and lines starting with '%' are comments.
+     */
+    public static Assembler read(File file) throws IOException{
+        Assembler assembler = new Assembler();
+        try(BufferedReader in = new BufferedReader(new FileReader(file))){
+            for(String text; (text = in.readLine()) != null;){
+                if(text.trim().isEmpty() || text.startsWith("%")) continue;
+
+                String label = null;
+                String rest = text.trim();
+                if(!Character.isWhitespace(text.charAt(0))){
+                    String[] parts = rest.split("\\s+",2);
+                    label = parts[0];
+                    rest = parts.length > 1 ? parts[1] : "";
+                }
+                String[] parts = rest.split("\\s+",2);
+                assembler.line(label,parts[0],parts.length > 1 ? parts[1].trim() : "");
+            }
+        }
+        assembler.assemble();
+        return assembler;
+    }
+
+    /**
+     * Returns the memory image, i.e., tetras indexed by their addresses.
+     */
+    public TreeMap<Long,byte[]> memory(){
+        return memory;
+    }
+
+    /**
+     * Returns the value of a label.
+     */
+    public long symbol(String label){
+        Long value = symbols.get(label);
+        if(value == null) throw new CompilerError("Undefined symbol '"+label+"'.");
+        return value;
+    }
+
+    /**
+     * Returns the number of the lowest global register.
+     */
+    public int rG(){
+        return rG;
+    }
+
+    /**
+     * Returns the initial values of the global registers $rG...$255.
+     */
+    public long[] globals(){
+        return globals;
+    }
+
+    // ----- FIRST PASS -----
+
+    @Override
+    public void line(String label, String mnemonic, String operands){
+        Line line = new Line(label,mnemonic,operands);
+
+        switch(mnemonic){
+            case "LOC":
+                loc = eval(line.operands[0],false);
+                line.loc = loc;
+                break;
+            case "IS":
+                line.loc = loc;
+                break;
+            case "GREG":
+                line.loc = loc;
+                rG--;
+                break;
+            case "OCTA":
+            case "TETRA":
+            case "WYDE":
+            case "BYTE":
+                int size = size(mnemonic);
+                loc = align(loc,size);
+                line.loc = loc;
+                for(String operand : line.operands){
+                    loc += operand.startsWith("\"") ? (operand.length()-2)*size : size;
+                }
+                break;
+            default:
+                loc = align(loc,4);
+                line.loc = loc;
+                loc += 4;
+        }
+
+        if(label != null){
+            if(symbols.containsKey(label)) throw new CompilerError("Label '"+label+"' defined twice.");
+            symbols.put(label,mnemonic.equals("IS") ? eval(line.operands[0],false) : line.loc);
+        }
+
+        lines.add(line);
+    }
+
+    @Override
+    public void separator(){
+    }
+
+    // ----- SECOND PASS -----
+
+    /**
+     * Encodes the program into the memory image.
+     */
+    public void assemble(){
+        int greg = 255;
+
+        for(Line line : lines){
+            loc = line.loc;
+            String[] ops = line.operands;
+
+            switch(line.mnemonic){
+                case "LOC":
+                case "IS":
+                    break;
+                case "GREG":
+                    globals[--greg] = eval(ops[0],true);
+                    break;
+                case "OCTA":
+                case "TETRA":
+                case "WYDE":
+                case "BYTE":
+                    int size = size(line.mnemonic);
+                    long addr = line.loc;
+                    for(String operand : ops){
+                        if(operand.startsWith("\"")){
+                            for(int c=1; c<operand.length()-1; c++){
+                                store(addr,size,operand.charAt(c));
+                                addr += size;
+                            }
+                        }else{
+                            store(addr,size,eval(operand,true));
+                            addr += size;
+                        }
+                    }
+                    break;
+                default:
+                    store(line.loc,4,encode(line));
+            }
+        }
+
+        // As in MMIXAL, the program starts at Main.
+        globals[255] = symbol("Main");
+    }
+
+    private long encode(Line line){
+        String mnemonic = line.mnemonic;
+        String[] ops = line.operands;
+
+        switch(mnemonic){
+            case "SET":
+                if(ops[1].startsWith("$")) return inst("ORI",reg(ops[0]),reg(ops[1]),0);
+                return wyde("SETL",reg(ops[0]),eval(ops[1],true));
+            case "LDA":
+                return address("ADDU",reg(ops[0]),ops);
+            case "SWYM":
+                return inst("SWYM",0,0,0);
+            case "JMP":{
+                long offset = relative(ops[0]);
+                if(offset < 0) return ((long)opcode.get("JMPB")<<24 | (offset+(1<<24))) & 0xFFFFFFFFL;
+                return (long)opcode.get("JMP")<<24 | offset;
+            }
+            case "TRAP":
+                return inst("TRAP",imm(ops[0],8),imm(ops[1],8),imm(ops[2],8));
+            case "POP":
+                return wyde("POP",imm(ops[0],8),eval(ops[1],true));
+            case "GET":
+                return inst("GET",reg(ops[0]),0,imm(ops[1],8));
+            case "PUT":
+                if(ops[1].startsWith("$")) return inst("PUT",imm(ops[0],8),0,reg(ops[1]));
+                return inst("PUTI",imm(ops[0],8),0,imm(ops[1],8));
+        }
+
+        if(mnemonic.matches("SET(H|MH|ML|L)|INC(H|MH|ML|L)|OR(H|MH|ML|L)|ANDN(H|MH|ML|L)")){
+            return wyde(mnemonic,reg(ops[0]),eval(ops[1],true));
+        }
+
+        if(mnemonic.matches("P?B(N|Z|P|OD|NN|NZ|NP|EV)|PUSHJ|GETA")){
+            long offset = relative(ops[1]);
+            if(offset < 0) return wyde(mnemonic+"B",reg(ops[0]),offset+(1<<16));
+            return wyde(mnemonic,reg(ops[0]),offset);
+        }
+
+        if(!opcode.containsKey(mnemonic) || !opcode.containsKey(mnemonic+"I")){
+            throw new CompilerError("Unknown instruction '"+mnemonic+"'.");
+        }
+
+        int x = mnemonic.matches("STCO|SYNCD|PREST|SYNCID|PRELD|PREGO") ? imm(ops[0],8) : reg(ops[0]);
+
+        // A memory address given by a single expression.
+        if(ops.length == 2 && !ops[1].startsWith("$") && mnemonic.matches("(LD|ST|CSWAP|GO|PUSHGO|PRE|SYNC).*")){
+            return address(mnemonic,x,ops);
+        }
+
+        int y;
+        String z;
+        if(mnemonic.matches("NEGU?") && ops.length == 2){
+            y = 0;
+            z = ops[1];
+        }else if(mnemonic.matches("NEGU?")){
+            y = imm(ops[1],8);
+            z = ops[2];
+        }else{
+            y = reg(ops[1]);
+            z = ops.length > 2 ? ops[2] : "0";
+        }
+
+        if(z.startsWith("$")) return inst(mnemonic,x,y,reg(z));
+        return inst(mnemonic+"I",x,y,imm(z,8));
+    }
+
+    /**
+     * Encodes an address as a global base register and an offset.
+     */
+    private long address(String mnemonic, int x, String[] ops){
+        long addr = eval(ops[ops.length-1],true);
+
+        int base = -1;
+        long offset = 256;
+        for(int r=rG; r<255; r++){
+            long off = addr-globals[r];
+            if(off >= 0 && off < offset){
+                base = r;
+                offset = off;
+            }
+        }
+        if(base < 0) throw new CompilerError("No base address is close enough to '"+ops[ops.length-1]+"'.");
+
+        return inst(mnemonic+"I",x,base,(int)offset);
+    }
+
+    private long relative(String target){
+        long offset = eval(target,true)-loc;
+        if(offset % 4 != 0) throw new CompilerError("Misaligned target '"+target+"'.");
+        return offset/4;
+    }
+
+    private long inst(String mnemonic, int x, int y, int z){
+        return (long)opcode.get(mnemonic)<<24 | (long)x<<16 | (long)y<<8 | z;
+    }
+
+    private long wyde(String mnemonic, int x, long yz){
+        if(yz < 0 || yz > 0xFFFF) throw new CompilerError("Operand "+yz+" of "+mnemonic+" out of range.");
+        return (long)opcode.get(mnemonic)<<24 | (long)x<<16 | yz;
+    }
+
+    private int reg(String operand){
+        if(!operand.startsWith("$")) throw new CompilerError("Register expected instead of '"+operand+"'.");
+        return imm(operand.substring(1),8);
+    }
+
+    private int imm(String operand, int bits){
+        long value = eval(operand,true);
+        if(value < 0 || value >= (1L<<bits)) throw new CompilerError("Operand '"+operand+"' out of range.");
+        return (int)value;
+    }
+
+    // ----- EXPRESSIONS -----
+
+    /**
+     * Evaluates a sum of numbers, symbols and @.
+     */
+    private long eval(String expr, boolean labels){
+        long value = 0;
+        int sign = 1;
+        int start = 0;
+
+        for(int i=0; i<=expr.length(); i++){
+            if(i == expr.length() || ((expr.charAt(i) == '+' || expr.charAt(i) == '-') && i > start)){
+                value += sign*term(expr.substring(start,i).trim(),labels);
+                if(i < expr.length()) sign = expr.charAt(i) == '+' ? 1 : -1;
+                start = i+1;
+            }else if(expr.charAt(i) == '-' && i == start){
+                sign = -sign;
+                start = i+1;
+            }
+        }
+
+        return value;
+    }
+
+    private long term(String term, boolean labels){
+        if(term.equals("@")) return loc;
+        if(term.startsWith("#")) return Long.parseUnsignedLong(term.substring(1),16);
+        if(term.matches("[0-9]+")) return Long.parseUnsignedLong(term);
+        if(term.matches("'.'")) return term.charAt(1);
+
+        Long value = predefined.get(term);
+        if(value != null) return value;
+
+        value = symbols.get(term);
+        if(value != null) return value;
+
+        if(labels) throw new CompilerError("Undefined symbol '"+term+"'.");
+        throw new CompilerError("Symbol '"+term+"' must be defined before it is used here.");
+    }
+
+    private static String[] split(String operands){
+        LinkedList<String> list = new LinkedList<String>();
+        StringBuilder operand = new StringBuilder();
+        boolean quoted = false;
+
+        for(int i=0; i<operands.length(); i++){
+            char c = operands.charAt(i);
+
+            if(c == '"') quoted = !quoted;
+            if(c == ',' && !quoted){
+                list.add(operand.toString().trim());
+                operand = new StringBuilder();
+            }else operand.append(c);
+        }
+        if(operand.toString().trim().length() > 0 || list.size() > 0) list.add(operand.toString().trim());
+
+        return list.toArray(new String[list.size()]);
+    }
+
+    private static int size(String mnemonic){
+        switch(mnemonic){
+            case "OCTA":
+                return 8;
+            case "TETRA":
+                return 4;
+            case "WYDE":
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private static long align(long loc, int size){
+        return (loc+size-1) & -size;
+    }
+
+    private void store(long addr, int size, long value){
+        for(int b=size-1; b>=0; b--){
+            long a = addr+b;
+            byte[] tetra = memory.get(a & -4L);
+            if(tetra == null) memory.put(a & -4L, tetra = new byte[4]);
+            tetra[(int)(a & 3)] = (byte)value;
+            value >>= 8;
+        }
+    }
+
+    // ----- OBJECT FILE -----
+
+    private static final int mm = 0x98;
+
+    private static final int lop_quote = 0x0;
+    private static final int lop_loc = 0x1;
+    private static final int lop_skip = 0x2;
+    private static final int lop_pre = 0x9;
+    private static final int lop_post = 0xA;
+    private static final int lop_stab = 0xB;
+    private static final int lop_end = 0xC;
+
+    /**
+     * Writes the memory image, the initial values of global registers and the
+     * symbol table in the MMIX object file format.
+     */
+    public void writeToFile(File file) throws IOException{
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        // The time stamp is left zero so that the output is reproducible.
+        lop(out,lop_pre,1,1);
+        out.writeInt(0);
+
+        long next = -1;
+        for(Map.Entry<Long,byte[]> entry : memory.entrySet()){
+            long addr = entry.getKey();
+
+            if(addr != next){
+                if(next >= 0 && addr > next && addr-next < 0x10000 && (addr >>> 56) == (next >>> 56)){
+                    lop(out,lop_skip,(int)((addr-next) >> 8),(int)((addr-next) & 0xFF));
+                }else if((addr & 0x00FFFFFF00000000L) == 0){
+                    lop(out,lop_loc,(int)(addr >>> 56),1);
+                    out.writeInt((int)addr);
+                }else{
+                    lop(out,lop_loc,(int)(addr >>> 56),2);
+                    out.writeInt((int)((addr >>> 32) & 0x00FFFFFFL));
+                    out.writeInt((int)addr);
+                }
+            }
+
+            byte[] tetra = entry.getValue();
+            if((tetra[0] & 0xFF) == mm) lop(out,lop_quote,0,1);
+            out.write(tetra);
+
+            next = addr+4;
+        }
+
+        lop(out,lop_post,0,rG);
+        for(int r=rG; r<256; r++) out.writeLong(globals[r]);
+
+        lop(out,lop_stab,0,0);
+        ByteArrayOutputStream stab = new ByteArrayOutputStream();
+        Trie trie = new Trie(':');
+        int serial = 0;
+        for(Map.Entry<String,Long> symbol : symbols.entrySet()){
+            trie.add(":"+symbol.getKey(),0,symbol.getValue(),++serial);
+        }
+        if(trie.middle != null) trie.middle.write(stab);
+        while(stab.size() % 4 != 0) stab.write(0);
+        out.write(stab.toByteArray());
+        lop(out,lop_end,stab.size()/4 >> 8,stab.size()/4 & 0xFF);
+
+        out.close();
+    }
+
+    private void lop(DataOutputStream out, int lop, int y, int z) throws IOException{
+        out.writeByte(mm);
+        out.writeByte(lop);
+        out.writeByte(y);
+        out.writeByte(z);
+    }
+
+    /**
+     * A ternary search trie of symbols as stored in the object file.
+     */
+    private static class Trie{
+        final char c;
+        Trie left;
+        Trie middle;
+        Trie right;
+
+        long value;
+        int serial;
+
+        Trie(char c){
+            this.c = c;
+            this.serial = 0;
+        }
+
+        void add(String name, int i, long value, int serial){
+            if(i == name.length()){
+                this.value = value;
+                this.serial = serial;
+                return;
+            }
+            char n = name.charAt(i);
+            if(middle == null) middle = new Trie(n);
+            middle.insert(name,i,value,serial);
+        }
+
+        void insert(String name, int i, long value, int serial){
+            char n = name.charAt(i);
+            if(n < c){
+                if(left == null) left = new Trie(n);
+                left.insert(name,i,value,serial);
+            }else if(n > c){
+                if(right == null) right = new Trie(n);
+                right.insert(name,i,value,serial);
+            }else add(name,i+1,value,serial);
+        }
+
+        void write(ByteArrayOutputStream out){
+            int m = 0;
+            if(left != null) m |= 0x40;
+            if(middle != null) m |= 0x20;
+            if(right != null) m |= 0x10;
+            if(c > 0xFF) m |= 0x80;
+
+            byte[] equiv = null;
+            if(serial > 0){
+                long v = value;
+                int offset = 0;
+                if(v >= 0x2000000000000000L && v < 0x4000000000000000L){
+                    v -= 0x2000000000000000L;
+                    offset = 8;
+                }
+                int bytes = 1;
+                while(bytes < 8 && (v >>> (8*bytes)) != 0) bytes++;
+                m |= bytes+offset;
+                equiv = new byte[bytes];
+                for(int b=0; b<bytes; b++) equiv[b] = (byte)(v >>> (8*(bytes-1-b)));
+            }
+
+            out.write(m);
+            if(left != null) left.write(out);
+            if((m & 0x2F) != 0){
+                if(c > 0xFF) out.write(c >> 8);
+                out.write(c);
+            }
+            if(equiv != null){
+                out.write(equiv,0,equiv.length);
+                int shift = 0;
+                while((serial >> shift) >= 128) shift += 7;
+                for(; shift>0; shift-=7) out.write((serial >> shift) & 0x7F);
+                out.write((serial & 0x7F) | 0x80);
+            }
+            if(middle != null) middle.write(out);
+            if(right != null) right.write(out);
+        }
+    }
+}
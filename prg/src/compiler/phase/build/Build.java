@@ -4,6 +4,7 @@ import java.io.*;
 import java.util.*;
 
 import compiler.*;
+import compiler.common.report.*;
 import compiler.phase.*;
 
 import compiler.phase.frames.*;
@@ -25,145 +26,441 @@ public class Build extends Phase{
     }
 
     public void build(){
-        for(Fragment tmp : task.fragments.values()){
-            if(tmp instanceof CodeFragment){
-                CodeFragment frag = (CodeFragment)tmp;
-                LinkedList<AsmInst> prologue = new LinkedList<AsmInst>();
-                LinkedList<AsmInst> epilogue = new LinkedList<AsmInst>();
-
-                prologue.add(new AsmOPER("ADD", "$0,$253,0"));
-                prologue.add(new AsmOPER("ADD", "$253,254,0"));
-                prologue.add(new AsmOPER("SETL", "$1,40"));
-                prologue.add(new AsmOPER("SUB", "$254,$254,$1"));
-                prologue.add(new AsmOPER("SETL", "$1,16"));
-                prologue.add(new AsmOPER("SUB", "$1,$253,$1"));
-                prologue.add(new AsmOPER("STO", "$0,$1,0"));
-                prologue.add(new AsmOPER("GET", "$0,rJ"));
-                prologue.add(new AsmOPER("SUB", "$1,$1,8"));
-                prologue.add(new AsmOPER("STO", "$0,$1,0"));
-
-                epilogue.add(new AsmOPER("STO", "$0,$253,0"));
-                epilogue.add(new AsmOPER("SETL", "$1,16"));
-                epilogue.add(new AsmOPER("SUB", "$1,$253,$1"));
-                epilogue.add(new AsmOPER("LDO", "$0,$1,0"));
-                epilogue.add(new AsmOPER("SUB", "$1,$1,8"));
-                epilogue.add(new AsmOPER("LDO", "$0,$1,0"));
-                epilogue.add(new AsmOPER("PUT", "rJ,$1"));
-                epilogue.add(new AsmOPER("ADD", "$254,$253,0"));
-                epilogue.add(new AsmOPER("ADD", "$253,$0,0"));
-                epilogue.add(new AsmOPER("POP", "0,0"));
-
-                frag.asmcode.addAll(1, prologue);
-                frag.asmcode.addAll(epilogue);
+        forEachCodeFragment(frag -> {
+            LinkedList<AsmInst> prologue = new LinkedList<AsmInst>();
+            LinkedList<AsmInst> epilogue = new LinkedList<AsmInst>();
+
+            boolean leaf = true;
+            boolean frame = false;
+
+            for(AsmInst inst : frag.asmcode){
+                if(inst.mnemonic.equals("PUSHJ")) leaf = false;
+
+                for(TEMP use : inst.uses){
+                    if(use.name == frag.FP || use.name == frag.SP) frame = true;
+                }
             }
-        }
 
+            // A function that calls others needs a frame for the return
+            // address and the outgoing arguments.
+            frame |= !leaf;
+
+            // The old frame pointer is stored right below the local
+            // variables and the return address right below it.
+            long saved = frag.frame.locVarsSize+16;
+
+            // The prologue works above the arguments passed in registers.
+            int args = frag.frame.inpRegs.length;
+            if(frame){
+                offset(prologue,"$"+args,"$254",saved);
+                prologue.add(new AsmOPER("STO", "$253,$"+args+",8"));
+                if(!leaf){
+                    prologue.add(new AsmOPER("GET", "$"+(args+1)+",rJ"));
+                    prologue.add(new AsmOPER("STO", "$"+(args+1)+",$"+args+",0"));
+                }
+                prologue.add(new AsmOPER("SET", "$253,$254"));
+                offset(prologue,"$254","$254",frameSize(frag));
+            }
+
+            HashSet<String> local = new HashSet<String>();
+            for(AsmInst inst : frag.asmcode){
+                if(inst instanceof AsmLABEL) local.add(inst.labels.getFirst().label);
+            }
+            for(int i=0; i<frag.asmcode.size(); i++){
+                AsmInst inst = frag.asmcode.get(i);
+                LinkedList<AsmInst> code = new LinkedList<AsmInst>();
+
+                if(inst.mnemonic.equals("ENTRY")){
+                    // The parameters are moved from $0, $1, ... into their
+                    // registers.
+                    String[] regs = inst.assem.split(",");
+                    int[] dst = new int[regs.length];
+                    int[] src = new int[regs.length];
+                    for(int r=0; r<regs.length; r++){
+                        dst[r] = register(frag,inst.defs.get(r));
+                        src[r] = Integer.parseInt(regs[r].substring(1));
+                    }
+                    moves(code,dst,src);
+                    frag.asmcode.remove(i);
+                    frag.asmcode.addAll(i, code);
+                    i += code.size()-1;
+                }else if(inst.mnemonic.equals("PUSHJ") && !inst.uses.isEmpty()){
+                    // The arguments passed in registers are put right above
+                    // the hole, where the callee finds them as $0, $1, ...
+                    int hole = register(frag,inst.defs.getFirst());
+                    int[] dst = new int[inst.uses.size()];
+                    int[] src = new int[inst.uses.size()];
+                    for(int r=0; r<dst.length; r++){
+                        dst[r] = hole+1+r;
+                        src[r] = register(frag,inst.uses.get(r));
+                    }
+                    moves(code,dst,src);
+                    frag.asmcode.addAll(i, code);
+                    i += code.size();
+                }else if(inst.mnemonic.equals("JMP") && !local.contains(inst.labels.getFirst().label)){
+                    // The frame is also released before a tail call, which
+                    // jumps to a label outside the function and leaves the
+                    // arguments passed in registers in $0, $1, ...
+                    int[] dst = new int[inst.uses.size()];
+                    int[] src = new int[inst.uses.size()];
+                    for(int r=0; r<dst.length; r++){
+                        dst[r] = r;
+                        src[r] = register(frag,inst.uses.get(r));
+                    }
+                    moves(code,dst,src);
+                    release(code,frag,frame,leaf,dst.length);
+                    frag.asmcode.addAll(i, code);
+                    i += code.size();
+                }
+            }
+
+            String result = frag.registers.get(new TEMP(frag.RV));
+
+            if(result != null && !result.equals("$0")){
+                epilogue.add(new AsmOPER("SET", "$0,"+result));
+            }
+            release(epilogue,frag,frame,leaf,1);
+            epilogue.add(new AsmOPER("POP", (result == null ? 0 : 1)+",0"));
+
+            frag.asmcode.addAll(1, prologue);
+            frag.asmcode.addAll(epilogue);
+        });
+
+        runtime();
+
+        // FP and SP are the global registers $253 and $254 (see emit), the
+        // stack grows down from the top of the stack segment.
         Frame fr = new Frame(0,"",0,0,0,0,0);
         CodeFragment main = new CodeFragment(fr,0,0,0,null);
         main.asmcode = new LinkedList<AsmInst>();
 
-        main.asmcode.add(new AsmOPER("LOC", "#100"));
         main.asmcode.add(new AsmLABEL("`l0",new LABEL("Main")));
-        main.asmcode.add(new AsmOPER("PUT", "rG,$254"));
-        main.asmcode.add(new AsmOPER("SET", "$254,7"));
-        main.asmcode.add(new AsmOPER("SL", "$254,$254,60"));
-        main.asmcode.add(new AsmOPER("SUB", "$254,$254,1"));
+        main.asmcode.add(new AsmOPER("SETH", "$254,#7000"));
+        main.asmcode.add(new AsmOPER("SUB", "$254,$254,8"));
         main.asmcode.add(new AsmOPER("SET", "$253,$254"));
-        main.asmcode.add(new AsmOPER("SET", "$255,4"));
-        main.asmcode.add(new AsmOPER("SL", "$255,$255,60"));
         main.asmcode.add(new AsmOPER("PUSHJ", "$0,_"));
         main.asmcode.add(new AsmOPER("TRAP", "0,Halt,0"));
 
         task.fragments.put("",main);
     }
 
+    /**
+     * Adds the standard library functions the program calls. They take their
+     * argument at SP+8 and print it with Fputs from the free stack below SP.
+     */
+    private void runtime(){
+        HashSet<String> called = new HashSet<String>();
+
+        for(Fragment tmp : task.fragments.values()){
+            if(tmp instanceof CodeFragment){
+                for(AsmInst inst : ((CodeFragment)tmp).asmcode){
+                    if(inst.mnemonic.equals("PUSHJ") || inst.mnemonic.equals("JMP")){
+                        called.add(inst.labels.getFirst().label);
+                    }
+                }
+            }
+        }
+
+        if(called.contains("_printStr")){
+            runtime("_printStr",
+                    "LDO $255,$254,8",
+                    "TRAP 0,Fputs,StdOut",
+                    "POP 0,0");
+        }
+        if(called.contains("_printChr")){
+            runtime("_printChr",
+                    "LDBU $0,$254,8",
+                    "SUB $255,$254,16",
+                    "STB $0,$255,0",
+                    "SET $0,0",
+                    "STB $0,$255,1",
+                    "TRAP 0,Fputs,StdOut",
+                    "POP 0,0");
+        }
+        if(called.contains("_printInt")){
+            runtime("_printInt",
+                    "LDO $0,$254,8",
+                    "SUB $255,$254,8",
+                    "SET $1,0",
+                    "STB $1,$255,0",
+                    "SET $2,$0",
+                    "BNN $0,_printInt_digit",
+                    "NEG $2,0,$0",
+                    ":_printInt_digit",
+                    "DIV $2,$2,10",
+                    "GET $1,rR",
+                    "ADD $1,$1,48",
+                    "SUB $255,$255,1",
+                    "STB $1,$255,0",
+                    "BNZ $2,_printInt_digit",
+                    "BNN $0,_printInt_print",
+                    "SET $1,45",
+                    "SUB $255,$255,1",
+                    "STB $1,$255,0",
+                    ":_printInt_print",
+                    "TRAP 0,Fputs,StdOut",
+                    "POP 0,0");
+        }
+    }
+
+    /**
+     * Adds a hand-written code fragment; lines starting with a colon are
+     * labels.
+     */
+    private void runtime(String label, String... code){
+        CodeFragment frag = new CodeFragment(new Frame(0,label,0,0,0,0,0),0,0,0,null);
+        frag.asmcode = new LinkedList<AsmInst>();
+        frag.registers = new HashMap<TEMP,String>();
+
+        frag.asmcode.add(new AsmLABEL("`l0",new LABEL(label)));
+        for(String inst : code){
+            if(inst.startsWith(":")){
+                frag.asmcode.add(new AsmLABEL("`l0",new LABEL(inst.substring(1))));
+            }else{
+                int space = inst.indexOf(' ');
+                frag.asmcode.add(new AsmOPER(inst.substring(0,space),inst.substring(space+1)));
+            }
+        }
+
+        task.fragments.put(label,frag);
+    }
+
+    /**
+     * Assembles the program in memory.
+     */
+    public Assembler assemble(){
+        Assembler assembler = new Assembler();
+        try{
+            emit(assembler);
+        }catch(IOException ex){
+            throw new InternalCompilerError();
+        }
+        assembler.assemble();
+        return assembler;
+    }
+
     public void writeToFile(){
-        int labelLen = 4;
-        boolean dataSeg = false;
-        int i = 0;
+        if(task.emit.equals("mmo")){
+            try{
+                assemble().writeToFile(new File(task.srcFName.replaceFirst(".prev",".mmo")));
+            }catch(IOException ex){
+                ex.printStackTrace();
+            }
+            return;
+        }
 
-        String outFile = task.srcFName.replaceFirst(".prev",".mms");
-        File f = new File(outFile);
+        File f = new File(task.srcFName.replaceFirst(".prev",".mms"));
 
-        for(Fragment frag : task.fragments.values()){
-            if(frag instanceof DataFragment){
-                int len = ((DataFragment)frag).label.length();
+        try(AsmWriter out = new AsmWriter(f)){
+            emit(out);
+        }catch(IOException ex){
+            ex.printStackTrace();
+        }
+    }
 
-                if(len > labelLen) labelLen = len;
+    /**
+     * Passes the lines of the program to an emitter, the data segment first.
+     * The fragments are emitted in the order they were defined, except that
+     * the code starts with Main and the program's body.
+     */
+    private void emit(Emitter out) throws IOException{
+        // The first two global registers are SP and FP.
+        out.line(null,"LOC","Data_Segment");
+        out.line(null,"GREG","0");
+        out.line(null,"GREG","0");
+
+        // LDA reaches 255 bytes above a base register, so a new base is
+        // allocated whenever the data may have grown past it.
+        long size = 256;
 
-                dataSeg = true;
-            }else if(frag instanceof ConstFragment){
-                int len = ((ConstFragment)frag).label.length();
+        for(Fragment tmp : task.fragments.values()){
+            if(tmp instanceof DataFragment){
+                DataFragment frag = (DataFragment)tmp;
 
-                if(len > labelLen) labelLen = len;
+                if(size > 248){
+                    out.line(null,"GREG","@");
+                    size = 0;
+                }
+                size += (frag.width+7) & -8;
 
-                dataSeg = true;
-            }else if(frag instanceof CodeFragment){
-                for(AsmInst inst : ((CodeFragment)frag).asmcode){
-                    if(inst.labels.size() > 0){
-                        int len = inst.labels.getFirst().label.length();
+                // OCTA aligns the label, the rest of the (zeroed)
+                // fragment is only reserved.
+                out.line(frag.label,"OCTA","0");
+                if(frag.width > 8){
+                    out.line(null,"LOC","@+"+(frag.width-8));
+                }
+            }else if(tmp instanceof ConstFragment){
+                ConstFragment frag = (ConstFragment)tmp;
 
-                        if(len > labelLen) labelLen = len;
-                    }
+                if(size > 248){
+                    out.line(null,"GREG","@");
+                    size = 0;
                 }
+                size += frag.string.length()+1;
+
+                out.line(frag.label,"BYTE",bytes(frag.string));
             }
         }
+        out.separator();
 
-        try{
-            PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(f,false)));
+        out.line(null,"LOC","#100");
+
+        LinkedList<CodeFragment> code = new LinkedList<CodeFragment>();
+        code.add((CodeFragment)task.fragments.get(""));
+        code.add((CodeFragment)task.fragments.get("_"));
+        for(Fragment tmp : task.fragments.values()){
+            if(tmp instanceof CodeFragment && !tmp.label.equals("") && !tmp.label.equals("_")){
+                code.add((CodeFragment)tmp);
+            }
+        }
+
+        for(CodeFragment frag : code){
+            String label = null;
+
+            for(AsmInst inst : frag.asmcode){
+                if(inst instanceof AsmLABEL){
+                    if(label != null) out.line(label,"IS","@");
+                    label = inst.labels.getFirst().label;
+                }else{
+                    out.line(label,inst.mnemonic,inst.operands(frag.registers));
+                    label = null;
+                }
+            }
+            if(label != null) out.line(label,"SWYM","");
+            out.separator();
+        }
+    }
 
-            if(dataSeg){
-                indent(labelLen+1,pw);
-                pw.write("LOC Data_Segment\n");
-                indent(labelLen+1,pw);
-                pw.write("GREG @\n");
+    /**
+     * Converts a string constant (with quotes and escapes) to the operands of
+     * BYTE, terminated by a zero byte.
+     */
+    private String bytes(String string){
+        StringBuilder operands = new StringBuilder();
+        boolean quoted = false;
+
+        for(int i=1; i<string.length()-1; i++){
+            char c = string.charAt(i);
+            boolean escaped = false;
+
+            if(c == '\\'){
+                escaped = true;
+                switch(string.charAt(++i)){
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    default:
+                        c = string.charAt(i);
+                }
+            }
 
-                for(Fragment tmp : task.fragments.values()){
-                    if(tmp instanceof DataFragment){
-                        DataFragment frag = (DataFragment)tmp;
+            if(escaped || c == '"' || c < ' '){
+                if(quoted) operands.append('"');
+                if(operands.length() > 0) operands.append(',');
+                operands.append((int)c);
+                quoted = false;
+            }else{
+                if(!quoted){
+                    if(operands.length() > 0) operands.append(',');
+                    operands.append('"');
+                }
+                operands.append(c);
+                quoted = true;
+            }
+        }
+        if(quoted) operands.append('"');
+        if(operands.length() > 0) operands.append(',');
+        operands.append('0');
 
-                        String data = "";
-                        for(long j=0; j<(frag.width/8)-1; j++) data += "0,";
+        return operands.toString();
+    }
 
-                        pw.write(String.format("%-"+labelLen+"s %s",frag.label,"OCTA "+data+"0\n"));
-                    }else if(tmp instanceof ConstFragment){
-                        ConstFragment frag = (ConstFragment)tmp;
+    /**
+     * Restores the caller's frame and return address, using the registers
+     * from $free up.
+     */
+    private void release(LinkedList<AsmInst> code, CodeFragment frag, boolean frame, boolean leaf, int free){
+        if(!frame) return;
+
+        String addr = "$"+free;
+        offset(code,addr,"$253",frag.frame.locVarsSize+16);
+        if(!leaf){
+            code.add(new AsmOPER("LDO", "$"+(free+1)+","+addr+",0"));
+            code.add(new AsmOPER("PUT", "rJ,$"+(free+1)));
+        }
+        code.add(new AsmOPER("SET", "$254,$253"));
+        code.add(new AsmOPER("LDO", "$253,"+addr+",8"));
+    }
 
-                        pw.write(String.format("%-"+labelLen+"s %s",frag.label,"BYTE \""+frag.string+"\"0\n"));
-                    }
+    private int register(CodeFragment frag, TEMP tmp){
+        return Integer.parseInt(frag.registers.get(tmp).substring(1));
+    }
+
+    /**
+     * Sets the registers dst[i] to the values of src[i] all at once, breaking
+     * the cycles with $255.
+     */
+    private void moves(LinkedList<AsmInst> code, int[] dst, int[] src){
+        LinkedList<int[]> pending = new LinkedList<int[]>();
+        for(int i=0; i<dst.length; i++){
+            if(dst[i] != src[i]) pending.add(new int[]{dst[i],src[i]});
+        }
+
+        while(!pending.isEmpty()){
+            int[] move = null;
+            for(int[] candidate : pending){
+                boolean read = false;
+                for(int[] other : pending) read |= other[1] == candidate[0];
+                if(!read){
+                    move = candidate;
+                    break;
                 }
-                pw.write("\n");
             }
-            for(Fragment tmp : task.fragments.values()){
-                if(tmp instanceof CodeFragment){
-                    CodeFragment frag = (CodeFragment)tmp;
-
-                    for(int j=0; j<frag.asmcode.size(); j++){
-                        AsmInst inst = frag.asmcode.get(j);
-
-                        if(inst instanceof AsmLABEL){
-                            if(j+1>=frag.asmcode.size()){
-                                frag.asmcode.add(new AsmOPER("SWYM",""));
-                            }
-
-                            pw.write(String.format("%-"+labelLen+"s %s\n", inst.labels.getFirst().label,
-                                        frag.asmcode.get(++j).format(frag.registers)));
-                        }else{
-                            indent(labelLen+1,pw);
-                            pw.write(inst.format(frag.registers)+"\n");
-                        }
-                    }
-                    pw.write("\n");
+
+            if(move != null){
+                code.add(new AsmOPER("SET", "$"+move[0]+",$"+move[1]));
+                pending.remove(move);
+            }else{
+                // Every destination is still to be read, so one of them is
+                // saved first.
+                int reg = pending.getFirst()[0];
+                code.add(new AsmOPER("SET", "$255,$"+reg));
+                for(int[] other : pending){
+                    if(other[1] == reg) other[1] = 255;
                 }
             }
-            pw.flush();
-            pw.close();
-        }catch(IOException ex){
-            ex.printStackTrace();
         }
     }
 
-    private void indent(int indent, PrintWriter pw) throws IOException{
-            for(int i=0; i<indent; i++)pw.write(" ");
+    /**
+     * The size of the frame including the spilled temporaries, which are only
+     * known after register allocation.
+     */
+    private long frameSize(CodeFragment frag){
+        Frame frame = frag.frame;
+        return frame.locVarsSize + 16 + frame.tmpVarsSize + frame.hidRegsSize + frame.outCallSize;
+    }
+
+    /**
+     * Computes dst = src - offset, using an immediate operand when the offset
+     * fits into a byte and building the constant in dst otherwise.
+     */
+    private void offset(LinkedList<AsmInst> code, String dst, String src, long offset){
+        if(offset < 256){
+            code.add(new AsmOPER("SUB", dst+","+src+","+offset));
+            return;
+        }
+
+        code.add(new AsmOPER("SETL", dst+","+(offset & 0xFFFFL)));
+        if((offset & 0xFFFF0000L) != 0)
+            code.add(new AsmOPER("INCML", dst+","+((offset >> 16) & 0xFFFFL)));
+        if((offset & 0xFFFF00000000L) != 0)
+            code.add(new AsmOPER("INCMH", dst+","+((offset >> 32) & 0xFFFFL)));
+        if((offset >> 48) != 0)
+            code.add(new AsmOPER("INCH", dst+","+((offset >> 48) & 0xFFFFL)));
+        code.add(new AsmOPER("SUB", dst+","+src+","+dst));
     }
 }
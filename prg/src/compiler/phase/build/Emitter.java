@@ -0,0 +1,26 @@
+package compiler.phase.build;
+
+import java.io.*;
+
+/**
+ * Receives the lines of the final assembly program in order.
+ */
+interface Emitter{
+
+    /**
+     * A single line of the program.
+     *
+     * @param label
+     *          The label defined by the line or null
+     * @param mnemonic
+     *          The instruction or directive
+     * @param operands
+     *          The operands as written in MMIXAL
+     */
+    public void line(String label, String mnemonic, String operands) throws IOException;
+
+    /**
+     * The end of the data segment or of a code fragment.
+     */
+    public void separator() throws IOException;
+}
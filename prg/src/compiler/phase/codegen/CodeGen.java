@@ -13,7 +13,6 @@ import compiler.data.asm.*;
 public class CodeGen extends Phase{
 
     private Task task;
-    private CodeFragment frag;
 
     public CodeGen(Task task){
         super(task,"codegen");
@@ -22,37 +21,48 @@ public class CodeGen extends Phase{
     }
 
     public void generate(){
-        for(Fragment tmp : task.fragments.values()){
-            if(tmp instanceof CodeFragment){
-                frag = (CodeFragment)tmp;
-                frag.asmcode = new LinkedList<AsmInst>(Arrays.asList(new AsmLABEL("`l0",
-                                new LABEL(frag.frame.label))));
+        forEachCodeFragment(frag -> generate(frag));
+    }
 
-                for(IMCStmt stm : ((STMTS)frag.linCode).stmts()){
-                    parse(stm);
-                }
-            }
+    private void generate(CodeFragment frag){
+        frag.asmcode = new LinkedList<AsmInst>(Arrays.asList(new AsmLABEL("`l0",
+                        new LABEL(frag.frame.label))));
+
+        List<IMCStmt> stmts = frag.linCode.stmts();
+        if(frag.frame.inpRegs.length > 0) stmts = parameters(frag,stmts);
+
+        // A tail call does not return here, so the statements up to the next
+        // label are not reachable.
+        boolean reachable = true;
+        for(IMCStmt stm : stmts){
+            if(stm instanceof LABEL) reachable = true;
+            if(!reachable) continue;
+            parse(frag,stm);
+            if(stm instanceof MOVE && frag.tailCalls.contains(((MOVE)stm).src)) reachable = false;
         }
-        optimize();
-        analyze();
+
+        optimize(frag);
+        analyze(frag);
     }
 
-    private void parse(IMCStmt stm){
+    private void parse(CodeFragment frag, IMCStmt stm){
         LinkedList<TEMP> uses = new LinkedList<TEMP>();
         LinkedList<LABEL> labels = new LinkedList<LABEL>();
 
         if(stm instanceof MOVE){
             MOVE move = (MOVE)stm;
             if(move.dst instanceof MEM){
-                uses.add(parse(move.src));
-                uses.add(parse((MEM)move.dst));
-                frag.asmcode.add(new AsmOPER("STO","`s0,`s1,0",null,uses));
+                uses.add(parse(frag,move.src));
+                uses.add(parse(frag,((MEM)move.dst).addr));
+                frag.asmcode.add(new AsmOPER(((MEM)move.dst).width == 1 ? "STB" : "STO","`s0,`s1,0",null,uses));
             }
-            if(move.dst instanceof TEMP){
-                frag.asmcode.add(new AsmMOVE("SET","`d0,`d1",parse(move.dst),parse(move.src)));
+            if(move.dst instanceof TEMP && frag.tailCalls.contains(move.src)){
+                jump(frag,(CALL)move.src);
+            }else if(move.dst instanceof TEMP){
+                frag.asmcode.add(new AsmMOVE("SET","`d0,`s0",parse(frag,move.dst),parse(frag,move.src)));
             }
         }else if(stm instanceof CJUMP){
-            uses.add(parse(((CJUMP)stm).cond));
+            uses.add(parse(frag,((CJUMP)stm).cond));
             labels.add(new LABEL(((CJUMP)stm).negLabel));
             frag.asmcode.add(new AsmOPER("BZ","`s0,`l0",null,uses,labels));
         }else if(stm instanceof JUMP){
@@ -63,7 +73,236 @@ public class CodeGen extends Phase{
         }
     }
 
-    private TEMP parse(IMCExpr expr){
+    /**
+     * Takes the parameters passed in registers. The ENTRY instruction defines
+     * a temporary for each of them (see Build). If no address in the frame is
+     * ever passed anywhere, the parameters are accessed in these temporaries
+     * instead of their slots; otherwise they are stored into the slots.
+     */
+    private Vector<IMCStmt> parameters(CodeFragment frag, List<IMCStmt> stmts){
+        long[] widths = frag.frame.inpRegs;
+
+        // The offsets of the addresses in the frame.
+        HashMap<Integer,Integer> defs = new HashMap<Integer,Integer>();
+        for(IMCStmt stmt : stmts){
+            if(stmt instanceof MOVE && ((MOVE)stmt).dst instanceof TEMP) defs.merge(((TEMP)((MOVE)stmt).dst).name,1,Integer::sum);
+        }
+        HashMap<Integer,Long> offsets = new HashMap<Integer,Long>();
+        offsets.put(frag.FP,0L);
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(IMCStmt stmt : stmts){
+                if(!(stmt instanceof MOVE) || !(((MOVE)stmt).dst instanceof TEMP)) continue;
+                int dst = ((TEMP)((MOVE)stmt).dst).name;
+                if(defs.get(dst) != 1 || offsets.containsKey(dst)) continue;
+                Long offset = offset(((MOVE)stmt).src,offsets);
+                if(offset != null){
+                    offsets.put(dst,offset);
+                    changed = true;
+                }
+            }
+        }
+
+        boolean registers = true;
+        for(IMCStmt stmt : stmts){
+            if(stmt instanceof MOVE){
+                MOVE move = (MOVE)stmt;
+                if(move.dst instanceof TEMP && offsets.containsKey(((TEMP)move.dst).name)) continue;
+                if(move.dst instanceof MEM) registers &= address(((MEM)move.dst).addr,offsets,widths.length);
+                registers &= !escapes(move.src,offsets,widths.length);
+            }else if(stmt instanceof CJUMP){
+                registers &= !escapes(((CJUMP)stmt).cond,offsets,widths.length);
+            }
+        }
+
+        TEMP[] params = new TEMP[widths.length];
+        for(int k=0; k<widths.length; k++) params[k] = new TEMP(TEMP.newTempName());
+
+        Vector<IMCStmt> result = new Vector<IMCStmt>();
+        if(registers){
+            for(IMCStmt stmt : stmts){
+                if(stmt instanceof MOVE){
+                    MOVE move = (MOVE)stmt;
+                    if(move.dst instanceof TEMP){
+                        // The addresses of the parameters are no longer needed.
+                        Long offset = offsets.get(((TEMP)move.dst).name);
+                        if(offset != null && offset >= 0 && offset < 8*widths.length) continue;
+                    }
+                    IMCExpr dst = move.dst instanceof MEM ? parameter((MEM)move.dst,offsets,params) : move.dst;
+                    IMCExpr src = parameters(move.src,offsets,params);
+                    if(dst != move.dst || src != move.src) stmt = new MOVE(dst,src);
+                }else if(stmt instanceof CJUMP){
+                    CJUMP cjump = (CJUMP)stmt;
+                    IMCExpr cond = parameters(cjump.cond,offsets,params);
+                    if(cond != cjump.cond) stmt = new CJUMP(cond,cjump.posLabel,cjump.negLabel);
+                }
+                result.add(stmt);
+            }
+        }else{
+            for(int k=0; k<widths.length; k++){
+                IMCExpr addr = new TEMP(frag.FP);
+                if(k > 0) addr = new BINOP(BINOP.Oper.ADD,addr,new CONST(8*k));
+                result.add(new MOVE(new MEM(addr,widths[k]),params[k]));
+            }
+            result.addAll(stmts);
+        }
+
+        LinkedList<TEMP> entry = new LinkedList<TEMP>();
+        String regs = "";
+        for(int k=0; k<widths.length; k++){
+            if(registers && !used(result,params[k])) continue;
+            entry.add(params[k]);
+            regs += (regs.isEmpty() ? "" : ",") + "$" + k;
+        }
+        if(!entry.isEmpty()) frag.asmcode.add(new AsmOPER("ENTRY",regs,entry,null));
+
+        return result;
+    }
+
+    /**
+     * Returns the offset from FP of an address computed from FP and constants,
+     * or null.
+     */
+    private Long offset(IMCExpr expr, HashMap<Integer,Long> offsets){
+        if(expr instanceof TEMP) return offsets.get(((TEMP)expr).name);
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            if(binop.oper != BINOP.Oper.ADD && binop.oper != BINOP.Oper.SUB) return null;
+            Long base = offset(binop.expr1,offsets);
+            if(base == null || !(binop.expr2 instanceof CONST)) return null;
+            long value = ((CONST)binop.expr2).value;
+            return binop.oper == BINOP.Oper.ADD ? base+value : base-value;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if an address does not escape and, if it points into the
+     * parameters passed in registers, points at one of them.
+     */
+    private boolean address(IMCExpr addr, HashMap<Integer,Long> offsets, int params){
+        if(!(addr instanceof TEMP) || !offsets.containsKey(((TEMP)addr).name)) return !escapes(addr,offsets,params);
+        long offset = offsets.get(((TEMP)addr).name);
+        return offset < 0 || offset >= 8*params || offset % 8 == 0;
+    }
+
+    /**
+     * Returns true if an address in the frame is used as anything but the
+     * address of a load or a store.
+     */
+    private boolean escapes(IMCExpr expr, HashMap<Integer,Long> offsets, int params){
+        if(expr instanceof TEMP) return offsets.containsKey(((TEMP)expr).name);
+        if(expr instanceof MEM) return !address(((MEM)expr).addr,offsets,params);
+        if(expr instanceof UNOP) return escapes(((UNOP)expr).expr,offsets,params);
+        if(expr instanceof BINOP){
+            return escapes(((BINOP)expr).expr1,offsets,params) || escapes(((BINOP)expr).expr2,offsets,params);
+        }
+        if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            for(int i=0; i<call.numArgs(); i++){
+                if(escapes(call.args(i),offsets,params)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the expression with the loads of the parameters passed in
+     * registers replaced by their temporaries.
+     */
+    private IMCExpr parameters(IMCExpr expr, HashMap<Integer,Long> offsets, TEMP[] params){
+        if(expr instanceof MEM) return parameter((MEM)expr,offsets,params);
+        if(expr instanceof UNOP){
+            UNOP unop = (UNOP)expr;
+            IMCExpr sub = parameters(unop.expr,offsets,params);
+            return sub == unop.expr ? unop : new UNOP(unop.oper,sub);
+        }
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            IMCExpr expr1 = parameters(binop.expr1,offsets,params);
+            IMCExpr expr2 = parameters(binop.expr2,offsets,params);
+            return expr1 == binop.expr1 && expr2 == binop.expr2 ? binop : new BINOP(binop.oper,expr1,expr2);
+        }
+        return expr;
+    }
+
+    /**
+     * Returns the temporary of the parameter a load or a store accesses, or
+     * the access itself.
+     */
+    private IMCExpr parameter(MEM mem, HashMap<Integer,Long> offsets, TEMP[] params){
+        if(!(mem.addr instanceof TEMP)) return mem;
+        Long offset = offsets.get(((TEMP)mem.addr).name);
+        if(offset == null || offset < 0 || offset >= 8*params.length) return mem;
+        return params[(int)(offset/8)];
+    }
+
+    private boolean used(Vector<IMCStmt> stmts, TEMP tmp){
+        for(IMCStmt stmt : stmts){
+            if(uses(stmt,tmp)) return true;
+        }
+        return false;
+    }
+
+    private boolean uses(IMCStmt stmt, TEMP tmp){
+        if(stmt instanceof MOVE){
+            MOVE move = (MOVE)stmt;
+            return (move.dst instanceof MEM && uses(((MEM)move.dst).addr,tmp)) || uses(move.src,tmp);
+        }
+        if(stmt instanceof CJUMP) return uses(((CJUMP)stmt).cond,tmp);
+        return false;
+    }
+
+    private boolean uses(IMCExpr expr, TEMP tmp){
+        if(expr instanceof TEMP) return expr.equals(tmp);
+        if(expr instanceof MEM) return uses(((MEM)expr).addr,tmp);
+        if(expr instanceof UNOP) return uses(((UNOP)expr).expr,tmp);
+        if(expr instanceof BINOP) return uses(((BINOP)expr).expr1,tmp) || uses(((BINOP)expr).expr2,tmp);
+        if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            for(int i=0; i<call.numArgs(); i++){
+                if(uses(call.args(i),tmp)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of arguments the called function takes in registers.
+     */
+    private int registers(CALL call){
+        Fragment callee = task.fragments.get(call.label);
+        if(!(callee instanceof CodeFragment) || ((CodeFragment)callee).linCode == null) return 0;
+        return ((CodeFragment)callee).frame.inpRegs.length;
+    }
+
+    /**
+     * Stores the arguments of a tail call over the parameters and jumps to the
+     * callee; the frame is released before the jump and the arguments passed
+     * in registers are moved into $0, $1, ... (see Build).
+     */
+    private void jump(CodeFragment frag, CALL call){
+        LinkedList<TEMP> uses = new LinkedList<TEMP>();
+        int registers = registers(call);
+
+        long offset = 0;
+        for(int i=0; i<call.numArgs(); i++){
+            if(i < registers){
+                uses.add(parse(frag,call.args(i)));
+            }else{
+                frag.asmcode.add(new AsmOPER(call.widths(i) == 1 ? "STB" : "STO","`s0,`s1,"+offset,null,
+                            new LinkedList<TEMP>(Arrays.asList(parse(frag,call.args(i)),new TEMP(frag.FP)))));
+            }
+            offset += 8;
+        }
+
+        LinkedList<LABEL> labels = new LinkedList<LABEL>();
+        labels.add(new LABEL(call.label));
+        frag.asmcode.add(new AsmOPER("JMP","`l0",null,uses,labels));
+    }
+
+    private TEMP parse(CodeFragment frag, IMCExpr expr){
         TEMP tmp = null;
         //System.out.println(expr);
 
@@ -94,6 +333,9 @@ public class CodeGen extends Phase{
                 case DIV:
                     oper = "DIV";
                     break;
+                case MOD:
+                    oper = "DIV";
+                    break;
                 case NEQ:
                 case EQU:
                 case LTH:
@@ -105,11 +347,16 @@ public class CodeGen extends Phase{
             }
 
             defs.add(tmp = new TEMP(TEMP.newTempName()));
-            uses.add(parse(binop.expr1));
-            uses.add(parse(binop.expr2));
+            uses.add(parse(frag,binop.expr1));
+            uses.add(parse(frag,binop.expr2));
 
             frag.asmcode.add(new AsmOPER(oper,"`d0,`s0,`s1",defs,uses));
 
+            // The remainder of a division is left in rR.
+            if(binop.oper == BINOP.Oper.MOD){
+                frag.asmcode.add(new AsmOPER("GET","`d0,rR",defs,null));
+            }
+
             if(oper.equals("CMP")){
                 switch(binop.oper){
                     case EQU:
@@ -134,10 +381,35 @@ public class CodeGen extends Phase{
             }
         }
 
+        if(expr instanceof UNOP){
+            UNOP unop = (UNOP)expr;
+
+            switch(unop.oper){
+                case ADD:
+                    tmp = parse(frag,unop.expr);
+                    break;
+                case SUB:
+                    uses.add(parse(frag,unop.expr));
+                    defs.add(tmp = new TEMP(TEMP.newTempName()));
+                    frag.asmcode.add(new AsmOPER("NEG","`d0,0,`s0",defs,uses));
+                    break;
+                case NOT:
+                    uses.add(parse(frag,unop.expr));
+                    defs.add(tmp = new TEMP(TEMP.newTempName()));
+                    frag.asmcode.add(new AsmOPER("XOR","`d0,`s0,1",defs,uses));
+                    break;
+            }
+        }
+
         if(expr instanceof TEMP){
             tmp = (TEMP)expr;
         }
 
+        // The value of none is never used, but it still needs a register.
+        if(expr instanceof NOP){
+            tmp = parse(frag,new CONST(0));
+        }
+
         if(expr instanceof CONST){
             long constant = ((CONST)expr).value;
             long value = Math.abs(constant);
@@ -182,9 +454,9 @@ public class CodeGen extends Phase{
         }
 
         if(expr instanceof MEM){
-            uses.add(parse(((MEM)expr).addr));
+            uses.add(parse(frag,((MEM)expr).addr));
             defs.add(tmp = new TEMP(TEMP.newTempName()));
-            frag.asmcode.add(new AsmOPER("LDO","`d0,`s0,0",defs,uses));
+            frag.asmcode.add(new AsmOPER(((MEM)expr).width == 1 ? "LDBU" : "LDO","`d0,`s0,0",defs,uses));
         }
 
         if(expr instanceof NAME){
@@ -196,69 +468,110 @@ public class CodeGen extends Phase{
         if(expr instanceof CALL){
             CALL call = (CALL)expr;
 
-            for(int i=call.numArgs()-1; i>=0; i--){
-                frag.asmcode.add(new AsmOPER("STO","`s0,`s1,"+(i*8),null,
-                            new LinkedList<TEMP>(Arrays.asList(parse(call.args(i)),new TEMP(frag.SP)))));
+            // Every argument takes a whole octa. The arguments passed in
+            // registers are moved above the hole of PUSHJ (see Build).
+            int registers = registers(call);
+            long offset = 0;
+            for(int i=0; i<call.numArgs(); i++){
+                if(i < registers){
+                    uses.add(parse(frag,call.args(i)));
+                }else{
+                    frag.asmcode.add(new AsmOPER(call.widths(i) == 1 ? "STB" : "STO","`s0,`s1,"+offset,null,
+                                new LinkedList<TEMP>(Arrays.asList(parse(frag,call.args(i)),new TEMP(frag.SP)))));
+                }
+                offset += (call.widths(i)+7) & ~7;
             }
 
             defs.add(tmp = new TEMP(TEMP.newTempName()));
             labels.add(new LABEL(call.label));
-            frag.asmcode.add(new AsmOPER("PUSHJ","`d0,`l0",defs,null,labels));
+            frag.asmcode.add(new AsmOPER("PUSHJ","`d0,`l0",defs,uses,labels));
         }
 
         //if(tmp==null) System.out.println("null:"+tmp);
         return tmp;
     }
 
-    private void optimize(){
-        for(Fragment tmp : task.fragments.values()){
-            if(tmp instanceof CodeFragment){
-                optimize((CodeFragment)tmp);
-            }
+    /**
+     * Returns the number of instructions defining the temporary.
+     */
+    private int defined(CodeFragment frag, TEMP tmp){
+        int count = 0;
+        for(AsmInst inst : frag.asmcode){
+            if(inst.defs.contains(tmp)) count++;
         }
+        return count;
+    }
+
+    /**
+     * Returns the number of instructions using the temporary, without those
+     * that also define it (such as ZSN after CMP).
+     */
+    private int used(CodeFragment frag, TEMP tmp){
+        int count = 0;
+        for(AsmInst inst : frag.asmcode){
+            if(inst.uses.contains(tmp) && !inst.defs.contains(tmp)) count++;
+        }
+        return count;
     }
 
     private void optimize(CodeFragment frag){
         for(int i=0; i<frag.asmcode.size()-1; i++){
             AsmInst inst = frag.asmcode.get(i);
-            if(inst.mnemonic.equals("SET") && inst.uses.size()==0){
+            if(inst.mnemonic.equals("SET") && inst.uses.size()==0 && defined(frag,inst.defs.getFirst()) == 1){
                 TEMP def = inst.defs.getFirst();
                 String constant = inst.assem.substring(inst.assem.indexOf(',')+1);
+                // Only a byte fits into the Z field of an instruction.
+                boolean small = Long.parseLong(constant) < 256;
 
-                boolean ok = false;
+                // The constant is removed only if it has been folded into
+                // every use.
+                boolean ok = true;
 
                 for(int j=0; j<frag.asmcode.size(); j++){
                     AsmInst use = frag.asmcode.get(j);
                     int idx = use.uses.indexOf(def);
 
-                    if(use.defs.contains(def) && i!=j) break;
-                    else if(idx==1 && (ok = use.uses.remove(def))){
+                    if(idx < 0) continue;
+                    else if(small && idx==1 && use.assem.endsWith("`s1") && use.uses.lastIndexOf(def)==1){
+                        use.uses.remove(def);
                         use.assem = use.assem.substring(0,use.assem.lastIndexOf(',')+1)+constant;
-                    }else if(use.mnemonic.equals("STO") && idx==0 && (ok = use.uses.remove(def))){
+                    }else if(small && use.mnemonic.equals("STO") && idx==0 && use.uses.lastIndexOf(def)==0){
+                        use.uses.remove(def);
                         use.mnemonic = "STCO";
                         use.assem = constant+",`s0"+use.assem.substring(use.assem.lastIndexOf(','));
-                    }else if(use instanceof AsmMOVE && idx==0 && (ok = use.uses.remove(def))){
+                    }else if(use instanceof AsmMOVE && idx==0){
+                        use.uses.remove(def);
                         frag.asmcode.remove(j);
                         frag.asmcode.add(j,new AsmOPER("SET",use.assem.substring(0,use.assem.indexOf(',')+1)+
                                     constant, use.defs, use.uses));
+                    }else{
+                        ok = false;
                     }
                 }
                 if(ok) frag.asmcode.remove(i--);
-            }else if(inst instanceof AsmLABEL){
+            }else if(inst instanceof AsmLABEL && i > 0){
+                // The prologue is inserted after the function's label (see
+                // Build), so the labels following it are kept.
                 AsmInst next = frag.asmcode.get(i+1);
                 if(next instanceof AsmLABEL){
+                    // Jumps refer to their own LABEL objects, so they are
+                    // matched by name.
+                    String name = next.labels.getFirst().label;
                     for(int j=0; j<frag.asmcode.size(); j++){
                         AsmInst tmp = frag.asmcode.get(j);
-                        if(tmp instanceof AsmOPER && tmp.labels.remove(next.labels.getFirst())){
-                            tmp.labels.add(inst.labels.getFirst());
+                        if(!(tmp instanceof AsmOPER)) continue;
+                        for(int l=0; l<tmp.labels.size(); l++){
+                            if(tmp.labels.get(l).label.equals(name)) tmp.labels.set(l,inst.labels.getFirst());
                         }
                     }
                     frag.asmcode.remove(i+1);
                 }
-            }else if(!inst.mnemonic.equals("PUSHJ")){
+            }else if(!inst.mnemonic.equals("PUSHJ") && !inst.defs.isEmpty()){
                 AsmInst use = frag.asmcode.get(i+1);
 
-                if(use instanceof AsmMOVE && use.uses.contains(inst.defs.getFirst())){
+                // The value may only be computed into the destination of the
+                // move if the move is its only use.
+                if(use instanceof AsmMOVE && use.uses.contains(inst.defs.getFirst()) && used(frag,inst.defs.getFirst()) == 1){
                     inst.defs.set(0,use.defs.getFirst());
                     frag.asmcode.remove(i+1);
                     i--;
@@ -267,104 +580,8 @@ public class CodeGen extends Phase{
         }
     }
 
-    public void analyze(){
-        for(Fragment tmp : task.fragments.values()){
-            if(tmp instanceof CodeFragment){
-                analyze((CodeFragment)tmp);
-            }
-        }
-    }
-
     public LinkedHashMap<TEMP, InterferenceNode> analyze(CodeFragment frag){
-        LinkedHashMap<TEMP,InterferenceNode> graph = new LinkedHashMap<TEMP,InterferenceNode>();
-
-        for(AsmInst inst : frag.asmcode){
-            inst.in = new LinkedList<TEMP>();
-            inst.out = new LinkedList<TEMP>();
-        }
-
-        while(true){
-            int ok = 0;
-
-            for(int i=frag.asmcode.size()-1; i>=0; i--){
-                AsmInst inst = frag.asmcode.get(i);
-
-                LinkedList<TEMP> oldIn = new LinkedList<TEMP>(inst.in);
-                LinkedList<TEMP> oldOut = new LinkedList<TEMP>(inst.out);
-
-                inst.in = new LinkedList<TEMP>(inst.uses);
-
-                for(TEMP tmp : inst.out){
-                    if(tmp.name!=frag.FP && tmp.name!=frag.SP && !inst.in.contains(tmp) && !inst.defs.contains(tmp)){
-                        inst.in.add(tmp);
-                    }
-                }
-
-                LinkedList<AsmInst> succ = new LinkedList<AsmInst>();
-
-                if(!inst.mnemonic.equals("JMP") && (i+1)<frag.asmcode.size()){
-                    succ.add(frag.asmcode.get(i+1));
-                }
-
-                if(inst.mnemonic.equals("BZ") || inst.mnemonic.equals("JMP")){
-                    for(AsmInst label : frag.asmcode){
-                        if(label instanceof AsmLABEL && ((AsmLABEL)label).labels.equals(inst.labels)){
-                            succ.add(label);
-                            break;
-                        }
-                    }
-                }
-
-                inst.out = new LinkedList<TEMP>();
-
-                for(AsmInst succInst : succ){
-                    for(TEMP tmp : succInst.in){
-                        if(tmp.name!=frag.FP && tmp.name!=frag.SP && !inst.out.contains(tmp)){
-                            inst.out.add(tmp);
-                        }
-                    }
-                }
-
-                if(inst.in.equals(oldIn) && inst.out.equals(oldOut)) ok++;
-            }
-
-            if(ok == frag.asmcode.size()) break;
-        }
-
-        for(AsmInst inst : frag.asmcode){
-            if(inst.defs.size()==0) continue;
-
-            TEMP tmp = inst.defs.getFirst();
-            InterferenceNode node = graph.get(tmp)==null ? new InterferenceNode(tmp) : graph.get(tmp);
-
-            for(TEMP out : inst.out){
-                if(!tmp.equals(out) && (!(inst instanceof AsmMOVE) ||
-                        inst instanceof AsmMOVE && !inst.uses.getFirst().equals(out))){
-                    boolean ok = true;
-
-                    for(InterferenceNode edge : node.edges){
-                        if(edge.tmp == out){
-                            ok = false;
-                            break;
-                        }
-                    }
-
-                    if(ok){
-                        InterferenceNode edge = graph.get(out)==null ? new InterferenceNode(out) : graph.get(out);
-                        edge.edges.add(node);
-                        graph.put(out,edge);
-
-                        node.edges.add(edge);
-                    }
-                }
-            }
-
-            graph.put(tmp,node);
-        }
-
-        frag.graph = new LinkedList<InterferenceNode>(graph.values());
-
-        return graph;
+        return new Liveness(frag).graph();
     }
 
     public void print(){
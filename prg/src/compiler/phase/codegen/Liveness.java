@@ -0,0 +1,308 @@
+package compiler.phase.codegen;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+import compiler.data.asm.*;
+
+/**
+ * Liveness analysis and the interference graph of a code fragment.
+ *
+ * The analysis is done on basic blocks and can be updated after spill code
+ * has been inserted: only the blocks touched by the spill code are
+ * recomputed and only the edges of the spilled temporaries are replaced.
+ */
+public class Liveness{
+
+    private final CodeFragment frag;
+
+    /** Basic blocks */
+    private ArrayList<LinkedList<AsmInst>> blocks;
+    /** Successors of basic blocks */
+    private ArrayList<LinkedList<Integer>> succ;
+    /** Predecessors of basic blocks */
+    private ArrayList<LinkedList<Integer>> pred;
+
+    private ArrayList<LinkedHashSet<TEMP>> use;
+    private ArrayList<LinkedHashSet<TEMP>> def;
+    private ArrayList<LinkedHashSet<TEMP>> in;
+    private ArrayList<LinkedHashSet<TEMP>> out;
+
+    /** Interference edges */
+    private LinkedHashMap<TEMP,LinkedHashSet<TEMP>> edges;
+
+    public Liveness(CodeFragment frag){
+        this.frag = frag;
+        analyze();
+    }
+
+    /**
+     * Computes liveness and the interference graph of the whole fragment.
+     */
+    public void analyze(){
+        split();
+
+        use = new ArrayList<LinkedHashSet<TEMP>>();
+        def = new ArrayList<LinkedHashSet<TEMP>>();
+        in = new ArrayList<LinkedHashSet<TEMP>>();
+        out = new ArrayList<LinkedHashSet<TEMP>>();
+
+        LinkedList<Integer> all = new LinkedList<Integer>();
+
+        for(int b=0; b<blocks.size(); b++){
+            use.add(new LinkedHashSet<TEMP>());
+            def.add(new LinkedHashSet<TEMP>());
+            in.add(new LinkedHashSet<TEMP>());
+            out.add(new LinkedHashSet<TEMP>());
+            useDef(b);
+            all.addFirst(b);
+        }
+
+        solve(all);
+
+        edges = new LinkedHashMap<TEMP,LinkedHashSet<TEMP>>();
+
+        for(int b=0; b<blocks.size(); b++){
+            instructions(b);
+            interference(b);
+        }
+    }
+
+    /**
+     * Updates liveness and the interference graph after spill code has been
+     * inserted.
+     *
+     * @param spilled
+     *          The spilled temporaries
+     * @param changed
+     *          The instructions inserted or modified by the spill code
+     */
+    public void update(Collection<TEMP> spilled, Set<AsmInst> changed){
+        int numBlocks = blocks.size();
+
+        split();
+
+        // Spill code neither adds nor removes jumps or labels, so blocks keep
+        // their indices; if they did not, start from scratch.
+        if(blocks.size() != numBlocks){
+            analyze();
+            return;
+        }
+
+        LinkedHashSet<Integer> touched = new LinkedHashSet<Integer>();
+
+        for(int b=0; b<blocks.size(); b++){
+            for(AsmInst inst : blocks.get(b)){
+                if(changed.contains(inst)){
+                    touched.add(b);
+                    break;
+                }
+            }
+            if(in.get(b).removeAll(spilled) | out.get(b).removeAll(spilled)) touched.add(b);
+        }
+
+        for(int b : touched){
+            useDef(b);
+        }
+
+        LinkedList<Integer> worklist = new LinkedList<Integer>(touched);
+        touched.addAll(solve(worklist));
+
+        for(TEMP tmp : spilled){
+            LinkedHashSet<TEMP> adj = edges.remove(tmp);
+            if(adj == null) continue;
+
+            for(TEMP edge : adj){
+                edges.get(edge).remove(tmp);
+            }
+        }
+
+        for(int b : touched){
+            instructions(b);
+            interference(b);
+        }
+    }
+
+    /**
+     * Returns a fresh copy of the interference graph.
+     */
+    public LinkedHashMap<TEMP,InterferenceNode> graph(){
+        LinkedHashMap<TEMP,InterferenceNode> graph = new LinkedHashMap<TEMP,InterferenceNode>();
+
+        for(TEMP tmp : edges.keySet()){
+            graph.put(tmp,new InterferenceNode(tmp));
+        }
+
+        for(InterferenceNode node : graph.values()){
+            for(TEMP edge : edges.get(node.tmp)){
+                node.edges.add(graph.get(edge));
+            }
+        }
+
+        frag.graph = new LinkedList<InterferenceNode>(graph.values());
+
+        return graph;
+    }
+
+    private void split(){
+        blocks = new ArrayList<LinkedList<AsmInst>>();
+        succ = new ArrayList<LinkedList<Integer>>();
+        pred = new ArrayList<LinkedList<Integer>>();
+
+        HashMap<String,Integer> labels = new HashMap<String,Integer>();
+        LinkedList<AsmInst> block = null;
+
+        for(AsmInst inst : frag.asmcode){
+            if(block == null || (inst instanceof AsmLABEL && block.size()>0)){
+                block = new LinkedList<AsmInst>();
+                blocks.add(block);
+            }
+
+            if(inst instanceof AsmLABEL) labels.put(inst.labels.getFirst().label,blocks.size()-1);
+
+            block.add(inst);
+
+            if(isJump(inst) || isBranch(inst)) block = null;
+        }
+
+        for(int b=0; b<blocks.size(); b++){
+            succ.add(new LinkedList<Integer>());
+            pred.add(new LinkedList<Integer>());
+        }
+
+        for(int b=0; b<blocks.size(); b++){
+            AsmInst last = blocks.get(b).getLast();
+
+            if(!isJump(last) && b+1<blocks.size()) edge(b,b+1);
+
+            if(isJump(last) || isBranch(last)){
+                Integer target = labels.get(last.labels.getFirst().label);
+                if(target != null) edge(b,target);
+            }
+        }
+    }
+
+    private void edge(int from, int to){
+        if(!succ.get(from).contains(to)){
+            succ.get(from).add(to);
+            pred.get(to).add(from);
+        }
+    }
+
+    private boolean isJump(AsmInst inst){
+        return inst.mnemonic.equals("JMP");
+    }
+
+    private boolean isBranch(AsmInst inst){
+        return inst instanceof AsmOPER && inst.labels.size()>0 && inst.mnemonic.matches("B[A-Z]+");
+    }
+
+    private boolean ignored(TEMP tmp){
+        return tmp.name == frag.FP || tmp.name == frag.SP;
+    }
+
+    private void useDef(int b){
+        LinkedHashSet<TEMP> use = new LinkedHashSet<TEMP>();
+        LinkedHashSet<TEMP> def = new LinkedHashSet<TEMP>();
+
+        for(AsmInst inst : blocks.get(b)){
+            for(TEMP tmp : inst.uses){
+                if(!ignored(tmp) && !def.contains(tmp)) use.add(tmp);
+            }
+            for(TEMP tmp : inst.defs){
+                if(!ignored(tmp)) def.add(tmp);
+            }
+        }
+
+        this.use.set(b,use);
+        this.def.set(b,def);
+    }
+
+    /**
+     * Solves the dataflow equations starting with the given blocks and
+     * returns the blocks whose sets have changed.
+     */
+    private LinkedHashSet<Integer> solve(LinkedList<Integer> worklist){
+        LinkedHashSet<Integer> changed = new LinkedHashSet<Integer>();
+        LinkedHashSet<Integer> queued = new LinkedHashSet<Integer>(worklist);
+
+        while(!worklist.isEmpty()){
+            int b = worklist.removeFirst();
+            queued.remove(b);
+
+            LinkedHashSet<TEMP> out = new LinkedHashSet<TEMP>();
+            for(int s : succ.get(b)){
+                out.addAll(in.get(s));
+            }
+
+            LinkedHashSet<TEMP> in = new LinkedHashSet<TEMP>(use.get(b));
+            for(TEMP tmp : out){
+                if(!def.get(b).contains(tmp)) in.add(tmp);
+            }
+
+            if(!out.equals(this.out.get(b))){
+                this.out.set(b,out);
+                changed.add(b);
+            }
+
+            if(!in.equals(this.in.get(b))){
+                this.in.set(b,in);
+                changed.add(b);
+
+                for(int p : pred.get(b)){
+                    if(queued.add(p)) worklist.addLast(p);
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    private void instructions(int b){
+        LinkedHashSet<TEMP> live = new LinkedHashSet<TEMP>(out.get(b));
+        Iterator<AsmInst> iter = blocks.get(b).descendingIterator();
+
+        while(iter.hasNext()){
+            AsmInst inst = iter.next();
+
+            inst.out = new LinkedList<TEMP>(live);
+
+            live.removeAll(inst.defs);
+            for(TEMP tmp : inst.uses){
+                if(!ignored(tmp)) live.add(tmp);
+            }
+
+            inst.in = new LinkedList<TEMP>(live);
+        }
+    }
+
+    private void interference(int b){
+        for(AsmInst inst : blocks.get(b)){
+            for(TEMP tmp : inst.defs){
+                if(ignored(tmp)) continue;
+
+                if(!edges.containsKey(tmp)) edges.put(tmp,new LinkedHashSet<TEMP>());
+
+                // Temporaries defined together interfere with each other even
+                // if some of them are dead.
+                for(TEMP out : inst.defs){
+                    if(tmp.equals(out) || ignored(out)) continue;
+                    if(!edges.containsKey(out)) edges.put(out,new LinkedHashSet<TEMP>());
+                    edges.get(tmp).add(out);
+                    edges.get(out).add(tmp);
+                }
+
+                for(TEMP out : inst.out){
+                    if(tmp.equals(out)) continue;
+                    if(inst instanceof AsmMOVE && inst.uses.getFirst().equals(out)) continue;
+
+                    if(!edges.containsKey(out)) edges.put(out,new LinkedHashSet<TEMP>());
+
+                    edges.get(tmp).add(out);
+                    edges.get(out).add(tmp);
+                }
+            }
+        }
+    }
+}
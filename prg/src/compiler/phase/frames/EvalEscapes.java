@@ -0,0 +1,94 @@
+package compiler.phase.frames;
+
+import java.util.*;
+
+import compiler.data.ast.*;
+import compiler.data.ast.attr.*;
+import compiler.data.ast.code.*;
+
+/**
+ * Escape analysis of variables and parameters.
+ *
+ * A variable escapes if its address is taken or if it is used by a function
+ * nested in the one declaring it; either way it has to live in the frame.
+ */
+public class EvalEscapes extends FullVisitor {
+
+    private final Attributes attrs;
+
+    /** The function declaring each variable and parameter. */
+    private final HashMap<VarDecl,FunDef> owners;
+    /** The functions using each variable and parameter. */
+    private final HashMap<VarDecl,HashSet<FunDef>> users;
+    /** The variables whose address is taken. */
+    private final HashSet<VarDecl> addressed;
+
+    private FunDef inFun;
+
+    public EvalEscapes(Attributes attrs) {
+        this.attrs = attrs;
+        this.owners = new HashMap<VarDecl,FunDef>();
+        this.users = new HashMap<VarDecl,HashSet<FunDef>>();
+        this.addressed = new HashSet<VarDecl>();
+        this.inFun = null;
+    }
+
+    /**
+     * Returns true if a variable or parameter escapes.
+     */
+    public boolean escapes(VarDecl varDecl) {
+        if (addressed.contains(varDecl))
+            return true;
+        HashSet<FunDef> funs = users.get(varDecl);
+        return funs != null && (funs.size() > 1 || !funs.contains(owners.get(varDecl)));
+    }
+
+    @Override
+    public void visit(FunDef funDef) {
+        FunDef tmp = inFun;
+        inFun = funDef;
+        super.visit(funDef);
+        inFun = tmp;
+    }
+
+    @Override
+    public void visit(ParDecl parDecl) {
+        owners.put(parDecl,inFun);
+        super.visit(parDecl);
+    }
+
+    @Override
+    public void visit(VarDecl varDecl) {
+        owners.put(varDecl,inFun);
+        super.visit(varDecl);
+    }
+
+    @Override
+    public void visit(VarName varName) {
+        Decl decl = attrs.declAttr.get(varName);
+        if (decl instanceof VarDecl)
+            users.computeIfAbsent((VarDecl)decl,k -> new HashSet<FunDef>()).add(inFun);
+    }
+
+    @Override
+    public void visit(UnExpr unExpr) {
+        super.visit(unExpr);
+        if (unExpr.oper != UnExpr.Oper.MEM)
+            return;
+
+        // The address of a component or an element is an address within the
+        // variable.
+        Expr expr = unExpr.subExpr;
+        while (Boolean.TRUE.equals(attrs.memAttr.get(expr)) || expr instanceof CastExpr) {
+            if (expr instanceof CastExpr)
+                expr = ((CastExpr)expr).expr;
+            else if (expr instanceof BinExpr)
+                expr = ((BinExpr)expr).fstExpr;
+            else
+                break;
+        }
+        if (expr instanceof VarName && attrs.declAttr.get((VarName)expr) instanceof VarDecl)
+            addressed.add((VarDecl)attrs.declAttr.get((VarName)expr));
+    }
+
+}
@@ -22,9 +22,14 @@ public class EvalFrames extends FullVisitor {
     private int numFun;
     private HashMap<String,ArrayList<Long>> map;
     private String inFun;
+    private final int regArgs;
+    /** The escape analysis, or null if no variable is kept in a temporary. */
+    private final EvalEscapes escapes;
 
-    public EvalFrames(Attributes attrs) {
+    public EvalFrames(Attributes attrs, int regArgs, boolean promote) {
         this.attrs = attrs;
+        this.regArgs = regArgs;
+        this.escapes = promote ? new EvalEscapes(attrs) : null;
         this.level = 0;
         this.numVar = 0;
         this.numFun = 0;
@@ -34,9 +39,31 @@ public class EvalFrames extends FullVisitor {
 
     @Override
     public void visit(FunCall funCall) {
+        long size = 0;
         for (int a = 0; a < funCall.numArgs(); a++){
             funCall.arg(a).accept(this);
+            size += slot(attrs.typAttr.get(funCall.arg(a)).size());
         }
+
+        // The outgoing arguments of the largest call (the static link is
+        // added once the function is done).
+        ArrayList<Long> list = map.get(inFun == null ? "" : inFun);
+        if(size > list.get(1))
+            list.set(1,size);
+    }
+
+    @Override
+    public void visit(Program program) {
+        ArrayList<Long> list = new ArrayList<Long>();
+        list.add(new Long(0));
+        list.add(new Long(0));
+        map.put("",list);
+
+        if (escapes != null)
+            escapes.visit(program);
+        program.expr.accept(this);
+
+        attrs.frmAttr.set(program,new Frame(0,"_",0,0,0,0,list.get(1)+8));
     }
 
     @Override
@@ -61,23 +88,29 @@ public class EvalFrames extends FullVisitor {
     public void visit(FunDef funDef) {
         level++;
         long offset = 8;
+        // The static link and the scalar parameters up to the first aggregate
+        // are passed in registers.
+        ArrayList<Long> regs = new ArrayList<Long>();
+        if (regArgs > 0)
+            regs.add(8L);
         for (int p = 0; p < funDef.numPars(); p++){
             funDef.par(p).accept(this);
             Typ typ = attrs.typAttr.get(funDef.par(p));
-            attrs.accAttr.set(funDef.par(p),new OffsetAccess(level,offset,typ.size()));
-            offset += typ.size();
-            if(inFun!=null){
-                //Typ typ = attrs.typAttr.get(funCall.arg(a));
-                ArrayList<Long> list = map.get(inFun);
-                list.set(1,((Long)list.get(1)).longValue()+typ.size());
-            }
+            OffsetAccess acc = new OffsetAccess(level,offset,typ.size());
+            attrs.accAttr.set(funDef.par(p),promoted(funDef.par(p)) ? new TempAccess(acc,typ.size()) : acc);
+            offset += slot(typ.size());
+            if (regs.size() == p+1 && regs.size() < regArgs && typ.size() <= 8)
+                regs.add(typ.size());
         }
+        long[] inpRegs = new long[regs.size()];
+        for (int r = 0; r < inpRegs.length; r++)
+            inpRegs[r] = regs.get(r);
 
         funDef.type.accept(this);
 
         ArrayList<Long> list = new ArrayList<Long>();
-        list.add(new Long(0));
-        list.add(new Long(0));
+        list.add(0L);
+        list.add(0L);
         String tmp = inFun;
 
 
@@ -89,23 +122,21 @@ public class EvalFrames extends FullVisitor {
         long inpCallSize = offset;
         list = map.get(funDef.name);
         long locVar = list.get(0);
-        long outCallSize = list.get(1);
-        if(outCallSize>0)
-            outCallSize+=8;
+        long outCallSize = list.get(1)+8;
 
-        attrs.frmAttr.set(funDef,new Frame(level,"f"+numFun+"_"+funDef.name,inpCallSize,locVar,0,0,outCallSize));
+        attrs.frmAttr.set(funDef,new Frame(level,"f"+numFun+"_"+funDef.name,inpCallSize,inpRegs,locVar,0,0,outCallSize));
         numFun++;
         level--;
     }
 
     @Override
     public void visit(RecType recType) {
-        long offset = 8;
+        long offset = 0;
         for (int c = 0; c < recType.numComps(); c++){
             recType.comp(c).accept(this);
             Typ typ = attrs.typAttr.get(recType.comp(c));
             attrs.accAttr.set(recType.comp(c),new OffsetAccess(-1,offset,typ.size()));
-            offset += typ.size();
+            offset += slot(typ.size());
         }
     }
 
@@ -115,9 +146,11 @@ public class EvalFrames extends FullVisitor {
         Typ typ = attrs.typAttr.get(varDecl);
         if(inFun==null)
             attrs.accAttr.set(varDecl,new StaticAccess("v"+numVar+"_"+varDecl.name,typ.size()));
+        else if(promoted(varDecl))
+            attrs.accAttr.set(varDecl,new TempAccess(null,typ.size()));
         else{
             ArrayList<Long> list = map.get(inFun);
-            list.set(0,list.get(0)+typ.size());
+            list.set(0,list.get(0)+slot(typ.size()));
             attrs.accAttr.set(varDecl,new OffsetAccess(level,-list.get(0),typ.size()));
         }
         numVar++;
@@ -130,4 +163,23 @@ public class EvalFrames extends FullVisitor {
             whereExpr.decl(d).accept(this);
     }
 
+    /**
+     * Returns true if a variable or parameter is kept in a temporary: it is a
+     * scalar that does not escape.
+     */
+    private boolean promoted(VarDecl varDecl) {
+        if (escapes == null || escapes.escapes(varDecl))
+            return false;
+        Typ typ = attrs.typAttr.get(varDecl).actualTyp();
+        return !(typ instanceof ArrTyp) && !(typ instanceof RecTyp) && typ.size() > 0;
+    }
+
+    /**
+     * Returns the size of a variable rounded up to whole octas, so that every
+     * variable, parameter and component starts at an octa boundary.
+     */
+    private static long slot(long size) {
+        return (size + 7) & ~7;
+    }
+
 }
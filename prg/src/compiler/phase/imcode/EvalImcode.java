@@ -25,6 +25,15 @@ public class EvalImcode extends FullVisitor {
 
     private Stack<CodeFragment> codeFragments = new Stack<CodeFragment>();
 
+    /** The largest number of moves an aggregate is copied with before a loop is used instead. */
+    private static final long maxMoves = 8;
+
+    /** The temporaries of the variables kept in temporaries. */
+    private HashMap<VarDecl, Integer> temps = new HashMap<VarDecl, Integer>();
+
+    /** The factory sharing equal pure expressions. */
+    private final IMCFactory imc = new IMCFactory();
+
     public EvalImcode(Attributes attrs, HashMap<String, Fragment> fragments) {
         this.attrs = attrs;
         this.fragments = fragments;
@@ -42,16 +51,16 @@ public class EvalImcode extends FullVisitor {
         case INTEGER:
             try {
                 long value = Long.parseLong(atomExpr.value);
-                attrs.imcAttr.set(atomExpr, new CONST(value));
+                attrs.imcAttr.set(atomExpr, imc.CONST(value));
             } catch (NumberFormatException ex) {
                 Report.warning(atomExpr, "Illegal integer constant.");
             }
             break;
         case BOOLEAN:
             if (atomExpr.value.equals("true"))
-                attrs.imcAttr.set(atomExpr, new CONST(1));
+                attrs.imcAttr.set(atomExpr, imc.CONST(1));
             if (atomExpr.value.equals("false"))
-                attrs.imcAttr.set(atomExpr, new CONST(0));
+                attrs.imcAttr.set(atomExpr, imc.CONST(0));
             break;
         case CHAR:
             if (atomExpr.value.charAt(1) == '\\'){
@@ -64,20 +73,20 @@ public class EvalImcode extends FullVisitor {
                         tmp = '\t';
                         break;
                 }
-                attrs.imcAttr.set(atomExpr, new CONST(tmp));
+                attrs.imcAttr.set(atomExpr, imc.CONST(tmp));
             }
             else
-                attrs.imcAttr.set(atomExpr, new CONST(atomExpr.value.charAt(1)));
+                attrs.imcAttr.set(atomExpr, imc.CONST(atomExpr.value.charAt(1)));
             break;
         case STRING:
             String label = LABEL.newLabelName();
-            attrs.imcAttr.set(atomExpr, new NAME(label));
+            attrs.imcAttr.set(atomExpr, imc.NAME(label));
             ConstFragment fragment = new ConstFragment(label, atomExpr.value);
             attrs.frgAttr.set(atomExpr, fragment);
             fragments.put(fragment.label, fragment);
             break;
         case PTR:
-            attrs.imcAttr.set(atomExpr, new CONST(0));
+            attrs.imcAttr.set(atomExpr, imc.CONST(0));
             break;
         case VOID:
             attrs.imcAttr.set(atomExpr, new NOP());
@@ -98,54 +107,68 @@ public class EvalImcode extends FullVisitor {
 
         switch(binExpr.oper){
             case OR:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.OR,fstExpr,sndExpr));
-                break;
             case AND:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.AND,fstExpr,sndExpr));
+                // The second operand is skipped when the first one decides,
+                // unless it has side effects or costs less than the jump.
+                if(skippable(binExpr.sndExpr) && !cheap(sndExpr,fstExpr)){
+                    attrs.imcAttr.set(binExpr,conditional(binExpr.oper,fstExpr,sndExpr));
+                }else{
+                    attrs.imcAttr.set(binExpr,imc.BINOP(binExpr.oper == BinExpr.Oper.AND ? BINOP.Oper.AND : BINOP.Oper.OR,
+                                fstExpr,sndExpr));
+                }
                 break;
             case EQU:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.EQU,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.EQU,fstExpr,sndExpr));
                 break;
             case NEQ:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.NEQ,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.NEQ,fstExpr,sndExpr));
                 break;
             case LTH:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.LTH,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.LTH,fstExpr,sndExpr));
                 break;
             case GTH:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.GTH,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.GTH,fstExpr,sndExpr));
                 break;
             case LEQ:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.LEQ,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.LEQ,fstExpr,sndExpr));
                 break;
             case GEQ:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.GEQ,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.GEQ,fstExpr,sndExpr));
                 break;
             case ADD:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.ADD,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.ADD,fstExpr,sndExpr));
                 break;
             case SUB:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.SUB,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.SUB,fstExpr,sndExpr));
                 break;
             case MUL:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.MUL,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.MUL,fstExpr,sndExpr));
                 break;
             case DIV:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.DIV,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.DIV,fstExpr,sndExpr));
                 break;
             case MOD:
-                attrs.imcAttr.set(binExpr,new BINOP(BINOP.Oper.MOD,fstExpr,sndExpr));
+                attrs.imcAttr.set(binExpr,imc.BINOP(BINOP.Oper.MOD,fstExpr,sndExpr));
                 break;
             case ASSIGN:
-                attrs.imcAttr.set(binExpr,new MOVE(fstExpr,sndExpr));
+                // Records and arrays are copied piece by piece, unless they
+                // are a single byte or octa. Any other width would be moved
+                // as an octa.
+                Typ dstTyp = attrs.typAttr.get(binExpr.fstExpr).actualTyp();
+                if((dstTyp instanceof ArrTyp || dstTyp instanceof RecTyp) && fstExpr instanceof MEM && sndExpr instanceof MEM &&
+                        ((MEM)fstExpr).width != 1 && ((MEM)fstExpr).width != 8)
+                    attrs.imcAttr.set(binExpr,copy((MEM)fstExpr,(MEM)sndExpr));
+                else
+                    attrs.imcAttr.set(binExpr,new MOVE(fstExpr,sndExpr));
                 break;
             case ARR:
+                // Arrays and records are indexed from their address.
                 Typ typ = attrs.typAttr.get(binExpr);
-                attrs.imcAttr.set(binExpr,new MEM(new BINOP(BINOP.Oper.ADD,fstExpr,new BINOP(BINOP.Oper.MUL,sndExpr,new CONST(typ.size()))),typ.size()));
+                attrs.imcAttr.set(binExpr,imc.MEM(imc.BINOP(BINOP.Oper.ADD,((MEM)fstExpr).addr,imc.BINOP(BINOP.Oper.MUL,sndExpr,imc.CONST(typ.size()))),typ.size()));
                 break;
             case REC:
                 Typ rectyp = attrs.typAttr.get(binExpr);
-                attrs.imcAttr.set(binExpr,new MEM(new BINOP(BINOP.Oper.ADD,fstExpr,sndExpr),rectyp.size()));
+                attrs.imcAttr.set(binExpr,imc.MEM(imc.BINOP(BINOP.Oper.ADD,((MEM)fstExpr).addr,sndExpr),rectyp.size()));
                 break;
         }
     }
@@ -155,9 +178,8 @@ public class EvalImcode extends FullVisitor {
         castExpr.type.accept(this);
         castExpr.expr.accept(this);
 
-        Typ typ = attrs.typAttr.get(castExpr);
-        IMCExpr expr = (IMCExpr)attrs.imcAttr.get(castExpr.expr);
-        attrs.imcAttr.set(castExpr,new MEM(expr,typ.size()));
+        // A cast only changes the type of the value.
+        attrs.imcAttr.set(castExpr,attrs.imcAttr.get(castExpr.expr));
     }
 
     @Override
@@ -170,7 +192,7 @@ public class EvalImcode extends FullVisitor {
         Decl decl = attrs.declAttr.get(compName);
         OffsetAccess acc = (OffsetAccess)attrs.accAttr.get((VarDecl)decl);
 
-        attrs.imcAttr.set(compName,new CONST(acc.offset));
+        attrs.imcAttr.set(compName,imc.CONST(acc.offset));
     }
 
     @Override
@@ -182,7 +204,7 @@ public class EvalImcode extends FullVisitor {
         for (int e = 0; e < exprs.numExprs(); e++)
             exprs.expr(e).accept(this);
 
-        Vector<IMCStmt> stmts = new Vector<IMCStmt>();
+        STMTS.Builder stmts = new STMTS.Builder();
         for(int e=0; e<exprs.numExprs(); e++){
             IMC tmp = attrs.imcAttr.get(exprs.expr(e));
             IMCStmt add = null;
@@ -193,7 +215,7 @@ public class EvalImcode extends FullVisitor {
 
             stmts.add(add);
         }
-        attrs.imcAttr.set(exprs,new STMTS(stmts));
+        attrs.imcAttr.set(exprs,stmts.build());
     }
 
     @Override
@@ -221,26 +243,16 @@ public class EvalImcode extends FullVisitor {
         LABEL lloop = new LABEL(loop);
 
         MOVE ass = new MOVE(var,lo);
-        CJUMP cjump = new CJUMP(new BINOP(BINOP.Oper.LEQ,var,hi),pos,neg);
+        CJUMP cjump = new CJUMP(imc.BINOP(BINOP.Oper.LEQ,var,hi),pos,neg);
         IMCStmt body = null;
         if(tmp instanceof IMCStmt)
             body = (IMCStmt)tmp;
         else if(tmp instanceof IMCExpr)
             body = new ESTMT((IMCExpr)tmp);
-        MOVE inc = new MOVE(var,new BINOP(BINOP.Oper.ADD,var,new CONST(1)));
+        MOVE inc = new MOVE(var,imc.BINOP(BINOP.Oper.ADD,var,imc.CONST(1)));
         JUMP jump = new JUMP(loop);
 
-        Vector<IMCStmt> stmts = new Vector<IMCStmt>();
-        stmts.add(ass);
-        stmts.add(lloop);
-        stmts.add(cjump);
-        stmts.add(lpos);
-        stmts.add(body);
-        stmts.add(inc);
-        stmts.add(jump);
-        stmts.add(lneg);
-
-        attrs.imcAttr.set(forExpr,new STMTS(stmts));
+        attrs.imcAttr.set(forExpr,new STMTS(ass,lloop,cjump,lpos,body,inc,jump,lneg));
     }
 
     @Override
@@ -248,22 +260,34 @@ public class EvalImcode extends FullVisitor {
         for (int a = 0; a < funCall.numArgs(); a++)
             funCall.arg(a).accept(this);
 
-        Vector<IMCExpr> args = new Vector<IMCExpr>();
-        Vector<Long> widths = new Vector<Long>();
+        Decl decl = attrs.declAttr.get(funCall);
+
+        // The static link is passed as the first argument.
+        IMCExpr sl = imc.CONST(0);
+        if(decl instanceof FunDef && !codeFragments.isEmpty()){
+            CodeFragment codeFragment = codeFragments.peek();
+            sl = imc.TEMP(codeFragment.FP);
+            for(int level=attrs.frmAttr.get((FunDef)decl).level-1; level<codeFragment.frame.level; level++)
+                sl = imc.MEM(sl,8);
+        }
+
+        String label;
+        if(decl instanceof FunDef)
+            label = attrs.frmAttr.get((FunDef)decl).label;
+        else if(decl instanceof FunDecl)
+            label = "_"+funCall.name();
+        else
+            return;
+
+        CALL.Builder args = new CALL.Builder(label);
+        args.add(sl,8);
         for(int a=0; a<funCall.numArgs(); a++){
             IMCExpr expr = (IMCExpr)attrs.imcAttr.get(funCall.arg(a));
             Typ typ = attrs.typAttr.get(funCall.arg(a));
 
-            args.add(expr);
-            widths.add(new Long(typ.size()));
+            args.add(expr,typ.size());
         }
-
-        Decl decl = attrs.declAttr.get(funCall);
-        if(decl instanceof FunDef){
-            Frame frame = attrs.frmAttr.get((FunDef)decl);
-            attrs.imcAttr.set(funCall,new CALL(frame.label,args,widths));
-        }else if(decl instanceof FunDecl)
-            attrs.imcAttr.set(funCall,new CALL("_"+funCall.name(),args,widths));
+        attrs.imcAttr.set(funCall,args.build());
     }
 
     @Override
@@ -307,7 +331,19 @@ public class EvalImcode extends FullVisitor {
             expr = new SEXPR((IMCStmt)tmp,expr);
         }
 
-        MOVE move = new MOVE(new TEMP(RV), expr);
+        // The parameters kept in temporaries are loaded from their slots.
+        STMTS.Builder params = new STMTS.Builder();
+        for (int p = 0; p < funDef.numPars(); p++){
+            Access acc = attrs.accAttr.get(funDef.par(p));
+            if(acc instanceof TempAccess){
+                OffsetAccess slot = ((TempAccess)acc).param;
+                params.add(new MOVE(temp(funDef.par(p)),imc.MEM(imc.BINOP(BINOP.Oper.ADD,imc.TEMP(FP),imc.CONST(slot.offset)),slot.size)));
+            }
+        }
+        if(params.size() > 0)
+            expr = new SEXPR(params.build(),expr);
+
+        MOVE move = new MOVE(imc.TEMP(RV), expr);
         Fragment fragment = new CodeFragment(tmpFragment.frame, tmpFragment.FP, tmpFragment.SP, tmpFragment.RV, move);
         attrs.frgAttr.set(funDef, fragment);
         attrs.imcAttr.set(funDef, move);
@@ -328,11 +364,9 @@ public class EvalImcode extends FullVisitor {
         LABEL lneg = new LABEL(neg);
         LABEL lend = new LABEL(end);
 
-        IMCExpr cond = (IMCExpr)attrs.imcAttr.get(ifExpr.cond);
         IMC tmpThen = attrs.imcAttr.get(ifExpr.thenExpr);
         IMC tmpElse = attrs.imcAttr.get(ifExpr.elseExpr);
 
-        CJUMP cjump = new CJUMP(cond,pos,neg);
         IMCStmt then = null;
         IMCStmt els = null;
         JUMP jump = new JUMP(end);
@@ -347,8 +381,8 @@ public class EvalImcode extends FullVisitor {
         else if(tmpElse instanceof IMCExpr)
             els = new ESTMT((IMCExpr)tmpElse);
 
-        Vector<IMCStmt> stmts = new Vector<IMCStmt>();
-        stmts.add(cjump);
+        STMTS.Builder stmts = new STMTS.Builder();
+        branch(ifExpr.cond,true,pos,neg,stmts);
         stmts.add(lpos);
         stmts.add(then);
         stmts.add(jump);
@@ -356,7 +390,7 @@ public class EvalImcode extends FullVisitor {
         stmts.add(els);
         stmts.add(lend);
 
-        attrs.imcAttr.set(ifExpr,new STMTS(stmts));
+        attrs.imcAttr.set(ifExpr,stmts.build());
     }
 
     @Override
@@ -367,7 +401,7 @@ public class EvalImcode extends FullVisitor {
     @Override
     public void visit(Program program) {
         program.expr.accept(this);
-        Frame fr = new Frame(0,"_",0,0,0,0,0);
+        Frame fr = attrs.frmAttr.get(program);
         IMC prog = attrs.imcAttr.get(program.expr);
         attrs.imcAttr.set(program,prog);
 
@@ -377,7 +411,7 @@ public class EvalImcode extends FullVisitor {
         else if(prog instanceof IMCExpr)
             tmp = new ESTMT((IMCExpr)prog);
 
-        Fragment frag = new CodeFragment(fr,0,0,0,tmp);
+        Fragment frag = new CodeFragment(fr,TEMP.newTempName(),TEMP.newTempName(),TEMP.newTempName(),tmp);
         attrs.frgAttr.set(program,frag);
 
         fragments.put(frag.label, frag);
@@ -413,21 +447,21 @@ public class EvalImcode extends FullVisitor {
         IMCExpr subExpr = (IMCExpr)attrs.imcAttr.get(unExpr.subExpr);
         switch(unExpr.oper){
             case ADD:
-                attrs.imcAttr.set(unExpr, new UNOP(UNOP.Oper.ADD, subExpr));
+                attrs.imcAttr.set(unExpr, imc.UNOP(UNOP.Oper.ADD, subExpr));
                 break;
             case SUB:
-                attrs.imcAttr.set(unExpr, new UNOP(UNOP.Oper.SUB, subExpr));
+                attrs.imcAttr.set(unExpr, imc.UNOP(UNOP.Oper.SUB, subExpr));
                 break;
             case NOT:
-                attrs.imcAttr.set(unExpr, new UNOP(UNOP.Oper.NOT, subExpr));
+                attrs.imcAttr.set(unExpr, imc.UNOP(UNOP.Oper.NOT, subExpr));
                 break;
-            case VAL:
+            case MEM:
                 MEM tmp = (MEM)subExpr;
                 attrs.imcAttr.set(unExpr, tmp.addr);
                 break;
-            case MEM:
+            case VAL:
                 Typ typ = attrs.typAttr.get(unExpr);
-                attrs.imcAttr.set(unExpr, new MEM(subExpr,typ.size()));
+                attrs.imcAttr.set(unExpr, imc.MEM(subExpr,typ.size()));
                 break;
         }
     }
@@ -442,14 +476,29 @@ public class EvalImcode extends FullVisitor {
         Typ typ = attrs.typAttr.get(varName);
         Decl decl = attrs.declAttr.get(varName);
         Access acc = attrs.accAttr.get((VarDecl)decl);
-        if(acc instanceof StaticAccess)
-            attrs.imcAttr.set(varName,new MEM(new NAME("_"+varName.name()),typ.size()));
-        else if(acc instanceof OffsetAccess)
-            attrs.imcAttr.set(varName,new MEM(new BINOP(BINOP.Oper.ADD,new TEMP(TEMP.newTempName()),new CONST(-((OffsetAccess)acc).offset)),typ.size()));
+        if(acc instanceof StaticAccess){
+            attrs.imcAttr.set(varName,imc.MEM(imc.NAME("_"+varName.name()),typ.size()));
+
+            Fragment frag = new DataFragment("_"+varName.name(),typ.size());
+            attrs.frgAttr.set(varName,frag);
+            fragments.put(frag.label, frag);
+        }else if(acc instanceof OffsetAccess){
+            // Variables of enclosing functions are reached through static links.
+            IMCExpr fp = imc.TEMP(TEMP.newTempName());
+            if(!codeFragments.isEmpty()){
+                CodeFragment codeFragment = codeFragments.peek();
+                fp = imc.TEMP(codeFragment.FP);
+                for(int level=((OffsetAccess)acc).level; level<codeFragment.frame.level; level++)
+                    fp = imc.MEM(fp,8);
+            }
+            attrs.imcAttr.set(varName,imc.MEM(imc.BINOP(BINOP.Oper.ADD,fp,imc.CONST(((OffsetAccess)acc).offset)),typ.size()));
+        }else if(acc instanceof TempAccess){
+            attrs.imcAttr.set(varName,temp((VarDecl)decl));
+        }
+    }
 
-        Fragment frag = new DataFragment("_"+varName.name(),typ.size());
-        attrs.frgAttr.set(varName,frag);
-        fragments.put(frag.label, frag);
+    private TEMP temp(VarDecl varDecl) {
+        return imc.TEMP(temps.computeIfAbsent(varDecl,k -> TEMP.newTempName()));
     }
 
     @Override
@@ -475,8 +524,6 @@ public class EvalImcode extends FullVisitor {
         LABEL lpos = new LABEL(pos);
         LABEL lneg = new LABEL(neg);
 
-        IMCExpr cond = (IMCExpr)attrs.imcAttr.get(whileExpr.cond);
-        CJUMP cjump = new CJUMP(cond,pos,neg);
         JUMP jump = new JUMP(loop);
 
         IMC tmp = attrs.imcAttr.get(whileExpr.body);
@@ -486,15 +533,171 @@ public class EvalImcode extends FullVisitor {
         else if(tmp instanceof IMCStmt)
             body = (IMCStmt)tmp;
 
-        Vector<IMCStmt> stmts = new Vector<IMCStmt>();
+        STMTS.Builder stmts = new STMTS.Builder();
         stmts.add(lloop);
-        stmts.add(cjump);
+        branch(whileExpr.cond,true,pos,neg,stmts);
         stmts.add(lpos);
         stmts.add(body);
         stmts.add(jump);
         stmts.add(lneg);
 
-        attrs.imcAttr.set(whileExpr,new STMTS(stmts));
+        attrs.imcAttr.set(whileExpr,stmts.build());
+    }
+
+    /**
+     * Appends the jumps to pos if the condition has the given value and to neg
+     * otherwise; the code is followed by the label pos. The second operand of
+     * a conjunction or a disjunction is only evaluated if the first one does
+     * not decide.
+     */
+    private void branch(Expr cond, boolean value, String pos, String neg, STMTS.Builder stmts){
+        if(cond instanceof UnExpr && ((UnExpr)cond).oper == UnExpr.Oper.NOT){
+            branch(((UnExpr)cond).subExpr,!value,pos,neg,stmts);
+            return;
+        }
+        if(cond instanceof BinExpr){
+            BinExpr binExpr = (BinExpr)cond;
+            if((binExpr.oper == BinExpr.Oper.AND || binExpr.oper == BinExpr.Oper.OR) && skippable(binExpr.sndExpr) &&
+                    !cheap((IMCExpr)attrs.imcAttr.get(binExpr.sndExpr),(IMCExpr)attrs.imcAttr.get(binExpr.fstExpr))){
+                // The first operand decides if it is false for a conjunction
+                // or true for a disjunction.
+                boolean decides = binExpr.oper == BinExpr.Oper.OR;
+                String next = LABEL.newLabelName();
+                if(decides == value) branch(binExpr.fstExpr,!value,next,pos,stmts);
+                else branch(binExpr.fstExpr,value,next,neg,stmts);
+                stmts.add(new LABEL(next));
+                branch(binExpr.sndExpr,value,pos,neg,stmts);
+                return;
+            }
+        }
+        IMCExpr expr = (IMCExpr)attrs.imcAttr.get(cond);
+        stmts.add(new CJUMP(value ? expr : negate(expr),pos,neg));
+    }
+
+    /**
+     * Returns the negation of a boolean expression.
+     */
+    private IMCExpr negate(IMCExpr expr){
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            switch(binop.oper){
+                case EQU:
+                    return imc.BINOP(BINOP.Oper.NEQ,binop.expr1,binop.expr2);
+                case NEQ:
+                    return imc.BINOP(BINOP.Oper.EQU,binop.expr1,binop.expr2);
+                case LTH:
+                    return imc.BINOP(BINOP.Oper.GEQ,binop.expr1,binop.expr2);
+                case GEQ:
+                    return imc.BINOP(BINOP.Oper.LTH,binop.expr1,binop.expr2);
+                case GTH:
+                    return imc.BINOP(BINOP.Oper.LEQ,binop.expr1,binop.expr2);
+                case LEQ:
+                    return imc.BINOP(BINOP.Oper.GTH,binop.expr1,binop.expr2);
+                default:
+                    break;
+            }
+        }
+        if(expr instanceof UNOP && ((UNOP)expr).oper == UNOP.Oper.NOT) return ((UNOP)expr).expr;
+        return imc.UNOP(UNOP.Oper.NOT,expr);
+    }
+
+    /**
+     * Returns the value of a conjunction or a disjunction computed into a
+     * temporary, with the second operand evaluated only if the first one does
+     * not decide.
+     */
+    private SEXPR conditional(BinExpr.Oper oper, IMCExpr fstExpr, IMCExpr sndExpr){
+        TEMP tmp = imc.TEMP(TEMP.newTempName());
+        String snd = LABEL.newLabelName();
+        String end = LABEL.newLabelName();
+
+        STMTS stmts = new STMTS(new MOVE(tmp,fstExpr),
+                new CJUMP(oper == BinExpr.Oper.AND ? tmp : imc.UNOP(UNOP.Oper.NOT,tmp),snd,end),
+                new LABEL(snd),
+                new MOVE(tmp,sndExpr),
+                new LABEL(end));
+        return new SEXPR(stmts,tmp);
+    }
+
+    /**
+     * Returns the copy of a record or an array, by octas if its size is a
+     * multiple of octas (it is then aligned to octas too) and by bytes
+     * otherwise. A small aggregate is copied by a move of every piece, a
+     * larger one by a loop.
+     */
+    private STMTS copy(MEM dst, MEM src){
+        long width = dst.width % 8 == 0 ? 8 : 1;
+        TEMP to = imc.TEMP(TEMP.newTempName());
+        TEMP from = imc.TEMP(TEMP.newTempName());
+
+        STMTS.Builder stmts = new STMTS.Builder();
+        stmts.add(new MOVE(to,dst.addr));
+        stmts.add(new MOVE(from,src.addr));
+        if(dst.width / width <= maxMoves){
+            for(long offset=0; offset<dst.width; offset+=width){
+                stmts.add(new MOVE(imc.MEM(imc.BINOP(BINOP.Oper.ADD,to,imc.CONST(offset)),width),
+                            imc.MEM(imc.BINOP(BINOP.Oper.ADD,from,imc.CONST(offset)),width)));
+            }
+        }else{
+            TEMP end = imc.TEMP(TEMP.newTempName());
+            String loop = LABEL.newLabelName();
+            String done = LABEL.newLabelName();
+
+            stmts.add(new MOVE(end,imc.BINOP(BINOP.Oper.ADD,from,imc.CONST(dst.width))));
+            stmts.add(new LABEL(loop));
+            stmts.add(new MOVE(imc.MEM(to,width),imc.MEM(from,width)));
+            stmts.add(new MOVE(to,imc.BINOP(BINOP.Oper.ADD,to,imc.CONST(width))));
+            stmts.add(new MOVE(from,imc.BINOP(BINOP.Oper.ADD,from,imc.CONST(width))));
+            stmts.add(new CJUMP(imc.BINOP(BINOP.Oper.GEQ,from,end),done,loop));
+            stmts.add(new LABEL(done));
+        }
+        return stmts.build();
+    }
+
+    /**
+     * Returns true if evaluating an expression has no side effects, so it can
+     * be skipped.
+     */
+    private boolean skippable(Expr expr){
+        if(expr instanceof BinExpr && (((BinExpr)expr).oper == BinExpr.Oper.AND || ((BinExpr)expr).oper == BinExpr.Oper.OR)){
+            return skippable(((BinExpr)expr).fstExpr) && skippable(((BinExpr)expr).sndExpr);
+        }
+        if(expr instanceof UnExpr && ((UnExpr)expr).oper == UnExpr.Oper.NOT) return skippable(((UnExpr)expr).subExpr);
+        return skippable((IMCExpr)attrs.imcAttr.get(expr));
+    }
+
+    private boolean skippable(IMCExpr expr){
+        if(expr instanceof CONST || expr instanceof NAME || expr instanceof TEMP) return true;
+        if(expr instanceof MEM) return skippable(((MEM)expr).addr);
+        if(expr instanceof UNOP) return skippable(((UNOP)expr).expr);
+        if(expr instanceof BINOP) return skippable(((BINOP)expr).expr1) && skippable(((BINOP)expr).expr2);
+        return false;
+    }
+
+    /**
+     * Returns true if an operand costs no more than a jump: it only adds,
+     * subtracts and compares the values loaded by the other operand.
+     */
+    private boolean cheap(IMCExpr expr, IMCExpr other){
+        if(expr instanceof CONST || expr instanceof NAME || expr instanceof TEMP) return true;
+        if(expr instanceof MEM) return loads(other,(MEM)expr);
+        if(expr instanceof UNOP) return cheap(((UNOP)expr).expr,other);
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            if(binop.oper == BINOP.Oper.MUL || binop.oper == BINOP.Oper.DIV || binop.oper == BINOP.Oper.MOD) return false;
+            return cheap(binop.expr1,other) && cheap(binop.expr2,other);
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if an expression loads from the same address as the load.
+     */
+    private boolean loads(IMCExpr expr, MEM mem){
+        if(expr instanceof MEM) return expr.equals(mem) || loads(((MEM)expr).addr,mem);
+        if(expr instanceof UNOP) return loads(((UNOP)expr).expr,mem);
+        if(expr instanceof BINOP) return loads(((BINOP)expr).expr1,mem) || loads(((BINOP)expr).expr2,mem);
+        return false;
     }
 
 }
@@ -65,7 +65,7 @@ public class LinCode extends Phase {
         sp = TEMP.newTempName();
         registers = new long[sp + 1];
         //registers[sp] = 0xF000000000000000l;
-        registers[sp] = 1000l;
+        registers[sp] = 0x7000000000000000l;
 
         long dataSegPtr = 0x1000000000000000l;
         dataSegLabels = new HashMap<String, Long>();
@@ -145,7 +145,7 @@ public class LinCode extends Phase {
         execute(codeFrg.linCode.stmts());
 
         // EPILOGUE
-        stMem(registers[fp], 8, registers[codeFrg.RV]);
+        stMem(registers[codeFrg.FP], 8, registers[codeFrg.RV]);
 
         for (int r = 0; r <= sp; r++)
             registers[r] = storedRegisters[r];
@@ -154,7 +154,7 @@ public class LinCode extends Phase {
             System.err.printf("END CODE FRAGMENT %s\n", codeFrg.label);
     }
 
-    private void execute(Vector<IMCStmt> stmts) {
+    private void execute(List<IMCStmt> stmts) {
         int pc = 0;
         while (true) {
             if (pc >= stmts.size())
@@ -268,17 +268,17 @@ public class LinCode extends Phase {
             CALL call = (CALL) expr;
 
             if (call.label.equals("_printChr")) {
-                long value = execute(call.args(0));
+                long value = execute(call.args(1));
                 System.out.printf("%c", (char) value);
                 return 0;
             }
             if (call.label.equals("_printInt")) {
-                long value = execute(call.args(0));
+                long value = execute(call.args(1));
                 System.out.printf("%d", value);
                 return 0;
             }
             if (call.label.equals("_printStr")) {
-                long addr = execute(call.args(0));
+                long addr = execute(call.args(1));
                 long c = -1;
                 while (c != 0) {
                     c = ldMem(addr, 1);
@@ -293,7 +293,7 @@ public class LinCode extends Phase {
             for (int arg = 0; arg < call.numArgs(); arg++) {
                 long value = execute(call.args(arg));
                 stMem(registers[sp] + d, call.widths(arg), value);
-                d += call.widths(arg);
+                d += (call.widths(arg) + 7) & ~7;
             }
 
             execute(getCodeFragment(call.label));
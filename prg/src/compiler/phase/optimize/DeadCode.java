@@ -0,0 +1,209 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * Dead code and unreachable block elimination on the linearized intermediate
+ * code.
+ */
+public class DeadCode{
+
+    /** The number of removed expression statements. */
+    public int statements;
+    /** The number of removed moves into dead temporaries. */
+    public int moves;
+    /** The number of conditional jumps replaced by jumps. */
+    public int jumps;
+    /** The number of statements removed with the unreachable blocks. */
+    public int unreachable;
+
+    private final CodeFragment frag;
+
+    public DeadCode(CodeFragment frag){
+        this.frag = frag;
+        this.statements = 0;
+        this.moves = 0;
+        this.jumps = 0;
+        this.unreachable = 0;
+    }
+
+    /**
+     * Returns the linearized code without dead and unreachable statements.
+     */
+    public STMTS eliminate(){
+        Vector<IMCStmt> stmts = new Vector<IMCStmt>();
+        for(IMCStmt stmt : frag.linCode.stmts()){
+            if(stmt instanceof ESTMT && Fold.pure(((ESTMT)stmt).expr)){
+                statements++;
+            }else if(stmt instanceof CJUMP && ((CJUMP)stmt).cond instanceof CONST){
+                CJUMP cjump = (CJUMP)stmt;
+                stmts.add(new JUMP(((CONST)cjump.cond).value != 0 ? cjump.posLabel : cjump.negLabel));
+                jumps++;
+            }else{
+                stmts.add(stmt);
+            }
+        }
+
+        thread(stmts);
+        unreachable(stmts);
+        while(dead(stmts));
+        return new STMTS(stmts);
+    }
+
+    /**
+     * Redirects the jumps to a label that is followed by another jump to the
+     * final destination. The positive label of a conditional jump is left
+     * alone, as the code generator falls through to it.
+     */
+    private void thread(Vector<IMCStmt> stmts){
+        HashMap<String,String> targets = new HashMap<String,String>();
+        for(int s=0; s<stmts.size(); s++){
+            if(!(stmts.get(s) instanceof LABEL)) continue;
+            int next = s;
+            while(next < stmts.size() && stmts.get(next) instanceof LABEL) next++;
+            if(next < stmts.size() && stmts.get(next) instanceof JUMP)
+                targets.put(((LABEL)stmts.get(s)).label,((JUMP)stmts.get(next)).label);
+        }
+
+        for(int s=0; s<stmts.size(); s++){
+            IMCStmt stmt = stmts.get(s);
+            if(stmt instanceof JUMP){
+                String target = target(targets,((JUMP)stmt).label);
+                if(!target.equals(((JUMP)stmt).label)) stmts.set(s,new JUMP(target));
+            }else if(stmt instanceof CJUMP){
+                CJUMP cjump = (CJUMP)stmt;
+                String target = target(targets,cjump.negLabel);
+                if(!target.equals(cjump.negLabel)) stmts.set(s,new CJUMP(cjump.cond,cjump.posLabel,target));
+            }
+        }
+    }
+
+    private static String target(HashMap<String,String> targets, String label){
+        HashSet<String> seen = new HashSet<String>();
+        while(targets.containsKey(label) && seen.add(label)) label = targets.get(label);
+        return label;
+    }
+
+    /**
+     * Removes the blocks that cannot be reached from the entry and the jumps
+     * to the label that follows them.
+     */
+    private void unreachable(Vector<IMCStmt> stmts){
+        HashMap<String,Integer> labels = labels(stmts);
+        boolean[] reached = new boolean[stmts.size()];
+        LinkedList<Integer> work = new LinkedList<Integer>();
+        work.add(0);
+
+        while(!work.isEmpty()){
+            int s = work.removeFirst();
+            // Follow the block until it jumps away.
+            for(; s < stmts.size() && !reached[s]; s++){
+                reached[s] = true;
+                IMCStmt stmt = stmts.get(s);
+                if(stmt instanceof JUMP){
+                    work.add(labels.get(((JUMP)stmt).label));
+                    break;
+                }
+                if(stmt instanceof CJUMP){
+                    work.add(labels.get(((CJUMP)stmt).posLabel));
+                    work.add(labels.get(((CJUMP)stmt).negLabel));
+                }
+            }
+        }
+
+        Vector<IMCStmt> live = new Vector<IMCStmt>();
+        for(int s=0; s<stmts.size(); s++){
+            if(reached[s]) live.add(stmts.get(s));
+            else unreachable++;
+        }
+        stmts.clear();
+
+        // A jump to one of the labels right after it is not needed.
+        for(int s=0; s<live.size(); s++){
+            IMCStmt stmt = live.get(s);
+            if(stmt instanceof JUMP){
+                int next = s+1;
+                while(next < live.size() && live.get(next) instanceof LABEL &&
+                        !((LABEL)live.get(next)).label.equals(((JUMP)stmt).label)) next++;
+                if(next < live.size() && live.get(next) instanceof LABEL) continue;
+            }
+            stmts.add(stmt);
+        }
+    }
+
+    /**
+     * Removes the moves of pure expressions into temporaries that are not
+     * live afterwards and returns true if any has been removed.
+     */
+    private boolean dead(Vector<IMCStmt> stmts){
+        int size = stmts.size();
+        HashMap<String,Integer> labels = labels(stmts);
+        ArrayList<HashSet<Integer>> liveOut = new ArrayList<HashSet<Integer>>();
+        ArrayList<HashSet<Integer>> liveIn = new ArrayList<HashSet<Integer>>();
+        for(int s=0; s<size; s++){
+            liveOut.add(new HashSet<Integer>());
+            liveIn.add(new HashSet<Integer>());
+        }
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int s=size-1; s>=0; s--){
+                IMCStmt stmt = stmts.get(s);
+                HashSet<Integer> out = liveOut.get(s);
+
+                if(stmt instanceof JUMP){
+                    out.addAll(liveIn.get(labels.get(((JUMP)stmt).label)));
+                }else if(stmt instanceof CJUMP){
+                    out.addAll(liveIn.get(labels.get(((CJUMP)stmt).posLabel)));
+                    out.addAll(liveIn.get(labels.get(((CJUMP)stmt).negLabel)));
+                }else if(s+1 < size){
+                    out.addAll(liveIn.get(s+1));
+                }else{
+                    out.add(frag.RV);
+                }
+
+                HashSet<Integer> in = new HashSet<Integer>(out);
+                if(stmt instanceof MOVE && ((MOVE)stmt).dst instanceof TEMP) in.remove(((TEMP)((MOVE)stmt).dst).name);
+                HashMap<Integer,Integer> uses = new HashMap<Integer,Integer>();
+                ValueNumbering.uses(stmt,uses,1);
+                in.addAll(uses.keySet());
+
+                if(!in.equals(liveIn.get(s))){
+                    liveIn.set(s,in);
+                    changed = true;
+                }
+            }
+        }
+
+        boolean removed = false;
+        Vector<IMCStmt> live = new Vector<IMCStmt>();
+        for(int s=0; s<size; s++){
+            IMCStmt stmt = stmts.get(s);
+            if(stmt instanceof MOVE && ((MOVE)stmt).dst instanceof TEMP){
+                int dst = ((TEMP)((MOVE)stmt).dst).name;
+                if(dst != frag.RV && dst != frag.FP && dst != frag.SP &&
+                        !liveOut.get(s).contains(dst) && Fold.pure(((MOVE)stmt).src)){
+                    moves++;
+                    removed = true;
+                    continue;
+                }
+            }
+            live.add(stmt);
+        }
+        stmts.clear();
+        stmts.addAll(live);
+        return removed;
+    }
+
+    private static HashMap<String,Integer> labels(Vector<IMCStmt> stmts){
+        HashMap<String,Integer> labels = new HashMap<String,Integer>();
+        for(int s=0; s<stmts.size(); s++){
+            if(stmts.get(s) instanceof LABEL) labels.put(((LABEL)stmts.get(s)).label,s);
+        }
+        return labels;
+    }
+}
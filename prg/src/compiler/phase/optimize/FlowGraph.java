@@ -0,0 +1,262 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * The basic blocks, dominators and natural loops of the linearized
+ * intermediate code of a code fragment.
+ */
+class FlowGraph{
+
+    private final CodeFragment frag;
+
+    /** The statements of the fragment, changed only by enter. */
+    final List<IMCStmt> stmts;
+
+    /** The index of the first statement of each block. */
+    final ArrayList<Integer> blocks;
+    final ArrayList<LinkedList<Integer>> succs;
+    final ArrayList<LinkedList<Integer>> preds;
+    final BitSet[] dominators;
+
+    /** The statements defining each temporary. */
+    final HashMap<Integer,LinkedList<MOVE>> defs;
+
+    /**
+     * Splits the statements into basic blocks and computes the dominators.
+     */
+    FlowGraph(CodeFragment frag, List<IMCStmt> stmts){
+        this.frag = frag;
+        this.stmts = stmts;
+
+        blocks = new ArrayList<Integer>();
+        HashMap<String,Integer> labels = new HashMap<String,Integer>();
+        for(int s=0; s<stmts.size(); s++){
+            IMCStmt stmt = stmts.get(s);
+            boolean start = s == 0 || stmt instanceof LABEL && !(stmts.get(s-1) instanceof LABEL) ||
+                stmts.get(s-1) instanceof JUMP || stmts.get(s-1) instanceof CJUMP;
+            if(start) blocks.add(s);
+            if(stmt instanceof LABEL) labels.put(((LABEL)stmt).label,blocks.size()-1);
+        }
+
+        int size = blocks.size();
+        succs = new ArrayList<LinkedList<Integer>>();
+        preds = new ArrayList<LinkedList<Integer>>();
+        for(int b=0; b<size; b++){
+            succs.add(new LinkedList<Integer>());
+            preds.add(new LinkedList<Integer>());
+        }
+        for(int b=0; b<size; b++){
+            IMCStmt last = stmts.get(end(b)-1);
+            if(last instanceof JUMP){
+                edge(b,labels.get(((JUMP)last).label));
+            }else if(last instanceof CJUMP){
+                edge(b,labels.get(((CJUMP)last).posLabel));
+                edge(b,labels.get(((CJUMP)last).negLabel));
+            }else if(b+1 < size){
+                edge(b,b+1);
+            }
+        }
+
+        dominators = new BitSet[size];
+        for(int b=0; b<size; b++){
+            dominators[b] = new BitSet(size);
+            if(b == 0) dominators[b].set(0);
+            else dominators[b].set(0,size);
+        }
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int b=1; b<size; b++){
+                BitSet dom = new BitSet(size);
+                dom.set(0,size);
+                for(int p : preds.get(b)) dom.and(dominators[p]);
+                dom.set(b);
+                if(!dom.equals(dominators[b])){
+                    dominators[b] = dom;
+                    changed = true;
+                }
+            }
+        }
+
+        defs = new HashMap<Integer,LinkedList<MOVE>>();
+        for(IMCStmt stmt : stmts){
+            if(stmt instanceof MOVE && ((MOVE)stmt).dst instanceof TEMP){
+                defs.computeIfAbsent(((TEMP)((MOVE)stmt).dst).name,k -> new LinkedList<MOVE>()).add((MOVE)stmt);
+            }
+        }
+    }
+
+    private void edge(int from, Integer to){
+        if(to == null) return;
+        succs.get(from).add(to);
+        preds.get(to).add(from);
+    }
+
+    /**
+     * Returns the index just past the last statement of a block.
+     */
+    int end(int block){
+        return block+1 < blocks.size() ? blocks.get(block+1) : stmts.size();
+    }
+
+    /**
+     * Returns the label a block starts with, or null.
+     */
+    String label(int block){
+        IMCStmt stmt = stmts.get(blocks.get(block));
+        return stmt instanceof LABEL ? ((LABEL)stmt).label : null;
+    }
+
+    /**
+     * Returns the natural loops, the blocks of all back edges into the same
+     * header are merged into one loop.
+     */
+    HashMap<Integer,BitSet> loops(){
+        HashMap<Integer,BitSet> loops = new HashMap<Integer,BitSet>();
+        for(int b=0; b<blocks.size(); b++){
+            for(int h : succs.get(b)){
+                if(!dominators[b].get(h)) continue;
+                BitSet loop = loops.computeIfAbsent(h,k -> new BitSet());
+                loop.set(h);
+                LinkedList<Integer> work = new LinkedList<Integer>();
+                work.add(b);
+                while(!work.isEmpty()){
+                    int n = work.removeFirst();
+                    if(loop.get(n)) continue;
+                    loop.set(n);
+                    work.addAll(preds.get(n));
+                }
+            }
+        }
+        return loops;
+    }
+
+    /**
+     * Returns the header of the smallest loop whose header label is not done
+     * yet, so inner loops go first, or -1 if there is none.
+     */
+    int innermost(HashMap<Integer,BitSet> loops, HashSet<String> done){
+        int header = -1;
+        for(Map.Entry<Integer,BitSet> entry : loops.entrySet()){
+            if(done.contains(label(entry.getKey()))) continue;
+            if(header == -1 || entry.getValue().cardinality() < loops.get(header).cardinality()){
+                header = entry.getKey();
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Returns true if a preheader can be placed just before the header: the
+     * header starts with a label and no block of the loop falls through
+     * into it.
+     */
+    boolean preheader(int header, BitSet loop){
+        if(header > 0 && loop.get(header-1) && !(stmts.get(end(header-1)-1) instanceof JUMP)) return false;
+        return label(header) != null;
+    }
+
+    /**
+     * Redirects the edges entering the loop from outside to the preheader.
+     */
+    void enter(int header, BitSet loop, String label){
+        String target = label(header);
+        for(int p : preds.get(header)){
+            if(loop.get(p)) continue;
+            int last = end(p)-1;
+            IMCStmt stmt = stmts.get(last);
+            if(stmt instanceof JUMP && ((JUMP)stmt).label.equals(target)){
+                stmts.set(last,new JUMP(label));
+            }else if(stmt instanceof CJUMP){
+                CJUMP cjump = (CJUMP)stmt;
+                stmts.set(last,new CJUMP(cjump.cond,cjump.posLabel.equals(target) ? label : cjump.posLabel,
+                            cjump.negLabel.equals(target) ? label : cjump.negLabel));
+            }
+        }
+    }
+
+    /**
+     * A memory location: a global variable, a slot of the frame, an unknown
+     * slot of the frame or anything at all.
+     */
+    static class Location{
+        /** The label of a global variable. */
+        final String global;
+        /** Whether the location is in the frame. */
+        final boolean frame;
+        /** The offset from the frame pointer, if known. */
+        final Long offset;
+
+        Location(String global, boolean frame, Long offset){
+            this.global = global;
+            this.frame = frame;
+            this.offset = offset;
+        }
+
+        boolean unknown(){
+            return global == null && !frame;
+        }
+
+        /**
+         * The static link is at the frame pointer, and its address is never
+         * taken.
+         */
+        boolean staticLink(){
+            return frame && offset != null && offset == 0;
+        }
+
+        boolean overlaps(Location that){
+            if(unknown() || that.unknown()) return true;
+            if(global != null || that.global != null) return global != null && global.equals(that.global);
+            return offset == null || that.offset == null || offset.equals(that.offset);
+        }
+    }
+
+    private static final Location anywhere = new Location(null,false,null);
+
+    /**
+     * Returns the location an address points to by following the single
+     * definitions of temporaries.
+     */
+    Location location(IMCExpr addr){
+        if(addr instanceof NAME) return new Location(((NAME)addr).name,false,null);
+        if(addr instanceof TEMP){
+            int name = ((TEMP)addr).name;
+            if(name == frag.FP) return new Location(null,true,0L);
+            LinkedList<MOVE> moves = defs.get(name);
+            if(moves == null || moves.size() != 1) return anywhere;
+            return location(moves.getFirst().src);
+        }
+        if(addr instanceof BINOP){
+            BINOP binop = (BINOP)addr;
+            if(binop.oper != BINOP.Oper.ADD && binop.oper != BINOP.Oper.SUB) return anywhere;
+            Location base = location(binop.expr1);
+            Long offset = constant(binop.expr2);
+            if(base.unknown() && binop.oper == BINOP.Oper.ADD){
+                base = location(binop.expr2);
+                offset = constant(binop.expr1);
+            }
+            if(base.unknown()) return anywhere;
+            if(base.global != null) return base;
+            if(base.offset == null || offset == null) return new Location(null,true,null);
+            return new Location(null,true,binop.oper == BINOP.Oper.ADD ? base.offset+offset : base.offset-offset);
+        }
+        return anywhere;
+    }
+
+    /**
+     * Returns the value of a constant operand, following single definitions.
+     */
+    Long constant(IMCExpr expr){
+        if(expr instanceof CONST) return ((CONST)expr).value;
+        if(expr instanceof TEMP){
+            LinkedList<MOVE> moves = defs.get(((TEMP)expr).name);
+            if(moves != null && moves.size() == 1) return constant(moves.getFirst().src);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,393 @@
+package compiler.phase.optimize;
+
+import compiler.data.imc.*;
+
+/**
+ * Constant folding and algebraic simplification of the intermediate code.
+ *
+ * <p>
+ * Constants are moved to the right of commutative operators and out of nested
+ * additions, so that x+c1+y+c2 becomes (x+y)+(c1+c2). A negative offset is
+ * written as a subtraction, which fits into the immediate operand of SUB.
+ * </p>
+ */
+public class Fold{
+
+    /** The number of simplified nodes. */
+    public int folded;
+
+    public Fold(){
+        this.folded = 0;
+    }
+
+    public IMCStmt fold(IMCStmt stmt){
+        if(stmt instanceof MOVE){
+            MOVE move = (MOVE)stmt;
+            IMCExpr dst = move.dst instanceof MEM ? new MEM(fold(((MEM)move.dst).addr),((MEM)move.dst).width) : move.dst;
+            return new MOVE(dst,fold(move.src));
+        }
+        if(stmt instanceof CJUMP){
+            CJUMP cjump = (CJUMP)stmt;
+            IMCExpr cond = fold(cjump.cond);
+            if(cond instanceof CONST){
+                folded++;
+                return new JUMP(((CONST)cond).value != 0 ? cjump.posLabel : cjump.negLabel);
+            }
+            return new CJUMP(cond,cjump.posLabel,cjump.negLabel);
+        }
+        if(stmt instanceof ESTMT){
+            IMCExpr expr = fold(((ESTMT)stmt).expr);
+            // The value is thrown away, so only the side effects remain.
+            if(pure(expr)){
+                folded++;
+                return new STMTS();
+            }
+            return new ESTMT(expr);
+        }
+        if(stmt instanceof STMTS){
+            STMTS stmts = (STMTS)stmt;
+            STMTS.Builder folded = new STMTS.Builder();
+            for(int s=0; s<stmts.numStmts(); s++) folded.add(fold(stmts.stmts(s)));
+            return folded.build();
+        }
+        return stmt;
+    }
+
+    public IMCExpr fold(IMCExpr expr){
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            return binop(binop.oper,fold(binop.expr1),fold(binop.expr2));
+        }
+        if(expr instanceof UNOP){
+            UNOP unop = (UNOP)expr;
+            return unop(unop.oper,fold(unop.expr));
+        }
+        if(expr instanceof MEM){
+            return new MEM(fold(((MEM)expr).addr),((MEM)expr).width);
+        }
+        if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            CALL.Builder args = new CALL.Builder(call.label);
+            for(int a=0; a<call.numArgs(); a++) args.add(fold(call.args(a)),call.widths(a));
+            return args.build();
+        }
+        if(expr instanceof SEXPR){
+            SEXPR sexpr = (SEXPR)expr;
+            IMCStmt stmt = fold(sexpr.stmt);
+            IMCExpr value = fold(sexpr.expr);
+            if(stmt instanceof STMTS && ((STMTS)stmt).numStmts() == 0) return value;
+            return new SEXPR(stmt,value);
+        }
+        return expr;
+    }
+
+    /**
+     * Returns the simplified binary operation of already simplified operands.
+     */
+    private IMCExpr binop(BINOP.Oper oper, IMCExpr expr1, IMCExpr expr2){
+        if(expr1 instanceof CONST && expr2 instanceof CONST){
+            Long value = evaluate(oper,((CONST)expr1).value,((CONST)expr2).value);
+            if(value != null){
+                folded++;
+                return new CONST(value);
+            }
+        }
+
+        // The constant operand goes to the right.
+        if(expr1 instanceof CONST && !(expr2 instanceof CONST)){
+            BINOP.Oper swapped = swap(oper);
+            if(swapped != null){
+                IMCExpr tmp = expr1;
+                expr1 = expr2;
+                expr2 = tmp;
+                oper = swapped;
+            }
+        }
+
+        Long c1 = offset(expr1);
+        Long c2 = offset(expr2);
+        long value = expr2 instanceof CONST ? ((CONST)expr2).value : 0;
+
+        switch(oper){
+            case ADD:
+                if(expr2 instanceof CONST){
+                    if(value == 0){
+                        folded++;
+                        return expr1;
+                    }
+                    if(c1 != null){
+                        folded++;
+                        return add(base(expr1),c1+value);
+                    }
+                    return add(expr1,value);
+                }
+                if(c1 != null){
+                    folded++;
+                    return add(binop(BINOP.Oper.ADD,base(expr1),expr2),c1);
+                }
+                if(c2 != null){
+                    folded++;
+                    return add(binop(BINOP.Oper.ADD,expr1,base(expr2)),c2);
+                }
+                if(expr2 instanceof UNOP && ((UNOP)expr2).oper == UNOP.Oper.SUB){
+                    folded++;
+                    return binop(BINOP.Oper.SUB,expr1,((UNOP)expr2).expr);
+                }
+                break;
+            case SUB:
+                if(expr2 instanceof CONST){
+                    if(value != Long.MIN_VALUE) return binop(BINOP.Oper.ADD,expr1,new CONST(-value));
+                    break;
+                }
+                if(expr1 instanceof CONST && ((CONST)expr1).value == 0){
+                    folded++;
+                    return unop(UNOP.Oper.SUB,expr2);
+                }
+                if(c1 != null){
+                    folded++;
+                    return add(binop(BINOP.Oper.SUB,base(expr1),expr2),c1);
+                }
+                if(c2 != null){
+                    folded++;
+                    return add(binop(BINOP.Oper.SUB,expr1,base(expr2)),-c2);
+                }
+                if(expr2 instanceof UNOP && ((UNOP)expr2).oper == UNOP.Oper.SUB){
+                    folded++;
+                    return binop(BINOP.Oper.ADD,expr1,((UNOP)expr2).expr);
+                }
+                break;
+            case MUL:
+                if(!(expr2 instanceof CONST)) break;
+                if(value == 1){
+                    folded++;
+                    return expr1;
+                }
+                if(value == 0 && pure(expr1)){
+                    folded++;
+                    return new CONST(0);
+                }
+                if(value == -1){
+                    folded++;
+                    return unop(UNOP.Oper.SUB,expr1);
+                }
+                // (x+c1)*c2 = x*c2 + c1*c2, the usual shape of an array index.
+                if(c1 != null){
+                    folded++;
+                    return add(binop(BINOP.Oper.MUL,base(expr1),expr2),c1*value);
+                }
+                if(expr1 instanceof BINOP && ((BINOP)expr1).oper == BINOP.Oper.MUL && ((BINOP)expr1).expr2 instanceof CONST){
+                    folded++;
+                    return binop(BINOP.Oper.MUL,((BINOP)expr1).expr1,new CONST(((CONST)((BINOP)expr1).expr2).value*value));
+                }
+                break;
+            case DIV:
+                if(expr2 instanceof CONST && value == 1){
+                    folded++;
+                    return expr1;
+                }
+                break;
+            case MOD:
+                if(expr2 instanceof CONST && value == 1 && pure(expr1)){
+                    folded++;
+                    return new CONST(0);
+                }
+                break;
+            case AND:
+                if(!(expr2 instanceof CONST)) break;
+                if(value == 1){
+                    folded++;
+                    return expr1;
+                }
+                if(value == 0 && pure(expr1)){
+                    folded++;
+                    return new CONST(0);
+                }
+                break;
+            case OR:
+                if(!(expr2 instanceof CONST)) break;
+                if(value == 0){
+                    folded++;
+                    return expr1;
+                }
+                if(value == 1 && pure(expr1)){
+                    folded++;
+                    return new CONST(1);
+                }
+                break;
+            default:
+                break;
+        }
+
+        return new BINOP(oper,expr1,expr2);
+    }
+
+    /**
+     * Returns the simplified unary operation of an already simplified operand.
+     */
+    private IMCExpr unop(UNOP.Oper oper, IMCExpr expr){
+        if(expr instanceof CONST){
+            long value = ((CONST)expr).value;
+            folded++;
+            switch(oper){
+                case SUB:
+                    return new CONST(-value);
+                case NOT:
+                    return new CONST(value == 1 ? 0 : 1);
+                default:
+                    return expr;
+            }
+        }
+
+        switch(oper){
+            case ADD:
+                folded++;
+                return expr;
+            case SUB:
+                if(expr instanceof UNOP && ((UNOP)expr).oper == UNOP.Oper.SUB){
+                    folded++;
+                    return ((UNOP)expr).expr;
+                }
+                break;
+            case NOT:
+                if(expr instanceof UNOP && ((UNOP)expr).oper == UNOP.Oper.NOT){
+                    folded++;
+                    return ((UNOP)expr).expr;
+                }
+                if(expr instanceof BINOP && negate(((BINOP)expr).oper) != null){
+                    BINOP binop = (BINOP)expr;
+                    folded++;
+                    return new BINOP(negate(binop.oper),binop.expr1,binop.expr2);
+                }
+                break;
+        }
+
+        return new UNOP(oper,expr);
+    }
+
+    /**
+     * Returns x+c, written as x-(-c) if c is negative.
+     */
+    private IMCExpr add(IMCExpr expr, long value){
+        if(expr instanceof CONST) return new CONST(((CONST)expr).value+value);
+        if(value == 0) return expr;
+        if(value < 0 && value != Long.MIN_VALUE) return new BINOP(BINOP.Oper.SUB,expr,new CONST(-value));
+        return new BINOP(BINOP.Oper.ADD,expr,new CONST(value));
+    }
+
+    /**
+     * Returns c if the expression is x+c or x-(-c), null otherwise.
+     */
+    private Long offset(IMCExpr expr){
+        if(!(expr instanceof BINOP) || !(((BINOP)expr).expr2 instanceof CONST)) return null;
+        BINOP binop = (BINOP)expr;
+        long value = ((CONST)binop.expr2).value;
+        if(binop.oper == BINOP.Oper.ADD) return value;
+        if(binop.oper == BINOP.Oper.SUB) return -value;
+        return null;
+    }
+
+    /**
+     * Returns x of x+c or x-c.
+     */
+    private IMCExpr base(IMCExpr expr){
+        return ((BINOP)expr).expr1;
+    }
+
+    /**
+     * Evaluates a binary operation, or returns null if the result would
+     * depend on the machine (division by zero or rounding of negative
+     * operands).
+     */
+    private Long evaluate(BINOP.Oper oper, long value1, long value2){
+        switch(oper){
+            case OR:
+                return (value1 == 1 || value2 == 1) ? 1L : 0L;
+            case AND:
+                return (value1 == 1 && value2 == 1) ? 1L : 0L;
+            case EQU:
+                return value1 == value2 ? 1L : 0L;
+            case NEQ:
+                return value1 != value2 ? 1L : 0L;
+            case LTH:
+                return value1 < value2 ? 1L : 0L;
+            case GTH:
+                return value1 > value2 ? 1L : 0L;
+            case LEQ:
+                return value1 <= value2 ? 1L : 0L;
+            case GEQ:
+                return value1 >= value2 ? 1L : 0L;
+            case ADD:
+                return value1 + value2;
+            case SUB:
+                return value1 - value2;
+            case MUL:
+                return value1 * value2;
+            case DIV:
+                if(value1 < 0 || value2 <= 0) return null;
+                return value1 / value2;
+            case MOD:
+                if(value1 < 0 || value2 <= 0) return null;
+                return value1 % value2;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the operator with the operands exchanged, or null if the
+     * operands cannot be exchanged.
+     */
+    private BINOP.Oper swap(BINOP.Oper oper){
+        switch(oper){
+            case ADD:
+            case MUL:
+            case AND:
+            case OR:
+            case EQU:
+            case NEQ:
+                return oper;
+            case LTH:
+                return BINOP.Oper.GTH;
+            case GTH:
+                return BINOP.Oper.LTH;
+            case LEQ:
+                return BINOP.Oper.GEQ;
+            case GEQ:
+                return BINOP.Oper.LEQ;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the negated comparison, or null if the operator is not a
+     * comparison.
+     */
+    private BINOP.Oper negate(BINOP.Oper oper){
+        switch(oper){
+            case EQU:
+                return BINOP.Oper.NEQ;
+            case NEQ:
+                return BINOP.Oper.EQU;
+            case LTH:
+                return BINOP.Oper.GEQ;
+            case GTH:
+                return BINOP.Oper.LEQ;
+            case LEQ:
+                return BINOP.Oper.GTH;
+            case GEQ:
+                return BINOP.Oper.LTH;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns true if evaluating the expression has no side effects.
+     */
+    static boolean pure(IMCExpr expr){
+        if(expr instanceof BINOP) return pure(((BINOP)expr).expr1) && pure(((BINOP)expr).expr2);
+        if(expr instanceof UNOP) return pure(((UNOP)expr).expr);
+        if(expr instanceof MEM) return pure(((MEM)expr).addr);
+        return expr instanceof CONST || expr instanceof TEMP || expr instanceof NAME || expr instanceof NOP;
+    }
+}
@@ -0,0 +1,448 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * Strength reduction of the addresses computed from induction variables on
+ * the linearized intermediate code.
+ *
+ * <p>
+ * A basic induction variable is a scalar variable (a global, a slot of the
+ * frame or a temporary) that is stored exactly once in the loop, with its own
+ * value plus a constant, and that no other store in the loop may write to.
+ * An address computed in the loop as {@code base + coef * v}, where {@code v}
+ * is the current value of the induction variable and {@code base} and
+ * {@code coef} are invariant, is replaced by a pointer that is set up in a
+ * preheader and advanced by {@code coef * step} right after the induction
+ * variable is stored. Loops that contain a call are left alone.
+ * </p>
+ */
+public class InductionVariables{
+
+    /** The number of address computations replaced by pointers. */
+    public int reduced;
+    /** The number of pointers introduced. */
+    public int pointers;
+
+    private final CodeFragment frag;
+
+    /** The statements of the fragment. */
+    private Vector<IMCStmt> stmts;
+
+    private FlowGraph graph;
+
+    public InductionVariables(CodeFragment frag){
+        this.frag = frag;
+        this.reduced = 0;
+        this.pointers = 0;
+    }
+
+    /**
+     * A value {@code base + coef * v} of an induction variable {@code v}, or
+     * an invariant value {@code base} if there is no variable.
+     */
+    private static class Form{
+        final String var;
+        final IMCExpr coef;
+        final IMCExpr base;
+
+        Form(String var, IMCExpr coef, IMCExpr base){
+            this.var = var;
+            this.coef = coef;
+            this.base = base;
+        }
+
+        Form(IMCExpr base){
+            this(null,null,base);
+        }
+
+        /** Whether the value is more than the induction variable itself. */
+        boolean derived(){
+            return var != null && !(isConst(coef,0) || isConst(coef,1) && isConst(base,0));
+        }
+
+        @Override
+        public boolean equals(Object obj){
+            if(!(obj instanceof Form)) return false;
+            Form form = (Form)obj;
+            return Objects.equals(var,form.var) && Objects.equals(coef,form.coef) && Objects.equals(base,form.base);
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(var,coef,base);
+        }
+    }
+
+    /**
+     * Returns the linearized code with the addresses computed from induction
+     * variables replaced by pointers.
+     */
+    public STMTS reduce(){
+        stmts = new Vector<IMCStmt>(frag.linCode.stmts());
+        HashSet<String> done = new HashSet<String>();
+
+        while(true){
+            graph = new FlowGraph(frag,stmts);
+            HashMap<Integer,BitSet> loops = graph.loops();
+            int header = graph.innermost(loops,done);
+            if(header == -1) break;
+
+            done.add(graph.label(header));
+            reduce(header,loops.get(header));
+        }
+
+        return new STMTS(stmts);
+    }
+
+    /**
+     * Reduces the addresses computed in a loop.
+     */
+    private void reduce(int header, BitSet loop){
+        if(!graph.preheader(header,loop)) return;
+
+        HashSet<Integer> defined = new HashSet<Integer>();
+        LinkedList<Integer> stores = new LinkedList<Integer>();
+        // The only definition in the loop of each temporary and the start of
+        // its block.
+        HashMap<Integer,int[]> temps = new HashMap<Integer,int[]>();
+        for(int b=loop.nextSetBit(0); b>=0; b=loop.nextSetBit(b+1)){
+            for(int s=graph.blocks.get(b); s<graph.end(b); s++){
+                IMCStmt stmt = stmts.get(s);
+                if(stmt instanceof ESTMT && ((ESTMT)stmt).expr instanceof CALL) return;
+                if(!(stmt instanceof MOVE)) continue;
+                MOVE move = (MOVE)stmt;
+                if(move.src instanceof CALL) return;
+                if(move.dst instanceof TEMP){
+                    int name = ((TEMP)move.dst).name;
+                    temps.put(name,defined.add(name) ? new int[]{s,graph.blocks.get(b)} : null);
+                }
+                if(move.dst instanceof MEM) stores.add(s);
+            }
+        }
+
+        // The induction variables, their steps and the statements updating
+        // them.
+        HashMap<String,Long> steps = new HashMap<String,Long>();
+        HashMap<Integer,String> updates = new HashMap<Integer,String>();
+        HashSet<String> invalid = new HashSet<String>();
+        for(Map.Entry<Integer,int[]> entry : temps.entrySet()){
+            int name = entry.getKey();
+            if(entry.getValue() == null || name == frag.FP || name == frag.SP || name == frag.RV) continue;
+            int s = entry.getValue()[0];
+            String var = "TEMP " + name;
+            Long step = step(var,((MOVE)stmts.get(s)).src,entry.getValue()[1],s);
+            if(step != null){
+                steps.put(var,step);
+                updates.put(s,var);
+            }
+        }
+        for(int b=loop.nextSetBit(0); b>=0; b=loop.nextSetBit(b+1)){
+            for(int s=graph.blocks.get(b); s<graph.end(b); s++){
+                if(!stores.contains(s)) continue;
+                MOVE move = (MOVE)stmts.get(s);
+                MEM dst = (MEM)move.dst;
+                String var = variable(dst.addr);
+                if(var == null || dst.width != 8 || var.equals("FRAME 0")) continue;
+                Long step = step(var,move.src,graph.blocks.get(b),s);
+                if(step == null || steps.containsKey(var)) invalid.add(var);
+                else{
+                    steps.put(var,step);
+                    updates.put(s,var);
+                }
+            }
+        }
+        for(Iterator<Map.Entry<Integer,String>> it = updates.entrySet().iterator(); it.hasNext();){
+            Map.Entry<Integer,String> update = it.next();
+            if(update.getValue().startsWith("TEMP ")) continue;
+            FlowGraph.Location location = graph.location(((MEM)((MOVE)stmts.get(update.getKey())).dst).addr);
+            boolean aliased = invalid.contains(update.getValue());
+            for(int s : stores){
+                if(s != update.getKey() && location.overlaps(graph.location(((MEM)((MOVE)stmts.get(s)).dst).addr))) aliased = true;
+            }
+            if(aliased){
+                steps.remove(update.getValue());
+                it.remove();
+            }
+        }
+        if(updates.isEmpty()) return;
+
+        // The definitions of addresses that can be replaced by pointers.
+        HashMap<Integer,Form> candidates = new HashMap<Integer,Form>();
+        HashSet<Integer> addresses = new HashSet<Integer>();
+        for(int b=loop.nextSetBit(0); b>=0; b=loop.nextSetBit(b+1)){
+            HashMap<Integer,Form> forms = new HashMap<Integer,Form>();
+            for(int s=graph.blocks.get(b); s<graph.end(b); s++){
+                IMCStmt stmt = stmts.get(s);
+                if(!(stmt instanceof MOVE)) continue;
+                MOVE move = (MOVE)stmt;
+                String var = updates.get(s);
+                if(var != null){
+                    if(move.dst instanceof MEM) address(((MEM)move.dst).addr,forms,addresses);
+                    // The values computed from the old value are stale now.
+                    forms.values().removeIf(form -> var.equals(form.var));
+                }else if(move.dst instanceof TEMP){
+                    int dst = ((TEMP)move.dst).name;
+                    Form form = form(move.src,forms,defined,stores,steps);
+                    if(form == null){
+                        forms.remove(dst);
+                    }else{
+                        forms.put(dst,form);
+                        if(form.derived()) candidates.put(s,form);
+                    }
+                    if(move.src instanceof MEM) address(((MEM)move.src).addr,forms,addresses);
+                }else{
+                    address(((MEM)move.dst).addr,forms,addresses);
+                }
+            }
+        }
+        candidates.keySet().removeIf(s -> !addresses.contains(((TEMP)((MOVE)stmts.get(s)).dst).name));
+        if(candidates.isEmpty()) return;
+
+        // A pointer is set up in the preheader for every distinct form.
+        String label = LABEL.newLabelName(frag.label);
+        Vector<IMCStmt> preheader = new Vector<IMCStmt>();
+        preheader.add(new LABEL(label));
+        LinkedHashMap<Form,TEMP> pointers = new LinkedHashMap<Form,TEMP>();
+        HashMap<String,LinkedList<IMCStmt>> advances = new HashMap<String,LinkedList<IMCStmt>>();
+        HashMap<Integer,IMCStmt> replaced = new HashMap<Integer,IMCStmt>();
+        for(int s : new TreeSet<Integer>(candidates.keySet())){
+            Form form = candidates.get(s);
+            TEMP pointer = pointers.get(form);
+            if(pointer == null){
+                pointer = new TEMP(TEMP.newTempName());
+                pointers.put(form,pointer);
+
+                IMCExpr coef = flatten(form.coef,preheader);
+                IMCExpr value = new TEMP(TEMP.newTempName());
+                if(form.var.startsWith("TEMP ")) value = new TEMP(Integer.parseInt(form.var.substring(5)));
+                else preheader.add(new MOVE(value,new MEM(flatten(address(form.var),preheader),8)));
+                value = flatten(mul(value,coef),preheader);
+                preheader.add(new MOVE(pointer,add(flatten(form.base,preheader),value)));
+
+                IMCExpr step = flatten(mul(coef,new CONST(steps.get(form.var))),preheader);
+                advances.computeIfAbsent(form.var,k -> new LinkedList<IMCStmt>()).add(new MOVE(pointer,add(pointer,step)));
+            }
+            replaced.put(s,new MOVE(((MOVE)stmts.get(s)).dst,pointer));
+        }
+
+        graph.enter(header,loop,label);
+
+        Vector<IMCStmt> result = new Vector<IMCStmt>();
+        int at = graph.blocks.get(header);
+        for(int s=0; s<stmts.size(); s++){
+            if(s == at) result.addAll(preheader);
+            result.add(replaced.containsKey(s) ? replaced.get(s) : stmts.get(s));
+            if(updates.containsKey(s) && advances.containsKey(updates.get(s))) result.addAll(advances.get(updates.get(s)));
+        }
+        stmts = result;
+
+        reduced += replaced.size();
+        this.pointers += pointers.size();
+    }
+
+    /**
+     * Returns the step of an induction variable stored at the given index, if
+     * the stored value is its value (loaded earlier in the block unless it is a
+     * temporary) plus a constant.
+     */
+    private Long step(String var, IMCExpr src, int begin, int store){
+        MOVE sum = definition(src,begin,store);
+        if(sum == null || !(sum.src instanceof BINOP)) return null;
+        BINOP binop = (BINOP)sum.src;
+        IMCExpr value = binop.expr1;
+        Long step = graph.constant(binop.expr2);
+        if(step == null && binop.oper == BINOP.Oper.ADD){
+            value = binop.expr2;
+            step = graph.constant(binop.expr1);
+        }
+        if(step == null || step == 0) return null;
+        if(binop.oper == BINOP.Oper.SUB) step = -step;
+        else if(binop.oper != BINOP.Oper.ADD) return null;
+
+        if(var.startsWith("TEMP ")) return value instanceof TEMP && var.equals("TEMP " + ((TEMP)value).name) ? step : null;
+
+        MOVE load = definition(value,begin,stmts.indexOf(sum));
+        if(load == null || !(load.src instanceof MEM)) return null;
+        MEM mem = (MEM)load.src;
+        return mem.width == 8 && var.equals(variable(mem.addr)) ? step : null;
+    }
+
+    /**
+     * Returns the only definition of a temporary if it lies between the given
+     * indices.
+     */
+    private MOVE definition(IMCExpr expr, int begin, int end){
+        if(!(expr instanceof TEMP)) return null;
+        LinkedList<MOVE> moves = graph.defs.get(((TEMP)expr).name);
+        if(moves == null || moves.size() != 1) return null;
+        for(int s=begin; s<end; s++){
+            if(stmts.get(s) == moves.getFirst()) return moves.getFirst();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the form of the value of an expression within a block, or null
+     * if it is neither invariant nor a linear function of an induction
+     * variable.
+     */
+    private Form form(IMCExpr expr, HashMap<Integer,Form> forms, HashSet<Integer> defined,
+            LinkedList<Integer> stores, HashMap<String,Long> steps){
+        if(expr instanceof CONST || expr instanceof NAME) return new Form(expr);
+        if(expr instanceof TEMP){
+            int name = ((TEMP)expr).name;
+            if(steps.containsKey("TEMP " + name)) return new Form("TEMP " + name,new CONST(1),new CONST(0));
+            return defined.contains(name) ? forms.get(name) : new Form(expr);
+        }
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            Form form1 = form(binop.expr1,forms,defined,stores,steps);
+            Form form2 = form(binop.expr2,forms,defined,stores,steps);
+            if(form1 == null || form2 == null) return null;
+            if(form1.var != null && form2.var != null && !form1.var.equals(form2.var)) return null;
+            String var = form1.var != null ? form1.var : form2.var;
+            switch(binop.oper){
+                case ADD:
+                    if(var == null) return new Form(new BINOP(binop.oper,form1.base,form2.base));
+                    return new Form(var,add(coef(form1),coef(form2)),add(form1.base,form2.base));
+                case SUB:
+                    if(var == null) return new Form(new BINOP(binop.oper,form1.base,form2.base));
+                    return new Form(var,sub(coef(form1),coef(form2)),sub(form1.base,form2.base));
+                case MUL:
+                    if(var == null) return new Form(new BINOP(binop.oper,form1.base,form2.base));
+                    if(form1.var != null && form2.var != null) return null;
+                    Form ind = form1.var != null ? form1 : form2;
+                    IMCExpr factor = form1.var != null ? form2.base : form1.base;
+                    return new Form(var,mul(ind.coef,factor),mul(ind.base,factor));
+                case DIV:
+                case MOD:
+                    // A division is not safe to compute before the loop.
+                    return null;
+                default:
+                    return var == null ? new Form(new BINOP(binop.oper,form1.base,form2.base)) : null;
+            }
+        }
+        if(expr instanceof UNOP){
+            Form form = form(((UNOP)expr).expr,forms,defined,stores,steps);
+            return form != null && form.var == null ? new Form(new UNOP(((UNOP)expr).oper,form.base)) : null;
+        }
+        if(expr instanceof MEM){
+            MEM mem = (MEM)expr;
+            String var = variable(mem.addr);
+            if(var == null) return null;
+            if(steps.containsKey(var)) return mem.width == 8 ? new Form(var,new CONST(1),new CONST(0)) : null;
+
+            // A scalar that is not stored in the loop can be loaded before it.
+            Form addr = form(mem.addr,forms,defined,stores,steps);
+            if(addr == null || addr.var != null) return null;
+            FlowGraph.Location location = graph.location(mem.addr);
+            for(int s : stores){
+                if(location.overlaps(graph.location(((MEM)((MOVE)stmts.get(s)).dst).addr))) return null;
+            }
+            return new Form(new MEM(addr.base,mem.width));
+        }
+        return null;
+    }
+
+    private static IMCExpr coef(Form form){
+        return form.var == null ? new CONST(0) : form.coef;
+    }
+
+    /**
+     * Notes the temporary used as an address if its value is a derived
+     * induction variable.
+     */
+    private static void address(IMCExpr addr, HashMap<Integer,Form> forms, HashSet<Integer> addresses){
+        if(!(addr instanceof TEMP)) return;
+        Form form = forms.get(((TEMP)addr).name);
+        if(form != null && form.derived()) addresses.add(((TEMP)addr).name);
+    }
+
+    /**
+     * Returns the scalar variable an address points to, a name or a constant
+     * offset from the frame pointer, by following single definitions.
+     */
+    private String variable(IMCExpr addr){
+        if(addr instanceof NAME) return "NAME " + ((NAME)addr).name;
+        if(addr instanceof TEMP){
+            int name = ((TEMP)addr).name;
+            if(name == frag.FP) return "FRAME 0";
+            LinkedList<MOVE> moves = graph.defs.get(name);
+            if(moves == null || moves.size() != 1) return null;
+            return variable(moves.getFirst().src);
+        }
+        if(addr instanceof BINOP){
+            BINOP binop = (BINOP)addr;
+            if(binop.oper != BINOP.Oper.ADD && binop.oper != BINOP.Oper.SUB) return null;
+            String base = variable(binop.expr1);
+            Long offset = graph.constant(binop.expr2);
+            if(base == null || !base.startsWith("FRAME ") || offset == null) return null;
+            long frame = Long.parseLong(base.substring(6));
+            return "FRAME " + (binop.oper == BINOP.Oper.ADD ? frame+offset : frame-offset);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the address of a scalar variable.
+     */
+    private IMCExpr address(String var){
+        if(var.startsWith("NAME ")) return new NAME(var.substring(5));
+        return add(new TEMP(frag.FP),new CONST(Long.parseLong(var.substring(6))));
+    }
+
+    /**
+     * Computes the value of an invariant expression into temporaries and
+     * returns the leaf holding it.
+     */
+    private static IMCExpr flatten(IMCExpr expr, Vector<IMCStmt> stmts){
+        IMCExpr value;
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            value = new BINOP(binop.oper,flatten(binop.expr1,stmts),flatten(binop.expr2,stmts));
+        }else if(expr instanceof UNOP){
+            value = new UNOP(((UNOP)expr).oper,flatten(((UNOP)expr).expr,stmts));
+        }else if(expr instanceof MEM){
+            value = new MEM(flatten(((MEM)expr).addr,stmts),((MEM)expr).width);
+        }else{
+            return expr;
+        }
+        TEMP tmp = new TEMP(TEMP.newTempName());
+        stmts.add(new MOVE(tmp,value));
+        return tmp;
+    }
+
+    private static IMCExpr add(IMCExpr expr1, IMCExpr expr2){
+        if(isConst(expr1,0)) return expr2;
+        if(expr1 instanceof CONST && !(expr2 instanceof CONST)) return add(expr2,expr1);
+        if(expr2 instanceof CONST){
+            long value = ((CONST)expr2).value;
+            if(value == 0) return expr1;
+            if(expr1 instanceof CONST) return new CONST(((CONST)expr1).value + value);
+            if(value < 0) return new BINOP(BINOP.Oper.SUB,expr1,new CONST(-value));
+        }
+        return new BINOP(BINOP.Oper.ADD,expr1,expr2);
+    }
+
+    private static IMCExpr sub(IMCExpr expr1, IMCExpr expr2){
+        if(expr2 instanceof CONST) return add(expr1,new CONST(-((CONST)expr2).value));
+        return new BINOP(BINOP.Oper.SUB,expr1,expr2);
+    }
+
+    private static IMCExpr mul(IMCExpr expr1, IMCExpr expr2){
+        if(isConst(expr1,0) || isConst(expr2,0)) return new CONST(0);
+        if(isConst(expr1,1)) return expr2;
+        if(isConst(expr2,1)) return expr1;
+        if(expr1 instanceof CONST && expr2 instanceof CONST) return new CONST(((CONST)expr1).value * ((CONST)expr2).value);
+        if(expr1 instanceof CONST) return new BINOP(BINOP.Oper.MUL,expr2,expr1);
+        return new BINOP(BINOP.Oper.MUL,expr1,expr2);
+    }
+
+    private static boolean isConst(IMCExpr expr, long value){
+        return expr instanceof CONST && ((CONST)expr).value == value;
+    }
+}
@@ -0,0 +1,310 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.frm.*;
+import compiler.data.imc.*;
+
+/**
+ * Inlining of small functions into their callers on the intermediate code.
+ *
+ * <p>
+ * A call is replaced by the body of the callee preceded by the stores of the
+ * arguments. The frame of the callee, its arguments (with the static link)
+ * above and its local variables below its frame pointer, becomes a block of
+ * the caller's local variables, and the callee's frame pointer becomes the
+ * address of that block. Functions nested in the callee are passed that
+ * address as their static link, so they reach the callee's variables in the
+ * caller's frame. Temporaries and labels of the callee are renamed for every
+ * copy of its body.
+ * </p>
+ */
+public class Inline{
+
+    /** The largest callee (in intermediate code nodes) that is inlined. */
+    private static final int maxSize = 48;
+
+    /** The largest number of nested inlined calls. */
+    private static final int maxDepth = 3;
+
+    /** The number of inlined calls. */
+    public int inlined;
+
+    /** The code fragments as they were before inlining. */
+    private final HashMap<String,CodeFragment> callees;
+
+    /** The caller and the size of its local variables. */
+    private CodeFragment caller;
+    private long locVarsSize;
+    private long outCallSize;
+
+    public Inline(Map<String,Fragment> fragments){
+        this.inlined = 0;
+        this.callees = new HashMap<String,CodeFragment>();
+        for(Fragment frag : fragments.values()){
+            if(frag instanceof CodeFragment && ((CodeFragment)frag).stmt != null) callees.put(frag.label,(CodeFragment)frag);
+        }
+    }
+
+    /**
+     * Returns the code fragment with the calls of small functions inlined.
+     */
+    public CodeFragment inline(CodeFragment frag){
+        caller = frag;
+        locVarsSize = frag.frame.locVarsSize;
+        outCallSize = frag.frame.outCallSize;
+
+        LinkedList<String> chain = new LinkedList<String>();
+        chain.add(frag.label);
+        IMCStmt stmt = inline(frag.stmt,chain);
+        if(locVarsSize == frag.frame.locVarsSize) return frag;
+
+        Frame frame = new Frame(frag.frame.level,frag.frame.label,frag.frame.inpCallSize,frag.frame.inpRegs,locVarsSize,
+                frag.frame.tmpVarsSize,frag.frame.hidRegsSize,outCallSize);
+        return new CodeFragment(frame,frag.FP,frag.SP,frag.RV,stmt);
+    }
+
+    private IMCStmt inline(IMCStmt stmt, LinkedList<String> chain){
+        if(stmt instanceof MOVE){
+            MOVE move = (MOVE)stmt;
+            return new MOVE(inline(move.dst,chain),inline(move.src,chain));
+        }
+        if(stmt instanceof CJUMP){
+            CJUMP cjump = (CJUMP)stmt;
+            return new CJUMP(inline(cjump.cond,chain),cjump.posLabel,cjump.negLabel);
+        }
+        if(stmt instanceof ESTMT){
+            return new ESTMT(inline(((ESTMT)stmt).expr,chain));
+        }
+        if(stmt instanceof STMTS){
+            STMTS stmts = (STMTS)stmt;
+            STMTS.Builder inlined = new STMTS.Builder();
+            for(int s=0; s<stmts.numStmts(); s++) inlined.add(inline(stmts.stmts(s),chain));
+            return inlined.build();
+        }
+        return stmt;
+    }
+
+    private IMCExpr inline(IMCExpr expr, LinkedList<String> chain){
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            return new BINOP(binop.oper,inline(binop.expr1,chain),inline(binop.expr2,chain));
+        }
+        if(expr instanceof UNOP){
+            return new UNOP(((UNOP)expr).oper,inline(((UNOP)expr).expr,chain));
+        }
+        if(expr instanceof MEM){
+            return new MEM(inline(((MEM)expr).addr,chain),((MEM)expr).width);
+        }
+        if(expr instanceof SEXPR){
+            SEXPR sexpr = (SEXPR)expr;
+            return new SEXPR(inline(sexpr.stmt,chain),inline(sexpr.expr,chain));
+        }
+        if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            CALL.Builder args = new CALL.Builder(call.label);
+            for(int a=0; a<call.numArgs(); a++) args.add(inline(call.args(a),chain),call.widths(a));
+            CodeFragment callee = callees.get(call.label);
+            if(!inlinable(callee,call,chain)) return args.build();
+            return body(callee,args.build(),chain);
+        }
+        return expr;
+    }
+
+    /**
+     * Returns true if the callee is small, not recursive along the chain of
+     * inlined calls, and takes its arguments in whole octas or bytes.
+     */
+    private boolean inlinable(CodeFragment callee, CALL call, LinkedList<String> chain){
+        if(callee == null || chain.size() > maxDepth || chain.contains(callee.label)) return false;
+        for(int a=0; a<call.numArgs(); a++){
+            if(call.widths(a) != 8 && call.widths(a) != 1) return false;
+        }
+        return size(callee.stmt) <= maxSize;
+    }
+
+    /**
+     * Returns the body of the callee that computes the result of the call.
+     */
+    private IMCExpr body(CodeFragment callee, CALL call, LinkedList<String> chain){
+        // The arguments lie above the callee's frame pointer and its local
+        // variables below it.
+        locVarsSize += callee.frame.inpCallSize;
+        long offset = locVarsSize;
+        locVarsSize += callee.frame.locVarsSize;
+        outCallSize = Math.max(outCallSize,callee.frame.outCallSize);
+
+        Copy copy = new Copy(callee,offset);
+        STMTS.Builder stmts = new STMTS.Builder();
+        long arg = 0;
+        for(int a=0; a<call.numArgs(); a++){
+            stmts.add(new MOVE(new MEM(copy.frame(arg),call.widths(a)),call.args(a)));
+            arg += (call.widths(a)+7) & ~7;
+        }
+
+        chain.addLast(callee.label);
+        stmts.add(inline(copy.copy(callee.stmt),chain));
+        chain.removeLast();
+
+        inlined++;
+        return new SEXPR(stmts.build(),copy.copy(new TEMP(callee.RV)));
+    }
+
+    /**
+     * A copy of the callee's code with its own temporaries and labels, and
+     * with the frame pointer moved into the caller's frame.
+     */
+    private class Copy{
+        private final CodeFragment callee;
+        private final long offset;
+        private final HashMap<Integer,Integer> temps;
+        private final HashMap<String,String> labels;
+
+        Copy(CodeFragment callee, long offset){
+            this.callee = callee;
+            this.offset = offset;
+            this.temps = new HashMap<Integer,Integer>();
+            this.labels = new HashMap<String,String>();
+        }
+
+        /**
+         * Returns the address at the given offset from the callee's frame
+         * pointer.
+         */
+        IMCExpr frame(long offset){
+            if(offset == 0) return new BINOP(BINOP.Oper.SUB,new TEMP(caller.FP),new CONST(this.offset));
+            return new BINOP(BINOP.Oper.ADD,new BINOP(BINOP.Oper.SUB,new TEMP(caller.FP),new CONST(this.offset)),new CONST(offset));
+        }
+
+        IMCStmt copy(IMCStmt stmt){
+            if(stmt instanceof MOVE) return new MOVE(copy(((MOVE)stmt).dst),copy(((MOVE)stmt).src));
+            if(stmt instanceof CJUMP){
+                CJUMP cjump = (CJUMP)stmt;
+                return new CJUMP(copy(cjump.cond),label(cjump.posLabel),label(cjump.negLabel));
+            }
+            if(stmt instanceof JUMP) return new JUMP(label(((JUMP)stmt).label));
+            if(stmt instanceof LABEL) return new LABEL(label(((LABEL)stmt).label));
+            if(stmt instanceof ESTMT) return new ESTMT(copy(((ESTMT)stmt).expr));
+            if(stmt instanceof STMTS){
+                STMTS stmts = (STMTS)stmt;
+                STMTS.Builder copies = new STMTS.Builder();
+                for(int s=0; s<stmts.numStmts(); s++) copies.add(copy(stmts.stmts(s)));
+                return copies.build();
+            }
+            return stmt;
+        }
+
+        IMCExpr copy(IMCExpr expr){
+            if(expr instanceof TEMP){
+                int name = ((TEMP)expr).name;
+                if(name == callee.FP) return frame(0);
+                if(name == callee.SP) return new TEMP(caller.SP);
+                return new TEMP(temps.computeIfAbsent(name,k -> TEMP.newTempName()));
+            }
+            if(expr instanceof BINOP){
+                BINOP binop = (BINOP)expr;
+                return new BINOP(binop.oper,copy(binop.expr1),copy(binop.expr2));
+            }
+            if(expr instanceof UNOP) return new UNOP(((UNOP)expr).oper,copy(((UNOP)expr).expr));
+            if(expr instanceof MEM) return new MEM(copy(((MEM)expr).addr),((MEM)expr).width);
+            if(expr instanceof SEXPR) return new SEXPR(copy(((SEXPR)expr).stmt),copy(((SEXPR)expr).expr));
+            if(expr instanceof CALL){
+                CALL call = (CALL)expr;
+                CALL.Builder args = new CALL.Builder(call.label);
+                for(int a=0; a<call.numArgs(); a++) args.add(copy(call.args(a)),call.widths(a));
+                return args.build();
+            }
+            return expr;
+        }
+
+        private String label(String label){
+            return labels.computeIfAbsent(label,k -> LABEL.newLabelName());
+        }
+    }
+
+    /**
+     * Removes the code fragments that can no longer be reached by calls from
+     * the main program and returns their number.
+     */
+    public static int removeUnused(Map<String,Fragment> fragments){
+        HashSet<String> called = new HashSet<String>();
+        LinkedList<String> work = new LinkedList<String>();
+        work.add("_");
+        while(!work.isEmpty()){
+            String label = work.removeFirst();
+            if(!called.add(label)) continue;
+            Fragment frag = fragments.get(label);
+            if(frag instanceof CodeFragment && ((CodeFragment)frag).stmt != null) calls(((CodeFragment)frag).stmt,work);
+        }
+
+        int removed = 0;
+        for(Iterator<Fragment> it = fragments.values().iterator(); it.hasNext();){
+            Fragment frag = it.next();
+            if(frag instanceof CodeFragment && ((CodeFragment)frag).stmt != null && !called.contains(frag.label)){
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static void calls(IMCStmt stmt, LinkedList<String> labels){
+        if(stmt instanceof MOVE){
+            calls(((MOVE)stmt).dst,labels);
+            calls(((MOVE)stmt).src,labels);
+        }else if(stmt instanceof CJUMP){
+            calls(((CJUMP)stmt).cond,labels);
+        }else if(stmt instanceof ESTMT){
+            calls(((ESTMT)stmt).expr,labels);
+        }else if(stmt instanceof STMTS){
+            for(int s=0; s<((STMTS)stmt).numStmts(); s++) calls(((STMTS)stmt).stmts(s),labels);
+        }
+    }
+
+    private static void calls(IMCExpr expr, LinkedList<String> labels){
+        if(expr instanceof BINOP){
+            calls(((BINOP)expr).expr1,labels);
+            calls(((BINOP)expr).expr2,labels);
+        }else if(expr instanceof UNOP){
+            calls(((UNOP)expr).expr,labels);
+        }else if(expr instanceof MEM){
+            calls(((MEM)expr).addr,labels);
+        }else if(expr instanceof SEXPR){
+            calls(((SEXPR)expr).stmt,labels);
+            calls(((SEXPR)expr).expr,labels);
+        }else if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            labels.add(call.label);
+            for(int a=0; a<call.numArgs(); a++) calls(call.args(a),labels);
+        }
+    }
+
+    /**
+     * Returns the number of nodes of the intermediate code.
+     */
+    private static int size(IMCStmt stmt){
+        if(stmt instanceof MOVE) return 1 + size(((MOVE)stmt).dst) + size(((MOVE)stmt).src);
+        if(stmt instanceof CJUMP) return 1 + size(((CJUMP)stmt).cond);
+        if(stmt instanceof ESTMT) return size(((ESTMT)stmt).expr);
+        if(stmt instanceof STMTS){
+            int size = 0;
+            for(int s=0; s<((STMTS)stmt).numStmts(); s++) size += size(((STMTS)stmt).stmts(s));
+            return size;
+        }
+        return 1;
+    }
+
+    private static int size(IMCExpr expr){
+        if(expr instanceof BINOP) return 1 + size(((BINOP)expr).expr1) + size(((BINOP)expr).expr2);
+        if(expr instanceof UNOP) return 1 + size(((UNOP)expr).expr);
+        if(expr instanceof MEM) return 1 + size(((MEM)expr).addr);
+        if(expr instanceof SEXPR) return size(((SEXPR)expr).stmt) + size(((SEXPR)expr).expr);
+        if(expr instanceof CALL){
+            int size = 1;
+            for(int a=0; a<((CALL)expr).numArgs(); a++) size += size(((CALL)expr).args(a));
+            return size;
+        }
+        return 1;
+    }
+}
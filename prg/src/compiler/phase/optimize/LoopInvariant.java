@@ -0,0 +1,208 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * Loop-invariant code motion on the linearized intermediate code.
+ *
+ * <p>
+ * Natural loops are found from the back edges of the control flow graph,
+ * innermost first, and the moves of invariant values into temporaries are
+ * hoisted into a preheader placed just before the loop's header. A value is
+ * invariant if its operands are constants, names or temporaries not defined
+ * in the loop. A load is also invariant if no store in the loop may write to
+ * its address and the loop contains no call; only the static link is never
+ * written by a store or a call. Loads and divisions are only hoisted from
+ * blocks that are executed on every iteration that leaves the loop.
+ * </p>
+ */
+public class LoopInvariant{
+
+    /** The number of hoisted statements. */
+    public int hoisted;
+    /** The number of loops that got a preheader. */
+    public int loops;
+
+    private final CodeFragment frag;
+
+    /** The statements of the fragment. */
+    private Vector<IMCStmt> stmts;
+
+    private FlowGraph graph;
+
+    public LoopInvariant(CodeFragment frag){
+        this.frag = frag;
+        this.hoisted = 0;
+        this.loops = 0;
+    }
+
+    /**
+     * Returns the linearized code with the invariant statements hoisted out of
+     * the loops.
+     */
+    public STMTS hoist(){
+        stmts = new Vector<IMCStmt>(frag.linCode.stmts());
+        HashSet<String> done = new HashSet<String>();
+
+        while(true){
+            graph = new FlowGraph(frag,stmts);
+            HashMap<Integer,BitSet> loops = graph.loops();
+            int header = graph.innermost(loops,done);
+            if(header == -1) break;
+
+            done.add(graph.label(header));
+            hoist(header,loops.get(header));
+        }
+
+        return new STMTS(stmts);
+    }
+
+    /**
+     * Hoists the invariant statements of a loop into a new preheader.
+     */
+    private void hoist(int header, BitSet loop){
+        // The preheader is placed before the header.
+        if(!graph.preheader(header,loop)) return;
+
+        HashSet<Integer> defined = new HashSet<Integer>();
+        LinkedList<MEM> stores = new LinkedList<MEM>();
+        boolean calls = false;
+        for(int b=loop.nextSetBit(0); b>=0; b=loop.nextSetBit(b+1)){
+            for(int s=graph.blocks.get(b); s<graph.end(b); s++){
+                IMCStmt stmt = stmts.get(s);
+                if(stmt instanceof MOVE){
+                    MOVE move = (MOVE)stmt;
+                    if(move.dst instanceof TEMP) defined.add(((TEMP)move.dst).name);
+                    if(move.dst instanceof MEM) stores.add((MEM)move.dst);
+                    if(move.src instanceof CALL) calls = true;
+                }
+            }
+        }
+
+        // The blocks that are executed on every iteration that leaves the
+        // loop, where a load or a division is as safe as before the loop.
+        BitSet safe = new BitSet();
+        safe.or(loop);
+        for(int b=loop.nextSetBit(0); b>=0; b=loop.nextSetBit(b+1)){
+            for(int n : graph.succs.get(b)){
+                if(!loop.get(n)){
+                    BitSet dom = (BitSet)graph.dominators[b].clone();
+                    safe.and(dom);
+                }
+            }
+        }
+
+        LinkedList<Integer> invariant = new LinkedList<Integer>();
+        HashSet<Integer> moved = new HashSet<Integer>();
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int b=loop.nextSetBit(0); b>=0; b=loop.nextSetBit(b+1)){
+                for(int s=graph.blocks.get(b); s<graph.end(b); s++){
+                    if(invariant.contains(s) || !(stmts.get(s) instanceof MOVE)) continue;
+                    MOVE move = (MOVE)stmts.get(s);
+                    if(!(move.dst instanceof TEMP)) continue;
+                    int dst = ((TEMP)move.dst).name;
+                    if(dst == frag.RV || dst == frag.FP || dst == frag.SP || graph.defs.get(dst).size() != 1) continue;
+                    if(!invariant(move.src,defined,moved,stores,calls,safe.get(b))) continue;
+                    invariant.add(s);
+                    moved.add(dst);
+                    changed = true;
+                }
+            }
+        }
+        // An address or a constant costs a single instruction to compute in
+        // the loop, so it is only hoisted if a hoisted value depends on it;
+        // otherwise it would just occupy a register.
+        HashMap<Integer,Integer> definitions = new HashMap<Integer,Integer>();
+        for(int s : invariant) definitions.put(((TEMP)((MOVE)stmts.get(s)).dst).name,s);
+        HashSet<Integer> needed = new HashSet<Integer>();
+        LinkedList<Integer> work = new LinkedList<Integer>();
+        for(int s : invariant){
+            if(!cheap(((MOVE)stmts.get(s)).src,moved)) work.add(s);
+        }
+        while(!work.isEmpty()){
+            int s = work.removeFirst();
+            if(!needed.add(s)) continue;
+            HashMap<Integer,Integer> uses = new HashMap<Integer,Integer>();
+            ValueNumbering.uses(stmts.get(s),uses,1);
+            for(int tmp : uses.keySet()){
+                if(definitions.containsKey(tmp)) work.add(definitions.get(tmp));
+            }
+        }
+        invariant.retainAll(needed);
+        if(invariant.isEmpty()) return;
+
+        Collections.sort(invariant);
+        String label = LABEL.newLabelName(frag.label);
+        graph.enter(header,loop,label);
+
+        Vector<IMCStmt> preheader = new Vector<IMCStmt>();
+        preheader.add(new LABEL(label));
+        for(int s : invariant) preheader.add(stmts.get(s));
+
+        Vector<IMCStmt> result = new Vector<IMCStmt>();
+        int at = graph.blocks.get(header);
+        for(int s=0; s<stmts.size(); s++){
+            if(s == at) result.addAll(preheader);
+            if(!invariant.contains(s)) result.add(stmts.get(s));
+        }
+        stmts = result;
+
+        hoisted += invariant.size();
+        loops++;
+    }
+
+    /**
+     * Returns true if the value of an expression is the same on every
+     * iteration of the loop.
+     */
+    private boolean invariant(IMCExpr expr, HashSet<Integer> defined, HashSet<Integer> moved,
+            LinkedList<MEM> stores, boolean calls, boolean safe){
+        if(expr instanceof CONST || expr instanceof NAME) return true;
+        if(expr instanceof TEMP){
+            int name = ((TEMP)expr).name;
+            return !defined.contains(name) || moved.contains(name);
+        }
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            if((binop.oper == BINOP.Oper.DIV || binop.oper == BINOP.Oper.MOD) && !safe) return false;
+            return invariant(binop.expr1,defined,moved,stores,calls,safe) &&
+                invariant(binop.expr2,defined,moved,stores,calls,safe);
+        }
+        if(expr instanceof UNOP){
+            return invariant(((UNOP)expr).expr,defined,moved,stores,calls,safe);
+        }
+        if(expr instanceof MEM){
+            MEM mem = (MEM)expr;
+            if(!safe || !invariant(mem.addr,defined,moved,stores,calls,safe)) return false;
+            FlowGraph.Location location = graph.location(mem.addr);
+            if(location.staticLink()) return true;
+            if(calls) return false;
+            for(MEM store : stores){
+                if(location.overlaps(graph.location(store.addr))) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the value is a constant, a name, a copy or an offset
+     * computed from values available before the loop.
+     */
+    private boolean cheap(IMCExpr expr, HashSet<Integer> moved){
+        if(expr instanceof CONST || expr instanceof NAME) return true;
+        if(expr instanceof TEMP) return !moved.contains(((TEMP)expr).name);
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            return (binop.oper == BINOP.Oper.ADD || binop.oper == BINOP.Oper.SUB) &&
+                !(binop.expr1 instanceof BINOP) && !(binop.expr2 instanceof BINOP) &&
+                cheap(binop.expr1,moved) && cheap(binop.expr2,moved);
+        }
+        return false;
+    }
+}
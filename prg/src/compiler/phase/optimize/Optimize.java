@@ -0,0 +1,243 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.*;
+import compiler.common.report.*;
+import compiler.phase.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * Optimization of the intermediate code. Every pass is performed only if it
+ * has been requested by --optimize.
+ */
+public class Optimize extends Phase{
+
+    private Task task;
+
+    /** The number of inlined calls */
+    private int inlined;
+    /** The number of functions removed after inlining */
+    private int removed;
+    /** The number of nodes simplified by constant folding */
+    private int folded;
+    /** The number of common subexpressions eliminated */
+    private int eliminated;
+    /** The number of removed expression statements */
+    private int statements;
+    /** The number of removed moves into dead temporaries */
+    private int moves;
+    /** The number of conditional jumps on constants */
+    private int jumps;
+    /** The number of statements in unreachable blocks */
+    private int unreachable;
+    /** The number of loop-invariant statements hoisted */
+    private int hoisted;
+    /** The number of loops with hoisted statements */
+    private int loops;
+    /** The number of address computations replaced by pointers */
+    private int reduced;
+    /** The number of pointers introduced by strength reduction */
+    private int pointers;
+    /** The number of self tail calls turned into jumps */
+    private int self;
+    /** The number of tail calls of other functions */
+    private int sibling;
+
+    public Optimize(Task task){
+        super(task,"optimize");
+
+        this.task = task;
+        this.inlined = 0;
+        this.removed = 0;
+        this.folded = 0;
+        this.eliminated = 0;
+        this.statements = 0;
+        this.moves = 0;
+        this.jumps = 0;
+        this.unreachable = 0;
+        this.hoisted = 0;
+        this.loops = 0;
+        this.reduced = 0;
+        this.pointers = 0;
+        this.self = 0;
+        this.sibling = 0;
+    }
+
+    /**
+     * Inlines the calls of small functions and removes the functions that are
+     * no longer called.
+     */
+    public void inline(){
+        if(task.optimizations.indexOf("inline") == -1) return;
+
+        Inline inline = new Inline(task.fragments);
+        for(Map.Entry<String,Fragment> entry : task.fragments.entrySet()){
+            if(!(entry.getValue() instanceof CodeFragment)) continue;
+            CodeFragment frag = (CodeFragment)entry.getValue();
+            if(frag.stmt == null) continue;
+            entry.setValue(inline.inline(frag));
+        }
+        inlined += inline.inlined;
+        removed += Inline.removeUnused(task.fragments);
+    }
+
+    /**
+     * Folds constants and simplifies the intermediate code of every code
+     * fragment, which is linearized anew.
+     */
+    public void fold(){
+        if(task.optimizations.indexOf("fold") == -1) return;
+
+        for(Map.Entry<String,Fragment> entry : task.fragments.entrySet()){
+            if(!(entry.getValue() instanceof CodeFragment)) continue;
+            CodeFragment frag = (CodeFragment)entry.getValue();
+            if(frag.stmt == null) continue;
+
+            Fold fold = new Fold();
+            IMCStmt stmt = fold.fold(frag.stmt);
+            entry.setValue(new CodeFragment(frag.frame,frag.FP,frag.SP,frag.RV,stmt));
+            folded += fold.folded;
+        }
+    }
+
+    /**
+     * Eliminates the common subexpressions within the basic blocks of the
+     * linearized code.
+     */
+    public void valueNumbering(){
+        if(task.optimizations.indexOf("cse") == -1) return;
+
+        forEachCodeFragment(frag -> {
+            if(frag.linCode == null) return;
+            ValueNumbering numbering = new ValueNumbering(frag);
+            frag.linCode = numbering.number();
+            count(numbering);
+        });
+    }
+
+    private synchronized void count(ValueNumbering numbering){
+        eliminated += numbering.eliminated;
+    }
+
+    /**
+     * Removes the dead statements and the unreachable blocks of the
+     * linearized code.
+     */
+    public void deadCode(){
+        if(task.optimizations.indexOf("dce") == -1) return;
+
+        forEachCodeFragment(frag -> {
+            if(frag.linCode == null) return;
+            DeadCode dead = new DeadCode(frag);
+            frag.linCode = dead.eliminate();
+            count(dead);
+        });
+    }
+
+    private synchronized void count(DeadCode dead){
+        statements += dead.statements;
+        moves += dead.moves;
+        jumps += dead.jumps;
+        unreachable += dead.unreachable;
+    }
+
+    /**
+     * Hoists the loop-invariant statements of the linearized code into the
+     * preheaders of the loops.
+     */
+    public void loopInvariants(){
+        if(task.optimizations.indexOf("licm") == -1) return;
+
+        forEachCodeFragment(frag -> {
+            if(frag.linCode == null) return;
+            LoopInvariant invariant = new LoopInvariant(frag);
+            frag.linCode = invariant.hoist();
+            count(invariant);
+        });
+    }
+
+    private synchronized void count(LoopInvariant invariant){
+        hoisted += invariant.hoisted;
+        loops += invariant.loops;
+    }
+
+    /**
+     * Replaces the addresses computed from induction variables by pointers
+     * advanced along with the variables.
+     */
+    public void inductionVariables(){
+        if(task.optimizations.indexOf("iv") == -1) return;
+
+        forEachCodeFragment(frag -> {
+            if(frag.linCode == null) return;
+            InductionVariables variables = new InductionVariables(frag);
+            frag.linCode = variables.reduce();
+            count(variables);
+        });
+    }
+
+    private synchronized void count(InductionVariables variables){
+        reduced += variables.reduced;
+        pointers += variables.pointers;
+    }
+
+    /**
+     * Turns the self tail calls into jumps and marks the other tail calls,
+     * which reuse the caller's frame.
+     */
+    public void tailCalls(){
+        if(task.optimizations.indexOf("tail") == -1) return;
+
+        forEachCodeFragment(frag -> {
+            if(frag.linCode == null) return;
+            TailCalls calls = new TailCalls(frag);
+            frag.linCode = calls.eliminate();
+            count(calls);
+        });
+    }
+
+    private synchronized void count(TailCalls calls){
+        self += calls.self;
+        sibling += calls.sibling;
+    }
+
+    @Override
+    public void close(){
+        if(task.stats){
+            Report.info("Inlined "+inlined+" calls and removed "+removed+" functions.");
+            Report.info("Constant folding simplified "+folded+" nodes.");
+            Report.info("Value numbering eliminated "+eliminated+" common subexpressions.");
+            Report.info("Removed "+statements+" expression statements, "+moves+" dead moves, "+jumps+
+                    " constant conditions and "+unreachable+" unreachable statements.");
+            Report.info("Hoisted "+hoisted+" loop-invariant statements out of "+loops+" loops.");
+            Report.info("Strength reduction replaced "+reduced+" address computations with "+pointers+" pointers.");
+            Report.info("Turned "+self+" self tail calls into jumps and "+sibling+" tail calls into frame reuse.");
+        }
+        if(logger != null){
+            logger.begElement("stats");
+            logger.addAttribute("inlined",""+inlined);
+            logger.addAttribute("removed",""+removed);
+            logger.addAttribute("folded",""+folded);
+            logger.addAttribute("eliminated",""+eliminated);
+            logger.addAttribute("statements",""+statements);
+            logger.addAttribute("moves",""+moves);
+            logger.addAttribute("jumps",""+jumps);
+            logger.addAttribute("unreachable",""+unreachable);
+            logger.addAttribute("hoisted",""+hoisted);
+            logger.addAttribute("loops",""+loops);
+            logger.addAttribute("reduced",""+reduced);
+            logger.addAttribute("pointers",""+pointers);
+            logger.addAttribute("self",""+self);
+            logger.addAttribute("sibling",""+sibling);
+            logger.endElement();
+
+            for(Fragment tmp : task.fragments.values()){
+                if(tmp instanceof CodeFragment && ((CodeFragment)tmp).linCode != null) tmp.toXML(logger);
+            }
+        }
+        super.close();
+    }
+}
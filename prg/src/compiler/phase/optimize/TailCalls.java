@@ -0,0 +1,250 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * Tail calls in the linearized intermediate code.
+ *
+ * <p>
+ * A call is in tail position if its result only travels through temporaries
+ * and local variables into the result register before the function returns.
+ * A tail call of the function itself stores the arguments over the
+ * parameters and jumps back to the start of the code. A tail call of another
+ * function is recorded in the fragment, so the code generator can store the
+ * arguments over the parameters, release the frame and jump to the callee,
+ * which then returns straight to our caller. Both reuse the frame, so they
+ * are only done if the arguments fit into the parameters and no address of
+ * the frame is ever passed anywhere.
+ * </p>
+ */
+public class TailCalls{
+
+    /** The number of self tail calls turned into jumps. */
+    public int self;
+    /** The number of tail calls of other functions. */
+    public int sibling;
+
+    private final CodeFragment frag;
+
+    /** The statements of the fragment. */
+    private List<IMCStmt> stmts;
+
+    private FlowGraph graph;
+
+    /** The index of each label. */
+    private HashMap<String,Integer> labels;
+
+    public TailCalls(CodeFragment frag){
+        this.frag = frag;
+        this.self = 0;
+        this.sibling = 0;
+    }
+
+    /**
+     * Returns the linearized code with the self tail calls turned into jumps
+     * and marks the other tail calls in the fragment.
+     */
+    public STMTS eliminate(){
+        stmts = frag.linCode.stmts();
+        graph = new FlowGraph(frag,stmts);
+        if(escapes()) return frag.linCode;
+
+        labels = new HashMap<String,Integer>();
+        for(int s=0; s<stmts.size(); s++){
+            if(stmts.get(s) instanceof LABEL) labels.put(((LABEL)stmts.get(s)).label,s);
+        }
+
+        String entry = null;
+        Vector<IMCStmt> result = new Vector<IMCStmt>();
+        boolean reachable = true;
+        for(int s=0; s<stmts.size(); s++){
+            IMCStmt stmt = stmts.get(s);
+            if(stmt instanceof LABEL) reachable = true;
+            if(!reachable) continue;
+
+            CALL call = call(stmt);
+            if(call != null && fits(call) && tail(s+1,((TEMP)((MOVE)stmt).dst).name)){
+                if(call.label.equals(frag.label)){
+                    if(entry == null) entry = LABEL.newLabelName(frag.label);
+                    parameters(call,result);
+                    result.add(new JUMP(entry));
+                    reachable = false;
+                    self++;
+                    continue;
+                }
+                frag.tailCalls.add(call);
+                sibling++;
+            }
+            result.add(stmt);
+        }
+        if(entry == null) return frag.linCode;
+
+        result.add(0,new LABEL(entry));
+        return new STMTS(result);
+    }
+
+    /**
+     * Returns the call whose result a statement moves into a temporary, or
+     * null.
+     */
+    private CALL call(IMCStmt stmt){
+        if(!(stmt instanceof MOVE)) return null;
+        MOVE move = (MOVE)stmt;
+        if(!(move.dst instanceof TEMP) || !(move.src instanceof CALL)) return null;
+        return (CALL)move.src;
+    }
+
+    /**
+     * Returns true if the arguments of a call fit into the parameters of this
+     * function, every argument in a single octa.
+     */
+    private boolean fits(CALL call){
+        long size = 0;
+        for(int i=0; i<call.numArgs(); i++){
+            if(call.widths(i) != 1 && call.widths(i) != 8) return false;
+            size += 8;
+        }
+        return size <= frag.frame.inpCallSize;
+    }
+
+    /**
+     * Returns true if the function returns the result of a call right after
+     * the statement at the given index.
+     */
+    private boolean tail(int s, int result){
+        // The temporaries and the local variables holding the result.
+        HashSet<Integer> values = new HashSet<Integer>();
+        HashSet<Long> slots = new HashSet<Long>();
+        values.add(result);
+        boolean returned = false;
+
+        HashSet<Integer> visited = new HashSet<Integer>();
+        for(; s<stmts.size(); s++){
+            if(!visited.add(s)) return false;
+            IMCStmt stmt = stmts.get(s);
+            if(stmt instanceof LABEL) continue;
+            if(stmt instanceof JUMP){
+                Integer target = labels.get(((JUMP)stmt).label);
+                if(target == null) return false;
+                s = target-1;
+                continue;
+            }
+            if(!(stmt instanceof MOVE)) return false;
+
+            MOVE move = (MOVE)stmt;
+            if(move.dst instanceof TEMP){
+                int dst = ((TEMP)move.dst).name;
+                boolean value = move.src instanceof TEMP && values.contains(((TEMP)move.src).name) ||
+                    move.src instanceof MEM && ((MEM)move.src).width == 8 && slots.contains(local((MEM)move.src));
+                if(!value && !pure(move.src)) return false;
+                if(value) values.add(dst);
+                else values.remove(dst);
+                if(dst == frag.RV) returned = value;
+            }else{
+                Long offset = local((MEM)move.dst);
+                if(offset == null) return false;
+                slots.removeIf(slot -> Math.abs(slot-offset) < 8);
+                if(((MEM)move.dst).width == 8 && move.src instanceof TEMP && values.contains(((TEMP)move.src).name)){
+                    slots.add(offset);
+                }
+            }
+        }
+        return returned;
+    }
+
+    /**
+     * Returns the offset of a local variable accessed in memory, or null.
+     */
+    private Long local(MEM mem){
+        FlowGraph.Location location = graph.location(mem.addr);
+        if(!location.frame || location.offset == null || location.offset >= 0) return null;
+        return location.offset;
+    }
+
+    /**
+     * Returns true if an expression can be skipped: it neither calls a
+     * function nor divides.
+     */
+    private boolean pure(IMCExpr expr){
+        if(expr instanceof CONST || expr instanceof NAME || expr instanceof TEMP) return true;
+        if(expr instanceof MEM) return pure(((MEM)expr).addr);
+        if(expr instanceof UNOP) return pure(((UNOP)expr).expr);
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            if(binop.oper == BINOP.Oper.DIV || binop.oper == BINOP.Oper.MOD) return false;
+            return pure(binop.expr1) && pure(binop.expr2);
+        }
+        return false;
+    }
+
+    /**
+     * Stores the arguments of a self tail call over the parameters. The
+     * static link is the same unless the call passes a different one.
+     */
+    private void parameters(CALL call, Vector<IMCStmt> result){
+        long offset = 0;
+        for(int i=0; i<call.numArgs(); i++, offset+=8){
+            IMCExpr arg = call.args(i);
+            if(i == 0 && arg instanceof TEMP){
+                LinkedList<MOVE> moves = graph.defs.get(((TEMP)arg).name);
+                if(moves != null && moves.size() == 1 && moves.getFirst().src instanceof MEM &&
+                        graph.location(((MEM)moves.getFirst().src).addr).staticLink()) continue;
+            }
+            IMCExpr addr = new TEMP(frag.FP);
+            if(offset != 0){
+                addr = new TEMP(TEMP.newTempName());
+                result.add(new MOVE(addr,new BINOP(BINOP.Oper.ADD,new TEMP(frag.FP),new CONST(offset))));
+            }
+            result.add(new MOVE(new MEM(addr,call.widths(i)),arg));
+        }
+    }
+
+    /**
+     * Returns true if an address in the frame is used as anything but the
+     * address of a load or a store, so it might be passed to another frame.
+     */
+    private boolean escapes(){
+        HashSet<Integer> frame = new HashSet<Integer>();
+        frame.add(frag.FP);
+        for(Map.Entry<Integer,LinkedList<MOVE>> entry : graph.defs.entrySet()){
+            if(entry.getValue().size() == 1 && graph.location(entry.getValue().getFirst().src).frame){
+                frame.add(entry.getKey());
+            }
+        }
+
+        for(IMCStmt stmt : stmts){
+            if(stmt instanceof MOVE){
+                MOVE move = (MOVE)stmt;
+                if(move.dst instanceof TEMP){
+                    // Addresses in the frame are computed from each other.
+                    if(frame.contains(((TEMP)move.dst).name)) continue;
+                }else if(escapes(((MEM)move.dst).addr,frame,true)){
+                    return true;
+                }
+                if(escapes(move.src,frame,false)) return true;
+            }else if(stmt instanceof CJUMP){
+                if(escapes(((CJUMP)stmt).cond,frame,false)) return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean escapes(IMCExpr expr, HashSet<Integer> frame, boolean address){
+        if(expr instanceof TEMP) return !address && frame.contains(((TEMP)expr).name);
+        if(expr instanceof MEM) return escapes(((MEM)expr).addr,frame,true);
+        if(expr instanceof UNOP) return escapes(((UNOP)expr).expr,frame,false);
+        if(expr instanceof BINOP){
+            return escapes(((BINOP)expr).expr1,frame,false) || escapes(((BINOP)expr).expr2,frame,false);
+        }
+        if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            for(int i=0; i<call.numArgs(); i++){
+                if(escapes(call.args(i),frame,false)) return true;
+            }
+        }
+        return false;
+    }
+}
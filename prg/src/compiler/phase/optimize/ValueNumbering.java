@@ -0,0 +1,303 @@
+package compiler.phase.optimize;
+
+import java.util.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * Local value numbering of the linearized intermediate code.
+ *
+ * <p>
+ * Within a basic block every temporary, constant and pure expression gets a
+ * value number, and an expression whose value is already held in a
+ * temporary is replaced by a copy of it. Uses of a temporary are rewritten to
+ * the first temporary holding the same value (or to the constant), so the
+ * copies that are no longer used are removed at the end. Loads are numbered
+ * by their address and forgotten at every store and call.
+ * </p>
+ */
+public class ValueNumbering{
+
+    /** The number of eliminated expressions. */
+    public int eliminated;
+
+    private final CodeFragment frag;
+
+    /** The value numbers of temporaries. */
+    private HashMap<Integer,Integer> numbers;
+
+    /** The value numbers of expressions (and of constants and names). */
+    private HashMap<String,Integer> values;
+
+    /** The temporaries holding the values. */
+    private HashMap<Integer,TEMP> holders;
+
+    /** The values known to be constant. */
+    private HashMap<Integer,Long> constants;
+
+    /** The expressions that read the memory. */
+    private LinkedList<String> loads;
+
+    /** The copies that replaced eliminated expressions. */
+    private HashSet<MOVE> copies;
+
+    private int count;
+
+    public ValueNumbering(CodeFragment frag){
+        this.frag = frag;
+        this.eliminated = 0;
+        this.copies = new HashSet<MOVE>();
+        this.count = 0;
+    }
+
+    /**
+     * Returns the linearized code with the common subexpressions eliminated.
+     */
+    public STMTS number(){
+        Vector<IMCStmt> stmts = new Vector<IMCStmt>();
+        clear();
+
+        for(IMCStmt stmt : frag.linCode.stmts()){
+            if(stmt instanceof LABEL) clear();
+
+            if(stmt instanceof MOVE && ((MOVE)stmt).dst instanceof TEMP){
+                stmts.add(move((TEMP)((MOVE)stmt).dst,((MOVE)stmt).src));
+            }else if(stmt instanceof MOVE && ((MOVE)stmt).dst instanceof MEM){
+                MEM dst = (MEM)((MOVE)stmt).dst;
+                IMCExpr addr = operand(dst.addr);
+                IMCExpr src = operand(((MOVE)stmt).src);
+                forget();
+                // The stored octa can be read back without a load.
+                if(dst.width == 8 && !(src instanceof CALL)){
+                    String key = "MEM" + dst.width + " " + number(addr);
+                    values.put(key,number(src));
+                    loads.add(key);
+                }
+                stmts.add(new MOVE(new MEM(addr,dst.width),src));
+            }else if(stmt instanceof CJUMP){
+                CJUMP cjump = (CJUMP)stmt;
+                stmts.add(new CJUMP(operand(cjump.cond),cjump.posLabel,cjump.negLabel));
+                clear();
+            }else{
+                stmts.add(stmt);
+                if(!(stmt instanceof LABEL)) clear();
+            }
+        }
+
+        return new STMTS(unused(stmts));
+    }
+
+    /**
+     * Numbers the value moved into a temporary.
+     */
+    private IMCStmt move(TEMP dst, IMCExpr src){
+        if(src instanceof CALL){
+            CALL call = (CALL)src;
+            CALL.Builder args = new CALL.Builder(call.label);
+            for(int a=0; a<call.numArgs(); a++) args.add(operand(call.args(a)),call.widths(a));
+            forget();
+            define(dst,++count);
+            return new MOVE(dst,args.build());
+        }
+
+        if(src instanceof TEMP || src instanceof CONST || src instanceof NAME){
+            IMCExpr value = operand(src);
+            define(dst,number(src));
+            return new MOVE(dst,value);
+        }
+
+        IMCExpr expr = src;
+        String key = null;
+        if(src instanceof BINOP){
+            BINOP binop = (BINOP)src;
+            IMCExpr expr1 = operand(binop.expr1);
+            IMCExpr expr2 = operand(binop.expr2);
+            int value1 = number(expr1);
+            int value2 = number(expr2);
+            if(commutative(binop.oper) && value1 > value2){
+                int tmp = value1;
+                value1 = value2;
+                value2 = tmp;
+            }
+            expr = new BINOP(binop.oper,expr1,expr2);
+            key = binop.oper + " " + value1 + " " + value2;
+        }else if(src instanceof UNOP){
+            UNOP unop = (UNOP)src;
+            IMCExpr sub = operand(unop.expr);
+            expr = new UNOP(unop.oper,sub);
+            key = unop.oper + " " + number(sub);
+        }else if(src instanceof MEM){
+            MEM mem = (MEM)src;
+            IMCExpr addr = operand(mem.addr);
+            expr = new MEM(addr,mem.width);
+            key = "MEM" + mem.width + " " + number(addr);
+        }
+
+        if(key == null){
+            define(dst,++count);
+            return new MOVE(dst,expr);
+        }
+
+        Integer value = values.get(key);
+        if(value != null){
+            Long constant = constants.get(value);
+            TEMP holder = holder(value);
+            if(constant != null || holder != null){
+                eliminated++;
+                define(dst,value);
+                if(constant != null) return new MOVE(dst,new CONST(constant));
+                MOVE copy = new MOVE(dst,holder);
+                copies.add(copy);
+                return copy;
+            }
+        }else{
+            value = ++count;
+            values.put(key,value);
+            if(src instanceof MEM) loads.add(key);
+        }
+        define(dst,value);
+        return new MOVE(dst,expr);
+    }
+
+    /**
+     * Returns the constant or the first temporary holding the value of an
+     * operand, or the operand itself.
+     */
+    private IMCExpr operand(IMCExpr expr){
+        if(!(expr instanceof TEMP)) return expr;
+        int value = number(expr);
+        if(constants.containsKey(value)) return new CONST(constants.get(value));
+        TEMP holder = holder(value);
+        return holder == null ? expr : holder;
+    }
+
+    /**
+     * Returns the value number of a temporary, constant or name.
+     */
+    private int number(IMCExpr expr){
+        if(expr instanceof TEMP){
+            Integer value = numbers.get(((TEMP)expr).name);
+            if(value == null){
+                value = ++count;
+                numbers.put(((TEMP)expr).name,value);
+                holders.put(value,(TEMP)expr);
+            }
+            return value;
+        }
+
+        String key = null;
+        if(expr instanceof CONST) key = "CONST " + ((CONST)expr).value;
+        if(expr instanceof NAME) key = "NAME " + ((NAME)expr).name;
+        if(key == null) return ++count;
+
+        Integer value = values.get(key);
+        if(value == null){
+            values.put(key,value = ++count);
+            if(expr instanceof CONST) constants.put(value,((CONST)expr).value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the temporary that still holds the value, or null.
+     */
+    private TEMP holder(int value){
+        TEMP holder = holders.get(value);
+        if(holder == null) return null;
+        Integer current = numbers.get(holder.name);
+        return current != null && current == value ? holder : null;
+    }
+
+    private void define(TEMP dst, int value){
+        numbers.put(dst.name,value);
+        if(holder(value) == null) holders.put(value,dst);
+    }
+
+    /**
+     * Forgets the loaded values, the memory may have changed.
+     */
+    private void forget(){
+        for(String key : loads) values.remove(key);
+        loads.clear();
+    }
+
+    /**
+     * Forgets everything at the end of a basic block.
+     */
+    private void clear(){
+        numbers = new HashMap<Integer,Integer>();
+        values = new HashMap<String,Integer>();
+        holders = new HashMap<Integer,TEMP>();
+        constants = new HashMap<Integer,Long>();
+        loads = new LinkedList<String>();
+    }
+
+    /**
+     * Removes the copies into temporaries that are never used.
+     */
+    private Vector<IMCStmt> unused(Vector<IMCStmt> stmts){
+        HashMap<Integer,Integer> uses = new HashMap<Integer,Integer>();
+        for(IMCStmt stmt : stmts) uses(stmt,uses,1);
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(Iterator<IMCStmt> it = stmts.iterator(); it.hasNext();){
+                IMCStmt stmt = it.next();
+                if(!copies.contains(stmt)) continue;
+                int dst = ((TEMP)((MOVE)stmt).dst).name;
+                if(dst == frag.RV || uses.getOrDefault(dst,0) > 0) continue;
+                uses(stmt,uses,-1);
+                it.remove();
+                changed = true;
+            }
+        }
+        return stmts;
+    }
+
+    /**
+     * Counts the uses of temporaries in a statement.
+     */
+    static void uses(IMCStmt stmt, HashMap<Integer,Integer> uses, int delta){
+        if(stmt instanceof MOVE){
+            MOVE move = (MOVE)stmt;
+            if(move.dst instanceof MEM) uses(((MEM)move.dst).addr,uses,delta);
+            uses(move.src,uses,delta);
+        }else if(stmt instanceof CJUMP){
+            uses(((CJUMP)stmt).cond,uses,delta);
+        }else if(stmt instanceof ESTMT){
+            uses(((ESTMT)stmt).expr,uses,delta);
+        }
+    }
+
+    static void uses(IMCExpr expr, HashMap<Integer,Integer> uses, int delta){
+        if(expr instanceof TEMP){
+            uses.merge(((TEMP)expr).name,delta,Integer::sum);
+        }else if(expr instanceof BINOP){
+            uses(((BINOP)expr).expr1,uses,delta);
+            uses(((BINOP)expr).expr2,uses,delta);
+        }else if(expr instanceof UNOP){
+            uses(((UNOP)expr).expr,uses,delta);
+        }else if(expr instanceof MEM){
+            uses(((MEM)expr).addr,uses,delta);
+        }else if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            for(int a=0; a<call.numArgs(); a++) uses(call.args(a),uses,delta);
+        }
+    }
+
+    private static boolean commutative(BINOP.Oper oper){
+        switch(oper){
+            case ADD:
+            case MUL:
+            case AND:
+            case OR:
+            case EQU:
+            case NEQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Optimization of the intermediate code.
+ */
+package compiler.phase.optimize;
@@ -0,0 +1,374 @@
+package compiler.phase.regalloc;
+
+import java.util.*;
+
+import compiler.common.report.*;
+import compiler.phase.codegen.*;
+
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+import compiler.data.asm.*;
+
+/**
+ * Register allocation of a single code fragment.
+ */
+class Allocator{
+
+    private final CodeFragment frag;
+    private final int regs;
+
+    private Liveness liveness;
+    private LinkedList<InterferenceNode> stack;
+
+    /** The results of calls */
+    private HashSet<TEMP> results;
+    /** The temporaries living across calls (and copies of the results) */
+    private HashSet<TEMP> crossCall;
+
+    /** The number of actual spills */
+    int spills;
+    /** The number of spills replaced by rematerialization */
+    int remats;
+
+    /** The number of full liveness analyses */
+    int rebuilds;
+    /** The number of incremental liveness updates */
+    int updates;
+
+    /** The number of calls */
+    int calls;
+    /** The number of registers saved by all calls */
+    int saved;
+
+    Allocator(CodeFragment frag, int regs){
+        this.frag = frag;
+        this.regs = regs;
+        this.liveness = null;
+        this.stack = null;
+        this.results = null;
+        this.crossCall = null;
+        this.spills = 0;
+        this.remats = 0;
+        this.rebuilds = 0;
+        this.updates = 0;
+        this.calls = 0;
+        this.saved = 0;
+    }
+
+    void allocate(){
+        liveness = new Liveness(frag);
+        rebuilds++;
+
+        do{
+            build();
+            stack = new LinkedList<InterferenceNode>();
+
+            do{
+                simplify();
+            }while(spill());
+
+        }while(select());
+
+        frag.registers = new HashMap<TEMP,String>();
+        frag.registers.put(new TEMP(frag.SP),"$254");
+        frag.registers.put(new TEMP(frag.FP),"$253");
+
+        for(InterferenceNode node : frag.graph){
+            frag.registers.put(node.tmp,"$"+node.reg);
+        }
+
+        // Liveness of the last round still describes the code, so
+        // the hole of each PUSHJ is put right above the registers of
+        // the temporaries that live across the call.
+        for(int i=0; i<frag.asmcode.size(); i++){
+            AsmInst inst = frag.asmcode.get(i);
+
+            if(inst.mnemonic.equals("PUSHJ")){
+                int hole = 0;
+
+                for(TEMP live : inst.out){
+                    if(inst.defs.contains(live)) continue;
+
+                    int register = Integer.parseInt(frag.registers.get(live).substring(1));
+                    if(register+1>hole) hole = register+1;
+                }
+
+                frag.registers.put(inst.defs.getFirst(),"$"+hole);
+                calls++;
+                saved += hole;
+
+                AsmInst next = i+1<frag.asmcode.size() ? frag.asmcode.get(i+1) : null;
+
+                if(next instanceof AsmMOVE && next.uses.getFirst().equals(inst.defs.getFirst()) &&
+                        frag.registers.get(next.defs.getFirst()).equals("$"+hole)){
+                    frag.asmcode.remove(i+1);
+                }
+            }
+        }
+    }
+
+    private void build(){
+        liveness.graph();
+
+        results = new HashSet<TEMP>();
+        crossCall = new HashSet<TEMP>();
+
+        for(int i=0; i<frag.asmcode.size(); i++){
+            AsmInst inst = frag.asmcode.get(i);
+
+            if(inst.mnemonic.equals("PUSHJ")){
+                results.addAll(inst.defs);
+
+                for(TEMP live : inst.out){
+                    if(!inst.defs.contains(live)) crossCall.add(live);
+                }
+
+                // The copy of the result is packed as well, so that it
+                // tends to land in the hole and the copy can be dropped.
+                AsmInst next = i+1<frag.asmcode.size() ? frag.asmcode.get(i+1) : null;
+                if(next instanceof AsmMOVE && next.uses.getFirst().equals(inst.defs.getFirst())){
+                    crossCall.addAll(next.defs);
+                }
+            }
+        }
+    }
+
+    private void simplify(){
+        boolean done = false;
+
+        while(!done){
+            done = true;
+
+            Iterator<InterferenceNode> iter = frag.graph.iterator();
+
+            while(iter.hasNext()){
+                InterferenceNode node = iter.next();
+
+                if(node.edges.size()<regs){
+                    done = false;
+
+                    stack.push(node);
+
+                    for(InterferenceNode edge : frag.graph){
+                        edge.edges.remove(node);
+                    }
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    private boolean spill(){
+        if(frag.graph.size()==0) return false;
+
+        InterferenceNode spill = null;
+        int length = 0;
+
+        for(InterferenceNode node : frag.graph){
+            int def = 0;
+
+            while(!frag.asmcode.get(def).defs.contains(node.tmp)) def++;
+
+            int use = frag.asmcode.size() - 1;
+
+            // A result that is never used has no live range to speak of.
+            while(use > def && !frag.asmcode.get(use).uses.contains(node.tmp)) use--;
+
+            if(use - def > length){
+                spill = node;
+                length = use - def;
+            }
+        }
+
+        frag.graph.remove(spill);
+        spill.spill = InterferenceNode.POTENTIAL_SPILL;
+        stack.push(spill);
+
+        for(InterferenceNode edge : spill.edges){
+            edge.edges.remove(spill);
+        }
+
+        return true;
+    }
+
+    private boolean select(){
+        boolean repeat = false;
+
+        while(stack.size()>0){
+            InterferenceNode node = stack.pop();
+            frag.graph.add(node);
+
+            int registers[] = new int[regs + 1];
+            boolean ok = false;
+
+            for(InterferenceNode edge : node.edges){
+                registers[edge.reg] = 1;
+            }
+
+            if(results.contains(node.tmp)){
+                // The result of a call gets the hole register once the
+                // registers of the temporaries living across it are known.
+                node.reg = regs;
+                ok = true;
+            }else if(crossCall.contains(node.tmp)){
+                // Everything below the hole is saved by PUSHJ, so values
+                // living across calls are packed into the lowest registers.
+                for(int i=0; i<regs; i++){
+                    if(registers[i]==0){
+                        node.reg = i;
+                        ok = true;
+                        break;
+                    }
+                }
+            }else{
+                for(int i=regs-1; i>=0; i--){
+                    if(registers[i]==0){
+                        node.reg = i;
+                        ok = true;
+                        break;
+                    }
+                }
+            }
+
+            if(!ok){
+                if(node.spill == InterferenceNode.POTENTIAL_SPILL){
+                    node.spill = InterferenceNode.ACTUAL_SPILL;
+                    repeat = true;
+                    break;
+                }else throw new CompilerError("Unable to allocate a register to "+node.tmp.name+".");
+            }
+        }
+
+        if(repeat) startOver();
+
+        return repeat;
+    }
+
+    private void startOver(){
+        LinkedList<TEMP> spilled = new LinkedList<TEMP>();
+        HashSet<AsmInst> changed = new HashSet<AsmInst>();
+
+        for(InterferenceNode node : frag.graph){
+            if(node.spill != InterferenceNode.ACTUAL_SPILL) continue;
+
+            spills++;
+            spilled.add(node.tmp);
+
+            AsmInst remat = rematerializable(node.tmp);
+            if(remat != null){
+                rematerialize(node.tmp,remat,changed);
+                remats++;
+                continue;
+            }
+
+            long offset = frag.frame.outCallSize + frag.frame.tmpVarsSize;
+            frag.frame.tmpVarsSize += 8;
+
+            // Every definition is stored into the slot and every use is loaded
+            // from it, each through a temporary of its own.
+            for(int i=frag.asmcode.size()-1; i>=0; i--){
+                AsmInst inst = frag.asmcode.get(i);
+                if(inst.defs.contains(node.tmp)){
+                    TEMP copy = replaceDefs(inst,node.tmp);
+                    AsmInst store = new AsmOPER("STO","`s0,`s1,"+offset,null,new LinkedList<TEMP>(Arrays.asList(copy,new TEMP(frag.SP))));
+                    frag.asmcode.add(i+1,store);
+                    changed.add(inst);
+                    changed.add(store);
+                }
+                if(inst.uses.contains(node.tmp)){
+                    TEMP copy = replaceUses(inst,node.tmp);
+                    AsmInst load = new AsmOPER("LDO","`d0,`s0,"+offset,new LinkedList<TEMP>(Arrays.asList(copy)),new LinkedList<TEMP>(Arrays.asList(new TEMP(frag.SP))));
+                    frag.asmcode.add(i,load);
+                    changed.add(inst);
+                    changed.add(load);
+                }
+            }
+        }
+
+        liveness.update(spilled,changed);
+        updates++;
+    }
+
+    /**
+     * Returns the only instruction defining the temporary if it can be
+     * recomputed at any point of the function, i.e., a constant, an address of
+     * a label or an offset from FP or SP; otherwise returns null.
+     */
+    private AsmInst rematerializable(TEMP tmp){
+        AsmInst def = null;
+
+        for(AsmInst inst : frag.asmcode){
+            if(inst.defs.contains(tmp)){
+                if(def != null) return null;
+                def = inst;
+            }
+        }
+
+        if(def == null || def.defs.size() != 1) return null;
+        if(def.mnemonic.startsWith("LD") || def.mnemonic.equals("PUSHJ") || def.mnemonic.equals("GET") ||
+                def.mnemonic.equals("ENTRY")) return null;
+
+        for(TEMP use : def.uses){
+            if(use.name != frag.FP && use.name != frag.SP) return null;
+        }
+
+        return def;
+    }
+
+    /**
+     * Removes the definition of the temporary and recomputes its value into a
+     * new temporary right before each of its uses.
+     */
+    private void rematerialize(TEMP tmp, AsmInst def, HashSet<AsmInst> changed){
+        int index = frag.asmcode.indexOf(def);
+        frag.asmcode.remove(index);
+        if(index<frag.asmcode.size()) changed.add(frag.asmcode.get(index));
+
+        for(int i=frag.asmcode.size()-1; i>=0; i--){
+            AsmInst inst = frag.asmcode.get(i);
+            if(!inst.uses.contains(tmp)) continue;
+
+            TEMP copy = replaceUses(inst,tmp);
+            AsmInst recompute = null;
+
+            if(def instanceof AsmMOVE){
+                recompute = new AsmMOVE(def.mnemonic,def.assem,copy,def.uses.getFirst());
+            }else{
+                recompute = new AsmOPER(def.mnemonic,def.assem,new LinkedList<TEMP>(Arrays.asList(copy)),
+                            new LinkedList<TEMP>(def.uses),new LinkedList<LABEL>(def.labels));
+            }
+
+            frag.asmcode.add(i,recompute);
+            changed.add(inst);
+            changed.add(recompute);
+        }
+    }
+
+    /**
+     * Replaces the definitions of the temporary in the instruction with a new
+     * temporary and returns it.
+     */
+    private TEMP replaceDefs(AsmInst inst, TEMP tmp){
+        TEMP copy = new TEMP(TEMP.newTempName());
+
+        for(int j=0; j<inst.defs.size(); j++){
+            if(inst.defs.get(j).equals(tmp)) inst.defs.set(j,copy);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Replaces the uses of the temporary in the instruction with a new
+     * temporary and returns it.
+     */
+    private TEMP replaceUses(AsmInst inst, TEMP tmp){
+        TEMP copy = new TEMP(TEMP.newTempName());
+
+        for(int j=0; j<inst.uses.size(); j++){
+            if(inst.uses.get(j).equals(tmp)) inst.uses.set(j,copy);
+        }
+
+        return copy;
+    }
+}
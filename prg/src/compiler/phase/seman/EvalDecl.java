@@ -49,9 +49,41 @@ public class EvalDecl extends FullVisitor {
                 binExpr.sndExpr.accept(this);
                 symbolTable.leaveNamespace();
             }
+        }else if(binExpr.oper == BinExpr.Oper.REC && type(binExpr.fstExpr) instanceof TypeName){
+            // A component of a dereferenced pointer or of an array element.
+            if(iteration==2){
+                symbolTable.enterNamespace(((TypeName)type(binExpr.fstExpr)).name());
+                binExpr.sndExpr.accept(this);
+                symbolTable.leaveNamespace();
+            }
         }else binExpr.sndExpr.accept(this);
     }
 
+    /**
+     * Returns the declared type of a name, of a dereferenced pointer, of an
+     * array element or of a record component, or null if it is not known yet.
+     */
+    private Type type(Expr expr){
+        if(expr instanceof VarName){
+            Decl decl = attrs.declAttr.get((VarName)expr);
+            return decl == null ? null : decl.type;
+        }
+        if(expr instanceof UnExpr && ((UnExpr)expr).oper == UnExpr.Oper.VAL){
+            Type type = type(((UnExpr)expr).subExpr);
+            return type instanceof PtrType ? ((PtrType)type).baseType : null;
+        }
+        if(expr instanceof BinExpr && ((BinExpr)expr).oper == BinExpr.Oper.ARR){
+            Type type = type(((BinExpr)expr).fstExpr);
+            return type instanceof ArrType ? ((ArrType)type).elemType : null;
+        }
+        if(expr instanceof BinExpr && ((BinExpr)expr).oper == BinExpr.Oper.REC){
+            if(!(((BinExpr)expr).sndExpr instanceof CompName)) return null;
+            Decl decl = attrs.declAttr.get((CompName)((BinExpr)expr).sndExpr);
+            return decl == null ? null : decl.type;
+        }
+        return null;
+    }
+
     @Override
     public void visit(CompDecl compDecl){
         if(compDecl.type instanceof RecType){
@@ -106,15 +138,21 @@ public class EvalDecl extends FullVisitor {
 
     @Override
     public void visit(FunDef funDef){
-        symbolTable.enterScope();
-        for (int p = 0; p < funDef.numPars(); p++)
-            funDef.par(p).accept(this);
+        // The parameters are only visible in the body, which is resolved in
+        // the second iteration.
         int tmp = iteration;
-        if(iteration==2)
+        if(iteration==2){
+            symbolTable.enterScope();
+            for (int p = 0; p < funDef.numPars(); p++){
+                iteration = 1;
+                funDef.par(p).accept(this);
+                iteration = 2;
+                funDef.par(p).accept(this);
+            }
             funDef.body.accept(this);
-        iteration = tmp;
-        if(iteration==2)
             symbolTable.leaveScope();
+        }
+        iteration = tmp;
         funDef.type.accept(this);
         try{
             if(iteration==1)
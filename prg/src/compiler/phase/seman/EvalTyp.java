@@ -1,5 +1,6 @@
 package compiler.phase.seman;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 
 import compiler.common.report.*;
@@ -34,6 +35,20 @@ public class EvalTyp extends FullVisitor {
     /** The symbol table. */
     private SymbolTable symbolTable = new SymbolTable();
 
+    /** The type names of type declarations, shared by all their uses. */
+    private final HashMap<TypeDecl, TypName> typNames = new HashMap<TypeDecl, TypName>();
+
+    /**
+     * Returns the type name of a type declaration. It is created before the
+     * declared type is evaluated, so that the type can refer to itself.
+     */
+    private TypName typName(TypeDecl typDecl) {
+        TypName typName = typNames.get(typDecl);
+        if (typName == null)
+            typNames.put(typDecl, typName = new TypName(typDecl.name));
+        return typName;
+    }
+
     public void visit(ArrType arrType) {
         arrType.size.accept(this);
         arrType.elemType.accept(this);
@@ -291,9 +306,9 @@ public class EvalTyp extends FullVisitor {
 
     public void visit(TypeDecl typDecl) {
         if(iteration==0){
+            TypName typName = typName(typDecl);
             typDecl.type.accept(this);
             Typ typ = attrs.typAttr.get(typDecl.type);
-            TypName typName = new TypName(typDecl.name);
             typName.setType(typ);
             attrs.typAttr.set(typDecl,typName);
         }
@@ -304,6 +319,10 @@ public class EvalTyp extends FullVisitor {
 
     public void visit(TypeName typeName) {
         Decl decl = attrs.declAttr.get(typeName);
+        if(decl instanceof TypeDecl){
+            attrs.typAttr.set(typeName,typName((TypeDecl)decl));
+            return;
+        }
         TypName typName = new TypName(typeName.name());
         if(decl!=null)typName.setType(attrs.typAttr.get(decl.type));
         attrs.typAttr.set(typeName,typName);
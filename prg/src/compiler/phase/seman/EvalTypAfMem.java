@@ -23,7 +23,7 @@ public class EvalTypAfMem extends FullVisitor{
         //if(fst!=null && snd!=null && attrs.memAttr.get(binExpr.fstExpr) &&
                     //Typ.equiv(fst,snd) && binExpr.oper==BinExpr.Oper.ASSIGN)
             //attrs.typAttr.set(binExpr,new VoidTyp());
-        if(snd instanceof AssignableTyp && attrs.memAttr.get(binExpr.fstExpr) &&
+        if(snd != null && snd.actualTyp() instanceof AssignableTyp && attrs.memAttr.get(binExpr.fstExpr) &&
                 Typ.equiv(fst,snd) && binExpr.oper==BinExpr.Oper.ASSIGN)
             attrs.typAttr.set(binExpr,new VoidTyp());
     }
@@ -60,6 +60,37 @@ public class EvalTypAfMem extends FullVisitor{
             attrs.typAttr.set(forExpr,new VoidTyp());
     }
 
+    @Override
+    public void visit(FunDecl funDecl){
+        super.visit(funDecl);
+        checkSignature(funDecl);
+    }
+
+    @Override
+    public void visit(FunDef funDef){
+        super.visit(funDef);
+        checkSignature(funDef);
+    }
+
+    /**
+     * Checks that the parameters and the result of a function fit into an
+     * octa. Records and arrays have to be passed and returned by pointer, as
+     * calls move every argument and the result as a single octa.
+     */
+    private void checkSignature(FunDecl funDecl){
+        for(int p=0; p<funDecl.numPars(); p++){
+            ParDecl parDecl = funDecl.par(p);
+            Typ typ = attrs.typAttr.get(parDecl);
+            if(typ != null && !(typ.actualTyp() instanceof PassableTyp))
+                throw new CompilerError(parDecl+" Parameter '"+parDecl.name+"' of function '"+funDecl.name+
+                        "' cannot be a record or an array, use a pointer.");
+        }
+        Typ typ = attrs.typAttr.get(funDecl.type);
+        if(typ != null && !(typ.actualTyp() instanceof ReturnableTyp))
+            throw new CompilerError(funDecl+" Function '"+funDecl.name+
+                    "' cannot return a record or an array, use a pointer.");
+    }
+
     @Override
     public void visit(IfExpr ifExpr) {
         ifExpr.cond.accept(this);
@@ -0,0 +1,59 @@
+package compiler.phase.ssa;
+
+import java.util.*;
+
+import compiler.data.imc.*;
+
+/**
+ * A basic block of the linearized intermediate code in static single
+ * assignment form.
+ */
+class Block{
+
+    /** The labels the block starts with. */
+    final LinkedList<String> labels;
+    /** The statements between the labels and the jump. */
+    Vector<IMCStmt> body;
+    /** The jump ending the block, or null if it falls through. */
+    IMCStmt jump;
+
+    final ArrayList<Block> succs;
+    final ArrayList<Block> preds;
+
+    /** The phi functions, with an argument for each predecessor. */
+    final LinkedList<Phi> phis;
+
+    /** The number of the block in reverse postorder. */
+    int order;
+    /** The immediate dominator. */
+    Block idom;
+    /** The blocks immediately dominated by this one. */
+    final LinkedList<Block> children;
+    /** The dominance frontier. */
+    final LinkedHashSet<Block> frontier;
+
+    Block(){
+        this.labels = new LinkedList<String>();
+        this.body = new Vector<IMCStmt>();
+        this.jump = null;
+        this.succs = new ArrayList<Block>();
+        this.preds = new ArrayList<Block>();
+        this.phis = new LinkedList<Phi>();
+        this.order = -1;
+        this.idom = null;
+        this.children = new LinkedList<Block>();
+        this.frontier = new LinkedHashSet<Block>();
+    }
+
+    /**
+     * Returns the label the block is entered by from a predecessor.
+     */
+    String label(Block pred){
+        if(pred.jump instanceof JUMP) return ((JUMP)pred.jump).label;
+        if(pred.jump instanceof CJUMP){
+            CJUMP cjump = (CJUMP)pred.jump;
+            return labels.contains(cjump.posLabel) ? cjump.posLabel : cjump.negLabel;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,260 @@
+package compiler.phase.ssa;
+
+import java.util.*;
+
+import compiler.data.imc.*;
+import compiler.phase.optimize.*;
+
+/**
+ * Sparse conditional constant propagation.
+ *
+ * <p>
+ * Every temporary starts out unknown and only goes down to a constant and
+ * then to varying. A block is only evaluated once an edge into it is known
+ * to be taken, and the phi functions only meet the arguments of such edges,
+ * so a temporary that is only changed on a branch that is never taken stays
+ * constant, even around a loop. The expressions are evaluated by constant
+ * folding.
+ * </p>
+ */
+class ConstantPropagation{
+
+    /** The number of uses replaced by constants. */
+    int constants;
+    /** The number of conditional jumps replaced by jumps. */
+    int jumps;
+
+    private final SsaForm form;
+
+    /** The constant value of each temporary known to be constant. */
+    private final HashMap<Integer,Long> values;
+    /** The temporaries known to vary. */
+    private final HashSet<Integer> varying;
+
+    /** The edges known to be taken, by the index of the predecessor. */
+    private final HashMap<Block,BitSet> executable;
+
+    /** The blocks using each temporary. */
+    private final HashMap<Integer,LinkedHashSet<Block>> users;
+
+    private final LinkedList<Block> work;
+    private final HashSet<Block> queued;
+
+    ConstantPropagation(SsaForm form){
+        this.form = form;
+        this.constants = 0;
+        this.jumps = 0;
+        this.values = new HashMap<Integer,Long>();
+        this.varying = new HashSet<Integer>();
+        this.executable = new HashMap<Block,BitSet>();
+        this.users = new HashMap<Integer,LinkedHashSet<Block>>();
+        this.work = new LinkedList<Block>();
+        this.queued = new HashSet<Block>();
+    }
+
+    /**
+     * Finds the constant temporaries and the edges taken, then replaces the
+     * constants and removes the rest.
+     */
+    void propagate(){
+        for(Block block : form.blocks){
+            for(Phi phi : block.phis){
+                for(IMCExpr arg : phi.args) SsaForm.uses(arg,name -> use(name,block));
+            }
+            for(IMCStmt stmt : block.body) SsaForm.uses(stmt,name -> use(name,block));
+            if(block.jump != null) SsaForm.uses(block.jump,name -> use(name,block));
+        }
+
+        executable.put(form.entry,new BitSet());
+        enqueue(form.entry);
+        while(!work.isEmpty()){
+            Block block = work.removeFirst();
+            queued.remove(block);
+            evaluate(block);
+        }
+
+        rewrite();
+    }
+
+    private void use(int name, Block block){
+        users.computeIfAbsent(name,k -> new LinkedHashSet<Block>()).add(block);
+    }
+
+    private void enqueue(Block block){
+        if(queued.add(block)) work.add(block);
+    }
+
+    private void evaluate(Block block){
+        BitSet taken = executable.get(block);
+        for(Phi phi : block.phis){
+            Long value = null;
+            boolean varies = false;
+            for(int k=0; k<phi.args.length && !varies; k++){
+                if(!taken.get(k)) continue;
+                if(bottom(phi.args[k])){
+                    varies = true;
+                }else{
+                    Long arg = constant(phi.args[k]);
+                    if(arg == null) continue;
+                    if(value != null && !value.equals(arg)) varies = true;
+                    value = arg;
+                }
+            }
+            lower(phi.dst.name,value,varies);
+        }
+
+        for(IMCStmt stmt : block.body){
+            Integer def = SsaForm.def(stmt);
+            if(def == null || !form.renamed(def)) continue;
+            IMCExpr src = ((MOVE)stmt).src;
+            if(unknown(src)) continue;
+            Long value = evaluate(src);
+            lower(def,value,value == null);
+        }
+
+        if(block.jump instanceof CJUMP){
+            CJUMP cjump = (CJUMP)block.jump;
+            if(unknown(cjump.cond)) return;
+            Long cond = evaluate(cjump.cond);
+            if(cond == null || cond != 0) take(block,form.block(cjump.posLabel));
+            if(cond == null || cond == 0) take(block,form.block(cjump.negLabel));
+        }else{
+            for(Block succ : block.succs) take(block,succ);
+        }
+    }
+
+    private void take(Block from, Block to){
+        int k = to.preds.indexOf(from);
+        BitSet taken = executable.get(to);
+        if(taken == null){
+            taken = new BitSet();
+            executable.put(to,taken);
+        }else if(taken.get(k)){
+            return;
+        }
+        taken.set(k);
+        enqueue(to);
+    }
+
+    /**
+     * Moves a temporary down to a constant or to varying, and evaluates the
+     * blocks using it again.
+     */
+    private void lower(int name, Long value, boolean varies){
+        if(varying.contains(name)) return;
+        Long old = values.get(name);
+        if(!varies && (value == null || value.equals(old))) return;
+        if(varies || old != null){
+            values.remove(name);
+            varying.add(name);
+        }else{
+            values.put(name,value);
+        }
+        LinkedHashSet<Block> blocks = users.get(name);
+        if(blocks == null) return;
+        for(Block block : blocks){
+            if(executable.containsKey(block)) enqueue(block);
+        }
+    }
+
+    /**
+     * Returns true if an expression uses a temporary whose value is not
+     * known yet.
+     */
+    private boolean unknown(IMCExpr expr){
+        boolean[] unknown = {false};
+        SsaForm.uses(expr,name -> unknown[0] |= form.renamed(name) && !values.containsKey(name) && !varying.contains(name));
+        return unknown[0];
+    }
+
+    private boolean bottom(IMCExpr expr){
+        return !unknown(expr) && constant(expr) == null;
+    }
+
+    /**
+     * Returns the value of an argument of a phi function, or null if it is
+     * not known or varies.
+     */
+    private Long constant(IMCExpr expr){
+        if(expr instanceof CONST) return ((CONST)expr).value;
+        if(expr instanceof TEMP) return values.get(((TEMP)expr).name);
+        return null;
+    }
+
+    /**
+     * Returns the constant value of an expression whose temporaries are all
+     * known, or null if it varies.
+     */
+    private Long evaluate(IMCExpr expr){
+        if(!(expr instanceof CONST || expr instanceof TEMP || expr instanceof BINOP || expr instanceof UNOP)) return null;
+        IMCExpr folded = new Fold().fold(form.substitute(expr,name -> {
+            Long value = values.get(name);
+            return value == null ? null : new CONST(value);
+        }));
+        return folded instanceof CONST ? ((CONST)folded).value : null;
+    }
+
+    /**
+     * Removes the blocks and edges never taken and replaces the constant
+     * temporaries by their values.
+     */
+    private void rewrite(){
+        for(Block block : form.blocks){
+            BitSet taken = executable.get(block);
+            if(taken == null) continue;
+            for(Block pred : new ArrayList<Block>(block.preds)){
+                int k = block.preds.indexOf(pred);
+                if(taken.get(k)) continue;
+                // Keep the indices of the remaining edges in step.
+                BitSet shifted = new BitSet();
+                for(int i=0; i<block.preds.size(); i++){
+                    if(taken.get(i)) shifted.set(i < k ? i : i-1);
+                }
+                taken = shifted;
+                executable.put(block,taken);
+                form.removeEdge(pred,block);
+            }
+        }
+        for(Block block : new ArrayList<Block>(form.blocks)){
+            if(!executable.containsKey(block)) form.removeBlock(block);
+        }
+
+        for(Block block : form.blocks){
+            for(Phi phi : block.phis){
+                for(int k=0; k<phi.args.length; k++) phi.args[k] = replace(phi.args[k]);
+            }
+            Vector<IMCStmt> body = new Vector<IMCStmt>();
+            for(IMCStmt stmt : block.body){
+                IMCStmt replaced = form.substitute(stmt,this::value);
+                if(replaced != stmt && replaced instanceof MOVE &&
+                        (((MOVE)replaced).src instanceof BINOP || ((MOVE)replaced).src instanceof UNOP)){
+                    MOVE move = (MOVE)replaced;
+                    replaced = new MOVE(move.dst,new Fold().fold(move.src));
+                }
+                body.add(replaced);
+            }
+            block.body = body;
+
+            if(block.jump instanceof CJUMP){
+                CJUMP cjump = (CJUMP)block.jump;
+                if(block.succs.size() == 1){
+                    block.jump = new JUMP(block.succs.get(0).label(block));
+                    jumps++;
+                }else{
+                    block.jump = form.substitute(cjump,this::value);
+                }
+            }
+        }
+    }
+
+    private IMCExpr replace(IMCExpr expr){
+        return form.substitute(expr,this::value);
+    }
+
+    private IMCExpr value(int name){
+        Long value = values.get(name);
+        if(value == null) return null;
+        constants++;
+        return new CONST(value);
+    }
+}
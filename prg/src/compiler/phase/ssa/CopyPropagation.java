@@ -0,0 +1,97 @@
+package compiler.phase.ssa;
+
+import java.util.*;
+
+import compiler.data.imc.*;
+
+/**
+ * Copy propagation. A temporary that is a copy of another one, or a phi
+ * function whose arguments are all the same apart from itself, is replaced
+ * by the original everywhere. The moves and phi functions left unused are
+ * removed with the dead code.
+ */
+class CopyPropagation{
+
+    /** The number of uses replaced by the originals. */
+    int copies;
+
+    private final SsaForm form;
+
+    /** The original of each copy. */
+    private final HashMap<Integer,IMCExpr> originals;
+
+    CopyPropagation(SsaForm form){
+        this.form = form;
+        this.copies = 0;
+        this.originals = new HashMap<Integer,IMCExpr>();
+    }
+
+    void propagate(){
+        for(Block block : form.blocks){
+            for(IMCStmt stmt : block.body){
+                Integer def = SsaForm.def(stmt);
+                if(def == null || !form.renamed(def)) continue;
+                IMCExpr src = ((MOVE)stmt).src;
+                if(src instanceof CONST || src instanceof TEMP && form.fixed(((TEMP)src).name)) originals.put(def,src);
+            }
+        }
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(Block block : form.blocks){
+                for(Phi phi : block.phis){
+                    if(originals.containsKey(phi.dst.name)) continue;
+                    IMCExpr same = null;
+                    boolean unique = true;
+                    for(IMCExpr arg : phi.args){
+                        arg = original(arg);
+                        if(arg instanceof TEMP && ((TEMP)arg).name == phi.dst.name) continue;
+                        if(same == null) same = arg;
+                        else unique &= equal(same,arg);
+                    }
+                    if(same != null && unique){
+                        originals.put(phi.dst.name,same);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        if(originals.isEmpty()) return;
+
+        for(Block block : form.blocks){
+            for(Phi phi : block.phis){
+                for(int k=0; k<phi.args.length; k++) phi.args[k] = form.substitute(phi.args[k],this::value);
+            }
+            Vector<IMCStmt> body = new Vector<IMCStmt>();
+            for(IMCStmt stmt : block.body) body.add(form.substitute(stmt,this::value));
+            block.body = body;
+            if(block.jump != null) block.jump = form.substitute(block.jump,this::value);
+        }
+    }
+
+    /**
+     * Returns the original of an expression following the chain of copies.
+     */
+    private IMCExpr original(IMCExpr expr){
+        for(int steps=0; expr instanceof TEMP && originals.containsKey(((TEMP)expr).name); steps++){
+            // The copies only go around in a cycle in unreachable code.
+            if(steps > originals.size()) break;
+            expr = originals.get(((TEMP)expr).name);
+        }
+        return expr;
+    }
+
+    private boolean equal(IMCExpr expr1, IMCExpr expr2){
+        if(expr1 instanceof CONST && expr2 instanceof CONST) return ((CONST)expr1).value == ((CONST)expr2).value;
+        if(expr1 instanceof TEMP && expr2 instanceof TEMP) return ((TEMP)expr1).name == ((TEMP)expr2).name;
+        return false;
+    }
+
+    private IMCExpr value(int name){
+        if(!originals.containsKey(name)) return null;
+        copies++;
+        IMCExpr original = original(new TEMP(name));
+        return original instanceof CONST ? new CONST(((CONST)original).value) : new TEMP(((TEMP)original).name);
+    }
+}
@@ -0,0 +1,76 @@
+package compiler.phase.ssa;
+
+import java.util.*;
+
+import compiler.data.imc.*;
+
+/**
+ * Dead code elimination. Starting from the statements with side effects and
+ * the jumps, the definitions of the temporaries they use are marked live,
+ * and so on. The moves and phi functions left unmarked are removed, even if
+ * they only keep each other alive around a loop.
+ */
+class DeadCode{
+
+    /** The number of removed statements. */
+    int statements;
+    /** The number of removed phi functions. */
+    int phis;
+
+    private final SsaForm form;
+
+    DeadCode(SsaForm form){
+        this.form = form;
+        this.statements = 0;
+        this.phis = 0;
+    }
+
+    void eliminate(){
+        // The definition of each new temporary: a phi function or a move.
+        HashMap<Integer,Object> defs = new HashMap<Integer,Object>();
+        LinkedList<Integer> work = new LinkedList<Integer>();
+        for(Block block : form.blocks){
+            for(Phi phi : block.phis) defs.put(phi.dst.name,phi);
+            for(IMCStmt stmt : block.body){
+                if(removable(stmt)) defs.put(SsaForm.def(stmt),stmt);
+                else SsaForm.uses(stmt,work::add);
+            }
+            if(block.jump != null) SsaForm.uses(block.jump,work::add);
+        }
+
+        HashSet<Integer> live = new HashSet<Integer>();
+        while(!work.isEmpty()){
+            int name = work.removeFirst();
+            if(!live.add(name)) continue;
+            Object def = defs.get(name);
+            if(def instanceof Phi){
+                for(IMCExpr arg : ((Phi)def).args) SsaForm.uses(arg,work::add);
+            }else if(def instanceof IMCStmt){
+                SsaForm.uses((IMCStmt)def,work::add);
+            }
+        }
+
+        for(Block block : form.blocks){
+            Iterator<Phi> phi = block.phis.iterator();
+            while(phi.hasNext()){
+                if(live.contains(phi.next().dst.name)) continue;
+                phi.remove();
+                phis++;
+            }
+            Vector<IMCStmt> body = new Vector<IMCStmt>();
+            for(IMCStmt stmt : block.body){
+                if(removable(stmt) && !live.contains(SsaForm.def(stmt))) statements++;
+                else body.add(stmt);
+            }
+            block.body = body;
+        }
+    }
+
+    /**
+     * Returns true if a statement only defines a new temporary.
+     */
+    private boolean removable(IMCStmt stmt){
+        Integer def = SsaForm.def(stmt);
+        return def != null && form.renamed(def) && SsaForm.pure(((MOVE)stmt).src);
+    }
+}
@@ -0,0 +1,23 @@
+package compiler.phase.ssa;
+
+import compiler.data.imc.*;
+
+/**
+ * A phi function: a temporary takes the value of the argument belonging to
+ * the predecessor the block has been entered from.
+ */
+class Phi{
+
+    /** The temporary of the original code. */
+    final int var;
+    /** The new temporary defined. */
+    TEMP dst;
+    /** The arguments, one for each predecessor of the block. */
+    IMCExpr[] args;
+
+    Phi(int var, int preds){
+        this.var = var;
+        this.dst = new TEMP(var);
+        this.args = new IMCExpr[preds];
+    }
+}
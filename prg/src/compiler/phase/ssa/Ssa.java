@@ -0,0 +1,104 @@
+package compiler.phase.ssa;
+
+import compiler.*;
+import compiler.common.report.*;
+import compiler.phase.*;
+
+import compiler.data.frg.*;
+
+/**
+ * Optimization of the linearized intermediate code in static single
+ * assignment form: sparse conditional constant propagation, copy propagation
+ * and dead code elimination. The form is destroyed again before the code is
+ * generated. Performed only if it has been requested by --optimize.
+ */
+public class Ssa extends Phase{
+
+    private Task task;
+
+    /** The number of phi functions placed */
+    private int phis;
+    /** The number of uses replaced by constants */
+    private int constants;
+    /** The number of conditional jumps on constants */
+    private int jumps;
+    /** The number of statements in unreachable blocks */
+    private int unreachable;
+    /** The number of uses of copies replaced by the originals */
+    private int copies;
+    /** The number of removed dead statements */
+    private int statements;
+    /** The number of moves inserted for the phi functions */
+    private int moves;
+
+    public Ssa(Task task){
+        super(task,"ssa");
+
+        this.task = task;
+        this.phis = 0;
+        this.constants = 0;
+        this.jumps = 0;
+        this.unreachable = 0;
+        this.copies = 0;
+        this.statements = 0;
+        this.moves = 0;
+    }
+
+    /**
+     * Builds the static single assignment form of every code fragment,
+     * optimizes it and replaces the phi functions by moves.
+     */
+    public void optimize(){
+        if(task.optimizations.indexOf("ssa") == -1) return;
+
+        forEachCodeFragment(frag -> {
+            if(frag.linCode == null) return;
+            SsaForm form = new SsaForm(frag);
+            ConstantPropagation constants = new ConstantPropagation(form);
+            constants.propagate();
+            CopyPropagation copies = new CopyPropagation(form);
+            copies.propagate();
+            DeadCode dead = new DeadCode(form);
+            dead.eliminate();
+            frag.linCode = form.destruct();
+            count(form,constants,copies,dead);
+        });
+    }
+
+    private synchronized void count(SsaForm form, ConstantPropagation constants, CopyPropagation copies, DeadCode dead){
+        this.phis += form.phis;
+        this.constants += constants.constants;
+        this.jumps += constants.jumps;
+        this.unreachable += form.unreachable;
+        this.copies += copies.copies;
+        this.statements += dead.statements;
+        this.moves += form.moves;
+    }
+
+    @Override
+    public void close(){
+        if(task.stats){
+            Report.info("Placed "+phis+" phi functions.");
+            Report.info("Constant propagation replaced "+constants+" uses, decided "+jumps+
+                    " conditions and removed "+unreachable+" unreachable statements.");
+            Report.info("Copy propagation replaced "+copies+" uses and "+statements+" dead statements were removed.");
+            Report.info("Inserted "+moves+" moves for the phi functions.");
+        }
+        if(logger != null){
+            logger.begElement("stats");
+            logger.addAttribute("phis",""+phis);
+            logger.addAttribute("constants",""+constants);
+            logger.addAttribute("jumps",""+jumps);
+            logger.addAttribute("unreachable",""+unreachable);
+            logger.addAttribute("copies",""+copies);
+            logger.addAttribute("statements",""+statements);
+            logger.addAttribute("moves",""+moves);
+            logger.endElement();
+
+            for(Fragment tmp : task.fragments.values()){
+                if(tmp instanceof CodeFragment && ((CodeFragment)tmp).linCode != null) tmp.toXML(logger);
+            }
+        }
+        super.close();
+    }
+}
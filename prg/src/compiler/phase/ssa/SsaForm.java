@@ -0,0 +1,704 @@
+package compiler.phase.ssa;
+
+import java.util.*;
+import java.util.function.*;
+
+import compiler.common.report.*;
+import compiler.data.frg.*;
+import compiler.data.imc.*;
+
+/**
+ * The linearized intermediate code of a code fragment in static single
+ * assignment form.
+ *
+ * <p>
+ * The phi functions are placed at the iterated dominance frontiers of the
+ * definitions, but only for the temporaries used in some block before they
+ * are defined there. Every definition then gets a new temporary. The frame
+ * pointer, the stack pointer and the result register are left alone. A use
+ * that no definition reaches keeps the original temporary.
+ * </p>
+ *
+ * <p>
+ * The form is destroyed by moving the arguments of the phi functions at the
+ * ends of the predecessors. A critical edge is split first, unless the
+ * temporaries moved into are dead on the other edge. The moves of each edge
+ * are done as if at once, so neither a value still needed on another edge nor
+ * the argument of another phi function is overwritten. An argument used only
+ * by its move is computed right into the temporary of the phi function.
+ * </p>
+ */
+class SsaForm{
+
+    /** The number of phi functions placed. */
+    int phis;
+    /** The number of moves inserted for the phi functions. */
+    int moves;
+    /** The number of statements in unreachable blocks. */
+    int unreachable;
+
+    final CodeFragment frag;
+
+    /** The blocks in the order of the code, the entry first. */
+    final ArrayList<Block> blocks;
+    final Block entry;
+
+    /** The temporary of the original code each new temporary stands for. */
+    final HashMap<Integer,Integer> origins;
+
+    /** The block of each label. */
+    private final HashMap<String,Block> labels;
+
+    /** The new temporaries currently defined for each original one. */
+    private final HashMap<Integer,LinkedList<Integer>> stacks;
+
+    SsaForm(CodeFragment frag){
+        this.frag = frag;
+        this.phis = 0;
+        this.moves = 0;
+        this.unreachable = 0;
+        this.blocks = new ArrayList<Block>();
+        this.entry = new Block();
+        this.origins = new HashMap<Integer,Integer>();
+        this.labels = new HashMap<String,Block>();
+        this.stacks = new HashMap<Integer,LinkedList<Integer>>();
+
+        blocks(frag.linCode.stmts());
+        reachable();
+        dominators();
+        phis();
+        rename(entry);
+    }
+
+    /**
+     * Returns true if a temporary is defined exactly once by the form.
+     */
+    boolean renamed(int name){
+        return origins.containsKey(name);
+    }
+
+    /**
+     * Returns true if a temporary keeps its value throughout the function:
+     * all but the stack pointer and the result register, as every other
+     * definition has got a new temporary.
+     */
+    boolean fixed(int name){
+        return name != frag.SP && name != frag.RV;
+    }
+
+    /**
+     * Splits the statements into basic blocks. The entry block is empty and
+     * is never jumped to, so the code can start with a loop.
+     */
+    private void blocks(List<IMCStmt> stmts){
+        blocks.add(entry);
+        Block block = entry;
+        for(IMCStmt stmt : stmts){
+            if(stmt instanceof LABEL){
+                if(block == null || block == entry || !block.body.isEmpty()){
+                    block = new Block();
+                    blocks.add(block);
+                }
+                block.labels.add(((LABEL)stmt).label);
+                labels.put(((LABEL)stmt).label,block);
+                continue;
+            }
+            if(block == null){
+                block = new Block();
+                blocks.add(block);
+            }
+            if(stmt instanceof JUMP || stmt instanceof CJUMP){
+                block.jump = stmt;
+                block = null;
+            }else{
+                block.body.add(stmt);
+            }
+        }
+
+        for(int b=0; b<blocks.size(); b++){
+            Block from = blocks.get(b);
+            if(from.jump instanceof JUMP){
+                edge(from,labels.get(((JUMP)from.jump).label));
+            }else if(from.jump instanceof CJUMP){
+                CJUMP cjump = (CJUMP)from.jump;
+                if(labels.get(cjump.posLabel) == labels.get(cjump.negLabel)) from.jump = new JUMP(cjump.posLabel);
+                edge(from,labels.get(cjump.posLabel));
+                if(from.jump instanceof CJUMP) edge(from,labels.get(cjump.negLabel));
+            }else if(b+1 < blocks.size()){
+                edge(from,blocks.get(b+1));
+            }
+        }
+    }
+
+    private void edge(Block from, Block to){
+        if(to == null) return;
+        from.succs.add(to);
+        to.preds.add(from);
+    }
+
+    /**
+     * Removes an edge together with the arguments of the phi functions for
+     * it.
+     */
+    void removeEdge(Block from, Block to){
+        int k = to.preds.indexOf(from);
+        to.preds.remove(k);
+        from.succs.remove(to);
+        for(Phi phi : to.phis){
+            IMCExpr[] args = new IMCExpr[phi.args.length-1];
+            for(int i=0; i<args.length; i++) args[i] = phi.args[i < k ? i : i+1];
+            phi.args = args;
+        }
+    }
+
+    /**
+     * Removes a block that is no longer reached.
+     */
+    void removeBlock(Block block){
+        for(Block succ : new ArrayList<Block>(block.succs)) removeEdge(block,succ);
+        for(Block pred : new ArrayList<Block>(block.preds)) removeEdge(pred,block);
+        for(String label : block.labels) labels.remove(label);
+        blocks.remove(block);
+        unreachable += block.body.size() + (block.jump == null ? 0 : 1);
+    }
+
+    /**
+     * Removes the blocks not reached from the entry and numbers the others
+     * in reverse postorder.
+     */
+    private void reachable(){
+        LinkedList<Block> postorder = new LinkedList<Block>();
+        HashSet<Block> visited = new HashSet<Block>();
+        LinkedList<Block> path = new LinkedList<Block>();
+        LinkedList<Integer> next = new LinkedList<Integer>();
+        visited.add(entry);
+        path.push(entry);
+        next.push(0);
+        while(!path.isEmpty()){
+            Block block = path.peek();
+            int s = next.pop();
+            if(s < block.succs.size()){
+                next.push(s+1);
+                Block succ = block.succs.get(s);
+                if(visited.add(succ)){
+                    path.push(succ);
+                    next.push(0);
+                }
+            }else{
+                path.pop();
+                postorder.addFirst(block);
+            }
+        }
+
+        for(Block block : new ArrayList<Block>(blocks)){
+            if(!visited.contains(block)) removeBlock(block);
+        }
+        int order = 0;
+        for(Block block : postorder) block.order = order++;
+    }
+
+    /**
+     * Computes the immediate dominators and the dominance frontiers.
+     */
+    private void dominators(){
+        ArrayList<Block> ordered = new ArrayList<Block>(blocks);
+        ordered.sort((b1,b2) -> b1.order - b2.order);
+
+        entry.idom = entry;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(Block block : ordered){
+                if(block == entry) continue;
+                Block idom = null;
+                for(Block pred : block.preds){
+                    if(pred.idom == null) continue;
+                    idom = idom == null ? pred : intersect(pred,idom);
+                }
+                if(idom != block.idom){
+                    block.idom = idom;
+                    changed = true;
+                }
+            }
+        }
+        for(Block block : ordered){
+            if(block != entry) block.idom.children.add(block);
+        }
+
+        for(Block block : blocks){
+            if(block.preds.size() < 2) continue;
+            for(Block pred : block.preds){
+                for(Block runner = pred; runner != block.idom; runner = runner.idom) runner.frontier.add(block);
+            }
+        }
+    }
+
+    private Block intersect(Block b1, Block b2){
+        while(b1 != b2){
+            while(b1.order > b2.order) b1 = b1.idom;
+            while(b2.order > b1.order) b2 = b2.idom;
+        }
+        return b1;
+    }
+
+    /**
+     * Places the phi functions for the temporaries live across blocks.
+     */
+    private void phis(){
+        HashSet<Integer> globals = new HashSet<Integer>();
+        LinkedHashMap<Integer,LinkedHashSet<Block>> defs = new LinkedHashMap<Integer,LinkedHashSet<Block>>();
+        for(Block block : blocks){
+            HashSet<Integer> killed = new HashSet<Integer>();
+            for(IMCStmt stmt : block.body){
+                uses(stmt,name -> {
+                    if(!killed.contains(name)) globals.add(name);
+                });
+                Integer def = def(stmt);
+                if(def != null && def != frag.FP && def != frag.SP && def != frag.RV){
+                    killed.add(def);
+                    defs.computeIfAbsent(def,k -> new LinkedHashSet<Block>()).add(block);
+                }
+            }
+            if(block.jump != null){
+                uses(block.jump,name -> {
+                    if(!killed.contains(name)) globals.add(name);
+                });
+            }
+        }
+
+        for(Map.Entry<Integer,LinkedHashSet<Block>> def : defs.entrySet()){
+            int var = def.getKey();
+            stacks.put(var,new LinkedList<Integer>());
+            if(!globals.contains(var)) continue;
+            LinkedList<Block> work = new LinkedList<Block>(def.getValue());
+            HashSet<Block> placed = new HashSet<Block>();
+            while(!work.isEmpty()){
+                for(Block block : work.removeFirst().frontier){
+                    if(!placed.add(block)) continue;
+                    block.phis.add(new Phi(var,block.preds.size()));
+                    phis++;
+                    if(!def.getValue().contains(block)) work.add(block);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives every definition in the blocks dominated by a block a new
+     * temporary and replaces the uses accordingly.
+     */
+    private void rename(Block block){
+        LinkedList<Integer> defined = new LinkedList<Integer>();
+        for(Phi phi : block.phis) phi.dst = new TEMP(define(phi.var,defined));
+
+        Function<Integer,IMCExpr> current = name -> {
+            LinkedList<Integer> stack = stacks.get(name);
+            return stack == null || stack.isEmpty() ? null : new TEMP(stack.peek());
+        };
+        Vector<IMCStmt> body = new Vector<IMCStmt>();
+        for(IMCStmt stmt : block.body){
+            stmt = substitute(stmt,current);
+            Integer def = def(stmt);
+            if(def != null && stacks.containsKey(def)){
+                stmt = new MOVE(new TEMP(define(def,defined)),((MOVE)stmt).src);
+            }
+            body.add(stmt);
+        }
+        block.body = body;
+        if(block.jump != null) block.jump = substitute(block.jump,current);
+
+        for(Block succ : block.succs){
+            int k = succ.preds.indexOf(block);
+            for(Phi phi : succ.phis){
+                LinkedList<Integer> stack = stacks.get(phi.var);
+                phi.args[k] = new TEMP(stack.isEmpty() ? phi.var : stack.peek());
+            }
+        }
+
+        for(Block child : block.children) rename(child);
+        for(int var : defined) stacks.get(var).pop();
+    }
+
+    private int define(int var, LinkedList<Integer> defined){
+        int name = TEMP.newTempName();
+        origins.put(name,var);
+        stacks.get(var).push(name);
+        defined.add(var);
+        return name;
+    }
+
+    /**
+     * Returns the temporary a statement defines, or null.
+     */
+    static Integer def(IMCStmt stmt){
+        if(stmt instanceof MOVE && ((MOVE)stmt).dst instanceof TEMP) return ((TEMP)((MOVE)stmt).dst).name;
+        return null;
+    }
+
+    /**
+     * Calls an action for every temporary a statement uses.
+     */
+    static void uses(IMCStmt stmt, Consumer<Integer> action){
+        if(stmt instanceof MOVE){
+            MOVE move = (MOVE)stmt;
+            if(move.dst instanceof MEM) uses(((MEM)move.dst).addr,action);
+            uses(move.src,action);
+        }else if(stmt instanceof CJUMP){
+            uses(((CJUMP)stmt).cond,action);
+        }else if(stmt instanceof ESTMT){
+            uses(((ESTMT)stmt).expr,action);
+        }
+    }
+
+    static void uses(IMCExpr expr, Consumer<Integer> action){
+        if(expr instanceof TEMP){
+            action.accept(((TEMP)expr).name);
+        }else if(expr instanceof MEM){
+            uses(((MEM)expr).addr,action);
+        }else if(expr instanceof UNOP){
+            uses(((UNOP)expr).expr,action);
+        }else if(expr instanceof BINOP){
+            uses(((BINOP)expr).expr1,action);
+            uses(((BINOP)expr).expr2,action);
+        }else if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            for(int a=0; a<call.numArgs(); a++) uses(call.args(a),action);
+        }
+    }
+
+    /**
+     * Returns a statement with the uses of temporaries replaced by the
+     * expressions a function returns for them, or the statement itself if
+     * the function returns null for all of them.
+     */
+    IMCStmt substitute(IMCStmt stmt, Function<Integer,IMCExpr> map){
+        if(stmt instanceof MOVE){
+            MOVE move = (MOVE)stmt;
+            IMCExpr dst = move.dst instanceof MEM ? substitute(move.dst,map) : move.dst;
+            IMCExpr src = substitute(move.src,map);
+            return dst == move.dst && src == move.src ? stmt : new MOVE(dst,src);
+        }
+        if(stmt instanceof CJUMP){
+            CJUMP cjump = (CJUMP)stmt;
+            IMCExpr cond = substitute(cjump.cond,map);
+            return cond == cjump.cond ? stmt : new CJUMP(cond,cjump.posLabel,cjump.negLabel);
+        }
+        if(stmt instanceof ESTMT){
+            IMCExpr expr = substitute(((ESTMT)stmt).expr,map);
+            return expr == ((ESTMT)stmt).expr ? stmt : new ESTMT(expr);
+        }
+        return stmt;
+    }
+
+    IMCExpr substitute(IMCExpr expr, Function<Integer,IMCExpr> map){
+        if(expr instanceof TEMP){
+            IMCExpr value = map.apply(((TEMP)expr).name);
+            return value == null ? expr : value;
+        }
+        if(expr instanceof MEM){
+            MEM mem = (MEM)expr;
+            IMCExpr addr = substitute(mem.addr,map);
+            return addr == mem.addr ? expr : new MEM(addr,mem.width);
+        }
+        if(expr instanceof UNOP){
+            UNOP unop = (UNOP)expr;
+            IMCExpr sub = substitute(unop.expr,map);
+            return sub == unop.expr ? expr : new UNOP(unop.oper,sub);
+        }
+        if(expr instanceof BINOP){
+            BINOP binop = (BINOP)expr;
+            IMCExpr expr1 = substitute(binop.expr1,map);
+            IMCExpr expr2 = substitute(binop.expr2,map);
+            return expr1 == binop.expr1 && expr2 == binop.expr2 ? expr : new BINOP(binop.oper,expr1,expr2);
+        }
+        if(expr instanceof CALL){
+            CALL call = (CALL)expr;
+            CALL.Builder args = new CALL.Builder(call.label);
+            boolean changed = false;
+            for(int a=0; a<call.numArgs(); a++){
+                IMCExpr arg = substitute(call.args(a),map);
+                args.add(arg,call.widths(a));
+                changed |= arg != call.args(a);
+            }
+            if(!changed) return expr;
+            CALL result = args.build();
+            // The tail calls are known by identity.
+            if(frag.tailCalls.remove(call)) frag.tailCalls.add(result);
+            return result;
+        }
+        return expr;
+    }
+
+    /**
+     * Returns the linearized code with the phi functions replaced by moves.
+     */
+    STMTS destruct(){
+        HashMap<Integer,Integer> uses = new HashMap<Integer,Integer>();
+        for(Block block : blocks){
+            for(Phi phi : block.phis){
+                for(IMCExpr arg : phi.args) uses(arg,name -> uses.merge(name,1,Integer::sum));
+            }
+            for(IMCStmt stmt : block.body) uses(stmt,name -> uses.merge(name,1,Integer::sum));
+            if(block.jump != null) uses(block.jump,name -> uses.merge(name,1,Integer::sum));
+        }
+
+        HashSet<Integer> targets = new HashSet<Integer>();
+        for(Block block : blocks){
+            for(Phi phi : block.phis) targets.add(phi.dst.name);
+        }
+        HashMap<Block,HashSet<Integer>> live = live();
+
+        Block last = blocks.get(blocks.size()-1);
+        LinkedList<Block> appended = new LinkedList<Block>();
+        for(Block block : new ArrayList<Block>(blocks)){
+            if(block.phis.isEmpty()) continue;
+            for(Block pred : new ArrayList<Block>(block.preds)){
+                int k = block.preds.indexOf(pred);
+                LinkedHashMap<Integer,IMCExpr> copies = new LinkedHashMap<Integer,IMCExpr>();
+                for(Phi phi : block.phis){
+                    IMCExpr arg = phi.args[k];
+                    if(!(arg instanceof TEMP && ((TEMP)arg).name == phi.dst.name)) copies.put(phi.dst.name,arg);
+                }
+                if(copies.isEmpty()) continue;
+
+                if(block.preds.size() == 1){
+                    block.body.addAll(0,sequence(copies));
+                }else if(pred.succs.size() == 1 || !live(pred,block,copies.keySet(),live)){
+                    coalesce(pred,copies,uses,targets);
+                    pred.body.addAll(sequence(copies));
+                }else{
+                    split(pred,block,sequence(copies),appended);
+                }
+            }
+            block.phis.clear();
+        }
+
+        if(!appended.isEmpty()){
+            // The code no longer ends with the last block.
+            if(last.jump == null){
+                Block exit = new Block();
+                exit.labels.add(LABEL.newLabelName(frag.label));
+                last.jump = new JUMP(exit.labels.getFirst());
+                appended.add(exit);
+            }
+            blocks.addAll(appended);
+        }
+
+        Vector<IMCStmt> stmts = new Vector<IMCStmt>();
+        for(Block block : blocks){
+            for(String label : block.labels) stmts.add(new LABEL(label));
+            stmts.addAll(block.body);
+            if(block.jump != null) stmts.add(block.jump);
+        }
+        return new STMTS(restore(stmts));
+    }
+
+    /**
+     * Returns the temporaries live at the start of each block, apart from the
+     * ones its phi functions define. An argument of a phi function is live at
+     * the end of its predecessor.
+     */
+    private HashMap<Block,HashSet<Integer>> live(){
+        HashMap<Block,HashSet<Integer>> live = new HashMap<Block,HashSet<Integer>>();
+        for(Block block : blocks) live.put(block,new HashSet<Integer>());
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int b=blocks.size()-1; b>=0; b--){
+                Block block = blocks.get(b);
+                HashSet<Integer> in = new HashSet<Integer>();
+                for(Block succ : block.succs){
+                    in.addAll(live.get(succ));
+                    int k = succ.preds.indexOf(block);
+                    for(Phi phi : succ.phis) uses(phi.args[k],in::add);
+                }
+                if(block.jump != null) uses(block.jump,in::add);
+                for(int s=block.body.size()-1; s>=0; s--){
+                    Integer def = def(block.body.get(s));
+                    if(def != null) in.remove(def);
+                    uses(block.body.get(s),in::add);
+                }
+                for(Phi phi : block.phis) in.remove(phi.dst.name);
+                if(!in.equals(live.get(block))){
+                    live.put(block,in);
+                    changed = true;
+                }
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Returns true if a temporary is still needed by a conditional jump, or
+     * on the edges to the other successors of its block.
+     */
+    private boolean live(Block pred, Block block, Set<Integer> temps, HashMap<Block,HashSet<Integer>> live){
+        boolean[] used = {false};
+        uses(pred.jump,name -> used[0] |= temps.contains(name));
+        for(Block succ : pred.succs){
+            if(succ == block) continue;
+            // A block inserted on an edge is not known.
+            if(!live.containsKey(succ)) return true;
+            for(int temp : temps) used[0] |= live.get(succ).contains(temp);
+            int k = succ.preds.indexOf(pred);
+            for(Phi phi : succ.phis) uses(phi.args[k],name -> used[0] |= temps.contains(name));
+        }
+        return used[0];
+    }
+
+    /**
+     * Lets the definition of an argument used only by its copy at the end of
+     * a block and later in the block define the temporary of the phi
+     * function instead, if this is not used any more in the rest of the
+     * block. A variable updated in a loop is thus updated in place again.
+     */
+    private void coalesce(Block pred, LinkedHashMap<Integer,IMCExpr> copies, HashMap<Integer,Integer> uses, HashSet<Integer> targets){
+        HashSet<Integer> read = new HashSet<Integer>();
+        for(IMCExpr src : copies.values()) uses(src,read::add);
+
+        Iterator<Map.Entry<Integer,IMCExpr>> copy = copies.entrySet().iterator();
+        while(copy.hasNext()){
+            Map.Entry<Integer,IMCExpr> entry = copy.next();
+            int dst = entry.getKey();
+            if(read.contains(dst) || !(entry.getValue() instanceof TEMP)) continue;
+            int src = ((TEMP)entry.getValue()).name;
+            if(!renamed(src) || targets.contains(src)) continue;
+
+            int later = 0;
+            for(int s=pred.body.size()-1; s>=0; s--){
+                IMCStmt stmt = pred.body.get(s);
+                Integer def = def(stmt);
+                if(def != null && def == src){
+                    if(later+1 != uses.get(src)) break;
+                    pred.body.set(s,new MOVE(new TEMP(dst),((MOVE)stmt).src));
+                    for(int t=s+1; t<pred.body.size(); t++){
+                        pred.body.set(t,substitute(pred.body.get(t),name -> name == src ? new TEMP(dst) : null));
+                    }
+                    copy.remove();
+                    break;
+                }
+                int[] reads = {0,0};
+                uses(stmt,name -> {
+                    if(name == dst) reads[0]++;
+                    if(name == src) reads[1]++;
+                });
+                if(reads[0] > 0) break;
+                later += reads[1];
+            }
+        }
+    }
+
+    /**
+     * Places the moves for a critical edge into a new block. The positive
+     * branch of a conditional jump must be followed by its target, so the
+     * new block goes right after the jump, the others go to the end.
+     */
+    private void split(Block pred, Block block, Vector<IMCStmt> copies, LinkedList<Block> appended){
+        CJUMP cjump = (CJUMP)pred.jump;
+        String target = block.label(pred);
+        Block edge = new Block();
+        edge.labels.add(LABEL.newLabelName(frag.label));
+        edge.body = copies;
+        edge.jump = new JUMP(target);
+
+        if(target.equals(cjump.posLabel)){
+            int index = blocks.indexOf(pred)+1;
+            if(index < blocks.size() && blocks.get(index) == block) edge.jump = null;
+            blocks.add(index,edge);
+            pred.jump = new CJUMP(cjump.cond,edge.labels.getFirst(),cjump.negLabel);
+        }else{
+            appended.add(edge);
+            pred.jump = new CJUMP(cjump.cond,cjump.posLabel,edge.labels.getFirst());
+        }
+        int k = block.preds.indexOf(pred);
+        block.preds.set(k,edge);
+        pred.succs.set(pred.succs.indexOf(block),edge);
+        edge.preds.add(pred);
+        edge.succs.add(block);
+    }
+
+    /**
+     * Returns the moves doing a set of copies as if at once. A cycle of
+     * copies is broken by saving one of the temporaries first.
+     */
+    private Vector<IMCStmt> sequence(LinkedHashMap<Integer,IMCExpr> copies){
+        Vector<IMCStmt> result = new Vector<IMCStmt>();
+        while(!copies.isEmpty()){
+            Integer ready = null;
+            for(Integer dst : copies.keySet()){
+                boolean read = false;
+                for(IMCExpr src : copies.values()) read |= src instanceof TEMP && ((TEMP)src).name == dst;
+                if(!read){
+                    ready = dst;
+                    break;
+                }
+            }
+            if(ready == null){
+                int dst = copies.keySet().iterator().next();
+                TEMP saved = new TEMP(TEMP.newTempName());
+                result.add(new MOVE(saved,new TEMP(dst)));
+                moves++;
+                for(Map.Entry<Integer,IMCExpr> copy : copies.entrySet()){
+                    if(copy.getValue() instanceof TEMP && ((TEMP)copy.getValue()).name == dst) copy.setValue(saved);
+                }
+                ready = dst;
+            }
+            result.add(new MOVE(new TEMP(ready),copies.remove(ready)));
+            moves++;
+        }
+        return result;
+    }
+
+    /**
+     * Gives the original temporary back to a new one if it is the only one
+     * left of it.
+     */
+    private Vector<IMCStmt> restore(Vector<IMCStmt> stmts){
+        HashSet<Integer> present = new HashSet<Integer>();
+        for(IMCStmt stmt : stmts){
+            uses(stmt,name -> present.add(name));
+            Integer def = def(stmt);
+            if(def != null) present.add(def);
+        }
+        HashMap<Integer,Integer> left = new HashMap<Integer,Integer>();
+        for(int name : present){
+            Integer var = origins.get(name);
+            if(var == null) continue;
+            if(present.contains(var) || left.containsKey(var)) left.put(var,null);
+            else left.put(var,name);
+        }
+        HashMap<Integer,IMCExpr> names = new HashMap<Integer,IMCExpr>();
+        for(Map.Entry<Integer,Integer> entry : left.entrySet()){
+            if(entry.getValue() != null) names.put(entry.getValue(),new TEMP(entry.getKey()));
+        }
+        if(names.isEmpty()) return stmts;
+
+        Vector<IMCStmt> result = new Vector<IMCStmt>();
+        for(IMCStmt stmt : stmts){
+            stmt = substitute(stmt,names::get);
+            Integer def = def(stmt);
+            if(def != null && names.containsKey(def)) stmt = new MOVE(names.get(def),((MOVE)stmt).src);
+            result.add(stmt);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if evaluating an expression has no side effects.
+     */
+    static boolean pure(IMCExpr expr){
+        if(expr instanceof BINOP) return pure(((BINOP)expr).expr1) && pure(((BINOP)expr).expr2);
+        if(expr instanceof UNOP) return pure(((UNOP)expr).expr);
+        if(expr instanceof MEM) return pure(((MEM)expr).addr);
+        return expr instanceof CONST || expr instanceof TEMP || expr instanceof NAME;
+    }
+
+    /**
+     * Returns the block a label starts.
+     */
+    Block block(String label){
+        Block block = labels.get(label);
+        if(block == null) throw new InternalCompilerError();
+        return block;
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Optimization of the linearized intermediate code in static single
+ * assignment form.
+ */
+package compiler.phase.ssa;
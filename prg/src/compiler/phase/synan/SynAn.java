@@ -31,6 +31,8 @@ public class SynAn extends Phase {
     public SynAn(Task task) {
         super(task, "build");
         this.lexAn = new LexAn(task);
+        if (this.logger == null)
+            return;
         this.logger.setTransformer(
                 new Transformer() {
                     // This transformer produces the
@@ -0,0 +1,216 @@
+package compiler.sim;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Runs benchmark programs with every combination of the code generation
+ * options, counts the executed instructions and memory operations on the
+ * simulator, and compares the counts with a baseline.
+ *
+ * <p>
+ * Usage: <code>Bench [--baseline=file] [--threshold=percent] [--update]
+ * [--output=file] program.prev ...</code>. The benchmark fails if any count
+ * grows by more than the threshold (5% by default) or if the output of a
+ * program depends on the options. With <code>--update</code> the results are
+ * written to the baseline instead.
+ * </p>
+ */
+public class Bench{
+
+    /** The options, one of each set is used in every combination. */
+    private static final String[][] options = {
+        {"--optimize=none","--optimize=all"},
+        {"--registers=8","--registers=16","--registers=32"},
+        {"--regargs=0","--regargs=6"},
+    };
+
+    private static final Pattern executed = Pattern.compile(":-\\) Executed (\\d+) instructions \\((\\d+) loads, (\\d+) stores\\)\\.");
+    private static final Pattern time = Pattern.compile(":-\\) Running time (\\d+) oops \\+ (\\d+) mems\\.");
+
+    /** The measured counts of a single run. */
+    private static class Result{
+        final String program;
+        final String options;
+        final long[] counts;
+
+        Result(String program, String options, long[] counts){
+            this.program = program;
+            this.options = options;
+            this.counts = counts;
+        }
+
+        String key(){
+            return program+" "+options;
+        }
+    }
+
+    /** The names of the counts */
+    private static final String[] counts = {"instructions","loads","stores","oops","mems"};
+
+    public static void main(String[] args) throws IOException, InterruptedException{
+        String baseline = null;
+        String output = null;
+        double threshold = 5;
+        boolean update = false;
+        LinkedList<File> programs = new LinkedList<File>();
+
+        for(String arg : args){
+            if(arg.startsWith("--baseline=")) baseline = arg.replaceFirst("--baseline=","");
+            else if(arg.startsWith("--output=")) output = arg.replaceFirst("--output=","");
+            else if(arg.startsWith("--threshold=")) threshold = Double.parseDouble(arg.replaceFirst("--threshold=",""));
+            else if(arg.equals("--update")) update = true;
+            else programs.add(new File(arg));
+        }
+
+        boolean failed = false;
+        LinkedList<Result> results = new LinkedList<Result>();
+
+        for(File program : programs){
+            String name = program.getName().replaceFirst("\\.prev$","");
+            String expected = null;
+
+            for(LinkedList<String> combination : combinations()){
+                StringBuilder out = new StringBuilder();
+                long[] measured = run(program,combination,out);
+                String opts = combination.isEmpty() ? "-" : String.join(",",combination);
+
+                if(measured == null){
+                    System.err.println(name+" "+opts+": failed");
+                    System.err.print(out);
+                    failed = true;
+                    continue;
+                }
+                if(expected == null){
+                    expected = out.toString();
+                }else if(!expected.equals(out.toString())){
+                    System.err.println(name+" "+opts+": the output differs");
+                    failed = true;
+                }
+                results.add(new Result(name,opts,measured));
+            }
+        }
+
+        HashMap<String,long[]> base = new HashMap<String,long[]>();
+        if(baseline != null && !update && new File(baseline).exists()){
+            for(Result result : read(new File(baseline))) base.put(result.key(),result.counts);
+        }
+
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-12s %-40s %12s %10s %10s %12s %10s %8s%n","program","options",
+                    counts[0],counts[1],counts[2],counts[3],counts[4],"change"));
+        for(Result result : results){
+            long[] old = base.get(result.key());
+            String change = "";
+            if(old != null){
+                double worst = 0;
+                for(int c=0; c<counts.length; c++){
+                    double delta = old[c] == 0 ? 0 : 100.0*(result.counts[c]-old[c])/old[c];
+                    if(Math.abs(delta) > Math.abs(worst)) worst = delta;
+                    if(delta > threshold){
+                        System.err.println(result.key()+": "+counts[c]+" "+old[c]+" -> "+result.counts[c]);
+                        failed = true;
+                    }
+                }
+                change = String.format("%+.1f%%",worst);
+            }
+            table.append(String.format("%-12s %-40s %12d %10d %10d %12d %10d %8s",result.program,result.options,
+                        result.counts[0],result.counts[1],result.counts[2],result.counts[3],result.counts[4],change).stripTrailing());
+            table.append(System.lineSeparator());
+        }
+
+        System.out.print(table);
+        if(output != null) write(new File(output),table.toString());
+        if(update && baseline != null) write(new File(baseline),table.toString());
+
+        if(failed){
+            System.err.println("The benchmark has failed.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns all combinations of the options.
+     */
+    private static LinkedList<LinkedList<String>> combinations(){
+        LinkedList<LinkedList<String>> combinations = new LinkedList<LinkedList<String>>();
+        combinations.add(new LinkedList<String>());
+
+        for(String[] set : options){
+            LinkedList<LinkedList<String>> extended = new LinkedList<LinkedList<String>>();
+            for(LinkedList<String> combination : combinations){
+                for(String option : set){
+                    LinkedList<String> copy = new LinkedList<String>(combination);
+                    if(!option.isEmpty()) copy.add(option);
+                    extended.add(copy);
+                }
+            }
+            combinations = extended;
+        }
+        return combinations;
+    }
+
+    /**
+     * Compiles and runs a program in a separate JVM and returns its counts,
+     * or null if it has not run to completion. The output of the program
+     * is appended to out.
+     */
+    private static long[] run(File program, LinkedList<String> opts, StringBuilder out) throws IOException, InterruptedException{
+        LinkedList<String> command = new LinkedList<String>();
+        command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+        command.add("-cp");
+        command.add(Compilation.classPath());
+        command.add("compiler.Main");
+        command.add("--phase=run");
+        command.addAll(opts);
+        command.add(program.getName());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(program.getAbsoluteFile().getParentFile());
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+
+        long[] measured = new long[counts.length];
+        boolean done = false;
+
+        // The program's output is printed twice, once by the interpreter
+        // during the compilation, so only the last report counts.
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))){
+            for(String line; (line = in.readLine()) != null;){
+                Matcher matcher;
+                if((matcher = executed.matcher(line)).matches()){
+                    for(int c=0; c<3; c++) measured[c] = Long.parseLong(matcher.group(c+1));
+                    done = true;
+                }else if((matcher = time.matcher(line)).matches()){
+                    for(int c=0; c<2; c++) measured[3+c] = Long.parseLong(matcher.group(c+1));
+                }else if(!line.startsWith(":-)") && !line.startsWith("This is PREV")){
+                    out.append(line).append('\n');
+                }
+            }
+        }
+
+        return process.waitFor() == 0 && done ? measured : null;
+    }
+
+    private static LinkedList<Result> read(File file) throws IOException{
+        LinkedList<Result> results = new LinkedList<Result>();
+        try(BufferedReader in = new BufferedReader(new FileReader(file))){
+            in.readLine();
+            for(String line; (line = in.readLine()) != null;){
+                String[] fields = line.trim().split("\\s+");
+                if(fields.length < 2+counts.length) continue;
+                long[] measured = new long[counts.length];
+                for(int c=0; c<counts.length; c++) measured[c] = Long.parseLong(fields[2+c]);
+                results.add(new Result(fields[0],fields[1],measured));
+            }
+        }
+        return results;
+    }
+
+    private static void write(File file, String text) throws IOException{
+        try(Writer out = new FileWriter(file)){
+            out.write(text);
+        }
+    }
+}
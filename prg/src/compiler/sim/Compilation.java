@@ -0,0 +1,93 @@
+package compiler.sim;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A compilation of a program by the compiler in a separate JVM. The program
+ * is copied into a scratch directory first, so that the files written by the
+ * compiler do not end up next to the program.
+ */
+class Compilation{
+
+    /** The number of seconds a command may run before it is killed. */
+    private static final long timeout = 60;
+
+    /** The scratch directory. */
+    final File dir;
+
+    /** The copy of the program in the scratch directory. */
+    final File program;
+
+    Compilation(File program) throws IOException{
+        this.dir = Files.createTempDirectory("prev").toFile();
+        this.program = new File(dir,program.getName());
+        Files.copy(program.toPath(),this.program.toPath());
+    }
+
+    /**
+     * Returns a file written by the compiler, e.g. file("mms").
+     */
+    File file(String extension){
+        return new File(dir,program.getName().replaceFirst("\\.prev$","."+extension));
+    }
+
+    /**
+     * Compiles the program with the given JVM and compiler options and
+     * returns true if the compiler succeeded. The compiler's messages are
+     * discarded.
+     */
+    boolean run(List<String> jvm, List<String> options) throws IOException, InterruptedException{
+        LinkedList<String> command = new LinkedList<String>();
+        command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+        command.addAll(jvm);
+        command.add("-cp");
+        command.add(classPath());
+        command.add("compiler.Main");
+        command.addAll(options);
+        command.add(program.getName());
+        return exec(command);
+    }
+
+    /**
+     * Returns the class path of this JVM with absolute entries, so that it
+     * can be used by a JVM running in another directory.
+     */
+    static String classPath(){
+        LinkedList<String> entries = new LinkedList<String>();
+        for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)){
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator,entries);
+    }
+
+    /**
+     * Runs a command in the scratch directory and returns true if it
+     * succeeded in time. The command's messages are discarded.
+     */
+    boolean exec(List<String> command) throws IOException, InterruptedException{
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(dir);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        Process process = builder.start();
+        if(!process.waitFor(timeout,TimeUnit.SECONDS)){
+            process.destroyForcibly().waitFor();
+            return false;
+        }
+        return process.exitValue() == 0;
+    }
+
+    /**
+     * Removes the scratch directory.
+     */
+    void delete(){
+        File[] files = dir.listFiles();
+        if(files != null){
+            for(File file : files) file.delete();
+        }
+        dir.delete();
+    }
+}
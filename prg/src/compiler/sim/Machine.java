@@ -0,0 +1,530 @@
+package compiler.sim;
+
+import java.io.*;
+import java.util.*;
+
+import compiler.common.report.*;
+
+/**
+ * A simulator of the MMIX instructions and TRAPs used by the compiler.
+ *
+ * Besides executing the program, it counts instructions, loads and stores, and
+ * the running time in Knuth's units: oops for the processor and mems
+ * for memory accesses.
+ */
+public class Machine{
+
+    /** The number of octas in a memory page */
+    private static final int PAGE = 512;
+
+    /** The memory (pages of octas indexed by their numbers) */
+    private final HashMap<Long,long[]> memory;
+
+    /** The global registers */
+    private final long[] g;
+    /** The register stack containing the local registers */
+    private long[] l;
+    /** The offset of $0 in the register stack */
+    private int O;
+    /** The number of local registers */
+    private int L;
+    /** The number of the lowest global register */
+    private final int G;
+
+    /** The special registers */
+    private final long[] special;
+
+    private long pc;
+    private boolean halted;
+
+    private final PrintStream out;
+
+    /** The number of executed instructions */
+    public long instructions;
+    /** The number of loads */
+    public long loads;
+    /** The number of stores */
+    public long stores;
+    /** The running time in oops */
+    public long oops;
+    /** The running time in mems */
+    public long mems;
+
+    /**
+     * Constructs a new machine.
+     *
+     * @param G
+     *          The number of the lowest global register
+     * @param globals
+     *          The initial values of all global registers
+     * @param out
+     *          The standard output of the program
+     */
+    public Machine(int G, long[] globals, PrintStream out){
+        this.memory = new HashMap<Long,long[]>();
+        this.g = Arrays.copyOf(globals,256);
+        this.l = new long[1024];
+        this.O = 0;
+        this.L = 0;
+        this.G = G;
+        this.special = new long[32];
+        this.special[19] = G;
+        this.out = out;
+    }
+
+    // ----- MEMORY -----
+
+    private long[] page(long addr){
+        long number = (addr >>> 3) / PAGE;
+        long[] page = memory.get(number);
+        if(page == null) memory.put(number,page = new long[PAGE]);
+        return page;
+    }
+
+    /**
+     * Returns the octa at the given address (aligned down).
+     */
+    public long octa(long addr){
+        return page(addr)[(int)((addr >>> 3) % PAGE)];
+    }
+
+    /**
+     * Sets the octa at the given address (aligned down).
+     */
+    public void octa(long addr, long value){
+        page(addr)[(int)((addr >>> 3) % PAGE)] = value;
+    }
+
+    /**
+     * Loads a tetra into memory.
+     */
+    public void tetra(long addr, long tetra){
+        long shift = (addr & 4) == 0 ? 32 : 0;
+        long mask = 0xFFFFFFFFL << shift;
+        octa(addr,(octa(addr) & ~mask) | ((tetra & 0xFFFFFFFFL) << shift));
+    }
+
+    private long load(long addr, int size, boolean signed){
+        int shift = 8*(int)(addr & (8-size));
+        long value = octa(addr) << shift;
+        return signed ? value >> (64-8*size) : value >>> (64-8*size);
+    }
+
+    private void store(long addr, int size, long value){
+        if(size == 8){
+            octa(addr,value);
+            return;
+        }
+        int shift = 8*(8-size-(int)(addr & (8-size)));
+        long mask = ((1L << (8*size))-1) << shift;
+        octa(addr,(octa(addr) & ~mask) | ((value << shift) & mask));
+    }
+
+    // ----- REGISTERS -----
+
+    private long reg(int x){
+        if(x >= G) return g[x];
+        if(x >= L) return 0;
+        return l[O+x];
+    }
+
+    private void reg(int x, long value){
+        if(x >= G){
+            g[x] = value;
+            return;
+        }
+        if(x >= L){
+            grow(x+1);
+            for(int r=L; r<x; r++) l[O+r] = 0;
+            L = x+1;
+        }
+        l[O+x] = value;
+    }
+
+    private void grow(int size){
+        if(O+size > l.length) l = Arrays.copyOf(l,Math.max(2*l.length,O+size));
+    }
+
+    // ----- EXECUTION -----
+
+    /**
+     * Runs the program from the given address until it halts.
+     */
+    public void run(long start){
+        pc = start;
+        halted = false;
+
+        while(!halted){
+            step();
+        }
+        out.flush();
+    }
+
+    private void step(){
+        long inst = load(pc,4,false);
+        int op = (int)(inst >>> 24);
+        int x = (int)(inst >>> 16) & 0xFF;
+        int y = (int)(inst >>> 8) & 0xFF;
+        int z = (int)inst & 0xFF;
+        int yz = (int)inst & 0xFFFF;
+
+        long next = pc+4;
+        long Y = reg(y);
+        long Z = (op & 1) == 0 ? reg(z) : z;
+
+        instructions++;
+        oops++;
+
+        switch(op >> 4){
+            case 0x0:
+                if(op == 0x00){
+                    trap(x,y,z);
+                    oops += 4;
+                    break;
+                }
+                unknown(op);
+                break;
+            case 0x1:
+                switch(op & ~1){
+                    case 0x18:
+                        reg(x,Y*Z);
+                        oops += 9;
+                        break;
+                    case 0x1A:
+                        special[3] = Math.multiplyHigh(Y,Z) + ((Y >> 63) & Z) + ((Z >> 63) & Y);
+                        reg(x,Y*Z);
+                        oops += 9;
+                        break;
+                    case 0x1C:
+                        if(Z == 0){
+                            special[6] = Y;
+                            reg(x,0);
+                        }else{
+                            long q = Math.floorDiv(Y,Z);
+                            special[6] = Y-q*Z;
+                            reg(x,q);
+                        }
+                        oops += 59;
+                        break;
+                    case 0x1E:
+                        if(Z == 0){
+                            special[6] = Y;
+                            reg(x,0);
+                        }else{
+                            special[6] = Long.remainderUnsigned(Y,Z);
+                            reg(x,Long.divideUnsigned(Y,Z));
+                        }
+                        oops += 59;
+                        break;
+                    default:
+                        unknown(op);
+                }
+                break;
+            case 0x2:
+                switch(op & ~1){
+                    case 0x20:
+                    case 0x22:
+                        reg(x,Y+Z);
+                        break;
+                    case 0x24:
+                    case 0x26:
+                        reg(x,Y-Z);
+                        break;
+                    case 0x28:
+                        reg(x,2*Y+Z);
+                        break;
+                    case 0x2A:
+                        reg(x,4*Y+Z);
+                        break;
+                    case 0x2C:
+                        reg(x,8*Y+Z);
+                        break;
+                    case 0x2E:
+                        reg(x,16*Y+Z);
+                        break;
+                }
+                break;
+            case 0x3:
+                switch(op & ~1){
+                    case 0x30:
+                        reg(x,Long.compare(Y,Z));
+                        break;
+                    case 0x32:
+                        reg(x,Long.compareUnsigned(Y,Z));
+                        break;
+                    case 0x34:
+                    case 0x36:
+                        reg(x,y-Z);
+                        break;
+                    case 0x38:
+                    case 0x3A:
+                        reg(x,Z >= 64 || Z < 0 ? 0 : Y << Z);
+                        break;
+                    case 0x3C:
+                        reg(x,Z >= 64 || Z < 0 ? Y >> 63 : Y >> Z);
+                        break;
+                    case 0x3E:
+                        reg(x,Z >= 64 || Z < 0 ? 0 : Y >>> Z);
+                        break;
+                }
+                break;
+            case 0x4:
+            case 0x5:{
+                boolean taken = condition(op,reg(x));
+                boolean probable = (op & 0x10) != 0;
+                if(taken) next = pc+4*((op & 1) == 0 ? yz : yz-0x10000);
+                if(taken != probable) oops += 2;
+                break;
+            }
+            case 0x6:
+                if(condition(op,Y)) reg(x,Z);
+                break;
+            case 0x7:
+                reg(x,condition(op,Y) ? Z : 0);
+                break;
+            case 0x8:
+            case 0x9:{
+                long addr = Y+Z;
+                loads++;
+                mems++;
+                switch(op & ~1){
+                    case 0x80:
+                        reg(x,load(addr,1,true));
+                        break;
+                    case 0x82:
+                        reg(x,load(addr,1,false));
+                        break;
+                    case 0x84:
+                        reg(x,load(addr,2,true));
+                        break;
+                    case 0x86:
+                        reg(x,load(addr,2,false));
+                        break;
+                    case 0x88:
+                        reg(x,load(addr,4,true));
+                        break;
+                    case 0x8A:
+                        reg(x,load(addr,4,false));
+                        break;
+                    case 0x8C:
+                    case 0x8E:
+                        reg(x,octa(addr));
+                        break;
+                    case 0x92:
+                        reg(x,load(addr,4,false) << 32);
+                        break;
+                    case 0x9E:
+                        loads--;
+                        mems--;
+                        reg(x,next);
+                        next = addr & ~3L;
+                        oops += 2;
+                        break;
+                    default:
+                        unknown(op);
+                }
+                break;
+            }
+            case 0xA:
+            case 0xB:{
+                long addr = Y+Z;
+                stores++;
+                mems++;
+                switch(op & ~1){
+                    case 0xA0:
+                    case 0xA2:
+                        store(addr,1,reg(x));
+                        break;
+                    case 0xA4:
+                    case 0xA6:
+                        store(addr,2,reg(x));
+                        break;
+                    case 0xA8:
+                    case 0xAA:
+                        store(addr,4,reg(x));
+                        break;
+                    case 0xAC:
+                    case 0xAE:
+                        store(addr,8,reg(x));
+                        break;
+                    case 0xB2:
+                        store(addr,4,reg(x) >>> 32);
+                        break;
+                    case 0xB4:
+                        store(addr,8,x);
+                        break;
+                    default:
+                        unknown(op);
+                }
+                break;
+            }
+            case 0xC:
+                switch(op & ~1){
+                    case 0xC0:
+                        reg(x,Y | Z);
+                        break;
+                    case 0xC2:
+                        reg(x,Y | ~Z);
+                        break;
+                    case 0xC4:
+                        reg(x,~(Y | Z));
+                        break;
+                    case 0xC6:
+                        reg(x,Y ^ Z);
+                        break;
+                    case 0xC8:
+                        reg(x,Y & Z);
+                        break;
+                    case 0xCA:
+                        reg(x,Y & ~Z);
+                        break;
+                    case 0xCC:
+                        reg(x,~(Y & Z));
+                        break;
+                    case 0xCE:
+                        reg(x,~(Y ^ Z));
+                        break;
+                }
+                break;
+            case 0xE:{
+                long w = (long)yz << (16*(3-(op & 3)));
+                long X = reg(x);
+                switch(op & 0xC){
+                    case 0x0:
+                        reg(x,w);
+                        break;
+                    case 0x4:
+                        reg(x,X+w);
+                        break;
+                    case 0x8:
+                        reg(x,X | w);
+                        break;
+                    case 0xC:
+                        reg(x,X & ~w);
+                        break;
+                }
+                break;
+            }
+            case 0xF:
+                switch(op){
+                    case 0xF0:
+                    case 0xF1:{
+                        long xyz = inst & 0xFFFFFF;
+                        next = pc+4*(op == 0xF0 ? xyz : xyz-0x1000000);
+                        break;
+                    }
+                    case 0xF2:
+                    case 0xF3:
+                        push(x,next);
+                        next = pc+4*(op == 0xF2 ? yz : yz-0x10000);
+                        break;
+                    case 0xF4:
+                    case 0xF5:
+                        reg(x,pc+4*(op == 0xF4 ? yz : yz-0x10000));
+                        break;
+                    case 0xF6:
+                    case 0xF7:
+                        if(x != 19) special[x] = Z;
+                        break;
+                    case 0xF8:
+                        next = pop(x,yz);
+                        oops += 2;
+                        break;
+                    case 0xFD:
+                        break;
+                    case 0xFE:
+                        reg(x,z == 20 ? L : special[z]);
+                        break;
+                    default:
+                        unknown(op);
+                }
+                break;
+            default:
+                unknown(op);
+        }
+
+        pc = next;
+    }
+
+    private boolean condition(int op, long value){
+        switch((op >> 1) & 7){
+            case 0:
+                return value < 0;
+            case 1:
+                return value == 0;
+            case 2:
+                return value > 0;
+            case 3:
+                return (value & 1) != 0;
+            case 4:
+                return value >= 0;
+            case 5:
+                return value != 0;
+            case 6:
+                return value <= 0;
+            default:
+                return (value & 1) == 0;
+        }
+    }
+
+    /**
+     * Hides the registers $0...$X behind the hole $X, which remembers X.
+     */
+    private void push(int x, long ret){
+        if(x >= G) x = L;
+        reg(x,x);
+        O += x+1;
+        L -= x+1;
+        special[4] = ret;
+    }
+
+    /**
+     * Puts the result $(X-1) into the hole and returns to rJ+4YZ.
+     */
+    private long pop(int x, int yz){
+        if(O == 0) throw new CompilerError("POP without PUSHJ at #"+Long.toHexString(pc)+".");
+
+        int results = Math.min(x,L+1);
+        long[] values = new long[results];
+        if(results > 0) values[0] = reg(x-1);
+        for(int r=1; r<results; r++) values[r] = reg(r-1);
+
+        int hole = (int)l[O-1];
+        O -= hole+1;
+        L = hole;
+        for(int r=0; r<results; r++) reg(hole+r,values[r]);
+        L = hole+results;
+
+        return special[4]+4*yz;
+    }
+
+    private void trap(int x, int y, int z){
+        switch(y){
+            case 0:
+                halted = true;
+                break;
+            case 6:{
+                // Fwrite: $255 points to the address and the size of a buffer.
+                long addr = octa(g[255]);
+                long size = octa(g[255]+8);
+                for(long i=0; i<size; i++) out.write((int)load(addr+i,1,false));
+                g[255] = 0;
+                break;
+            }
+            case 7:{
+                // Fputs: $255 points to a zero-terminated string.
+                long addr = g[255];
+                long count = 0;
+                for(int c; (c = (int)load(addr,1,false)) != 0; addr++, count++) out.write(c);
+                g[255] = count;
+                break;
+            }
+            default:
+                throw new CompilerError("Unsupported TRAP "+y+" at #"+Long.toHexString(pc)+".");
+        }
+    }
+
+    private void unknown(int op){
+        throw new CompilerError("Unsupported instruction #"+Integer.toHexString(op)+" at #"+Long.toHexString(pc)+".");
+    }
+}
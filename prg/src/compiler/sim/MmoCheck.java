@@ -0,0 +1,286 @@
+package compiler.sim;
+
+import java.io.*;
+import java.util.*;
+
+import compiler.common.report.*;
+import compiler.phase.build.*;
+
+/**
+ * Checks the object files written by --emit=mmo against the assembler.
+ *
+ * <p>
+ * Usage: <code>MmoCheck [compiler options] program.prev ...</code>. Every
+ * program is compiled to assembly and to an object file. The object file is
+ * decoded the way the MMIX loader reads it, and the loaded tetras, the global
+ * registers and the symbols are compared with those of the assembly. If
+ * mmixal is installed, its object file of the same assembly is checked too.
+ * Everything is written into a scratch directory.
+ * </p>
+ */
+public class MmoCheck{
+
+    public static void main(String[] args) throws IOException, InterruptedException{
+        LinkedList<String> options = new LinkedList<String>();
+        LinkedList<File> programs = new LinkedList<File>();
+
+        options.add("--phase=build");
+        for(String arg : args){
+            if(arg.startsWith("--")) options.add(arg);
+            else programs.add(new File(arg));
+        }
+
+        LinkedList<String> mmo = new LinkedList<String>(options);
+        mmo.add("--emit=mmo");
+
+        boolean failed = false;
+        for(File program : programs){
+            String name = program.getName().replaceFirst("\\.prev$","");
+
+            Compilation compilation = new Compilation(program);
+            if(!compilation.run(Collections.<String>emptyList(),options) || !compilation.run(Collections.<String>emptyList(),mmo)){
+                // A program the compiler rejects has no output to compare.
+                System.out.println(name+": not compiled");
+                compilation.delete();
+                continue;
+            }
+
+            Assembler expected = Assembler.read(compilation.file("mms"));
+            String result = compare(compilation.file("mmo"),expected);
+
+            String reference;
+            try{
+                List<String> mmixal = Arrays.asList("mmixal","-o",name+".ref.mmo",name+".mms");
+                reference = compilation.exec(mmixal) ? compare(compilation.file("ref.mmo"),expected) : "not assembled";
+            }catch(IOException ex){
+                reference = "not available";
+            }
+
+            System.out.println(name+": "+result+" (mmixal: "+reference+")");
+            failed |= !result.equals("same") || !(reference.equals("same") || reference.equals("not available"));
+            compilation.delete();
+        }
+
+        if(failed){
+            System.err.println("The object files differ from the assembly.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads an object file and returns "same" if it matches the assembled
+     * program, or the first difference.
+     */
+    private static String compare(File file, Assembler expected){
+        ObjectFile loaded;
+        try{
+            loaded = new ObjectFile(file);
+        }catch(IOException ex){
+            return "different ("+ex.getMessage()+")";
+        }
+
+        // A tetra missing from either image is zero.
+        TreeSet<Long> addrs = new TreeSet<Long>(expected.memory().keySet());
+        addrs.addAll(loaded.memory.keySet());
+        for(long addr : addrs){
+            long want = tetra(expected.memory().get(addr));
+            long got = tetra(loaded.memory.get(addr));
+            if(want != got) return String.format("different (tetra #%x is #%08x instead of #%08x)",addr,got,want);
+        }
+
+        if(loaded.rG != expected.rG()) return "different (rG is "+loaded.rG+" instead of "+expected.rG()+")";
+        for(int r=expected.rG(); r<256; r++){
+            if(loaded.globals[r] != expected.globals()[r]) return String.format("different ($%d is #%x instead of #%x)",r,loaded.globals[r],expected.globals()[r]);
+        }
+
+        for(Map.Entry<String,Long> symbol : loaded.symbols.entrySet()){
+            long want;
+            try{
+                want = expected.symbol(symbol.getKey());
+            }catch(CompilerError ex){
+                return "different (symbol "+symbol.getKey()+" is not defined)";
+            }
+            if(symbol.getValue() != want) return String.format("different (symbol %s is #%x instead of #%x)",symbol.getKey(),symbol.getValue(),want);
+        }
+
+        return "same";
+    }
+
+    private static long tetra(byte[] bytes){
+        long tetra = 0;
+        if(bytes != null){
+            for(byte b : bytes) tetra = tetra << 8 | (b & 0xFF);
+        }
+        return tetra;
+    }
+
+    /**
+     * An object file as loaded by the MMIX simulator: every tetra is xored
+     * into memory at the current location and the fixups are applied the
+     * same way.
+     */
+    private static class ObjectFile{
+
+        private static final int mm = 0x98;
+
+        private static final int lop_quote = 0x0;
+        private static final int lop_loc = 0x1;
+        private static final int lop_skip = 0x2;
+        private static final int lop_fixo = 0x3;
+        private static final int lop_fixr = 0x4;
+        private static final int lop_fixrx = 0x5;
+        private static final int lop_file = 0x6;
+        private static final int lop_line = 0x7;
+        private static final int lop_pre = 0x9;
+        private static final int lop_post = 0xA;
+        private static final int lop_stab = 0xB;
+        private static final int lop_end = 0xC;
+
+        final TreeMap<Long,byte[]> memory = new TreeMap<Long,byte[]>();
+        final LinkedHashMap<String,Long> symbols = new LinkedHashMap<String,Long>();
+        final long[] globals = new long[256];
+        int rG = 255;
+
+        private final DataInputStream in;
+        private long loc = 0;
+
+        ObjectFile(File file) throws IOException{
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+                this.in = in;
+                read();
+            }catch(EOFException ex){
+                throw new IOException("the object file ends too early");
+            }
+        }
+
+        private void read() throws IOException{
+            int tetra = in.readInt();
+            if(tetra >>> 24 != mm || (tetra >>> 16 & 0xFF) != lop_pre) throw new IOException("lop_pre is missing");
+            if((tetra >>> 8 & 0xFF) != 1) throw new IOException("wrong version");
+            for(int z=tetra & 0xFF; z>0; z--) in.readInt();
+
+            while(true){
+                tetra = in.readInt();
+                if(tetra >>> 24 != mm){
+                    load(tetra);
+                    continue;
+                }
+
+                int y = tetra >>> 8 & 0xFF;
+                int z = tetra & 0xFF;
+                int yz = tetra & 0xFFFF;
+                switch(tetra >>> 16 & 0xFF){
+                    case lop_quote:
+                        if(yz != 1) throw new IOException("wrong lop_quote");
+                        load(in.readInt());
+                        break;
+                    case lop_loc:
+                        loc = address(y,z);
+                        break;
+                    case lop_skip:
+                        loc += yz;
+                        break;
+                    case lop_fixo:{
+                        long addr = address(y,z);
+                        xor(addr,(int)(loc >>> 32));
+                        xor(addr+4,(int)loc);
+                        break;
+                    }
+                    case lop_fixr:
+                        xor(loc-4L*yz,yz);
+                        break;
+                    case lop_fixrx:{
+                        if(z != 16 && z != 24) throw new IOException("wrong lop_fixrx");
+                        int delta = in.readInt();
+                        if((delta & 0xFE000000) != 0) throw new IOException("wrong lop_fixrx");
+                        long d = (delta & 0x01000000) != 0 ? (delta & 0xFFFFFF)-(1L << z) : delta & 0xFFFFFF;
+                        xor(loc-4*d,delta);
+                        break;
+                    }
+                    case lop_file:
+                        for(; z>0; z--) in.readInt();
+                        break;
+                    case lop_line:
+                        break;
+                    case lop_post:
+                        if(y != 0 || z < 32) throw new IOException("wrong lop_post");
+                        rG = z;
+                        for(int r=rG; r<256; r++) globals[r] = in.readLong();
+                        break;
+                    case lop_stab:
+                        stab();
+                        return;
+                    default:
+                        throw new IOException(String.format("unexpected lop #%x",tetra >>> 16 & 0xFF));
+                }
+            }
+        }
+
+        private long address(int y, int z) throws IOException{
+            if(z == 1) return (long)y << 56 | (in.readInt() & 0xFFFFFFFFL);
+            if(z == 2) return (long)y << 56 | (in.readLong() & 0x00FFFFFFFFFFFFFFL);
+            throw new IOException("wrong address");
+        }
+
+        private void load(int tetra){
+            xor(loc,tetra);
+            loc = (loc & -4L)+4;
+        }
+
+        private void xor(long addr, int value){
+            byte[] tetra = memory.get(addr & -4L);
+            if(tetra == null) memory.put(addr & -4L, tetra = new byte[4]);
+            for(int b=0; b<4; b++) tetra[b] ^= (byte)(value >>> (24-8*b));
+        }
+
+        /**
+         * Reads the symbol table up to lop_end, which has to count its
+         * tetras.
+         */
+        private void stab() throws IOException{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int tetra;
+            while((tetra = in.readInt()) >>> 16 != (mm << 8 | lop_end)){
+                for(int b=24; b>=0; b-=8) bytes.write(tetra >>> b);
+            }
+            if((tetra & 0xFFFF) != bytes.size()/4) throw new IOException("lop_end counts "+(tetra & 0xFFFF)+" tetras instead of "+bytes.size()/4);
+            if(in.read() != -1) throw new IOException("data after lop_end");
+
+            ByteArrayInputStream stab = new ByteArrayInputStream(bytes.toByteArray());
+            symbol(stab,new StringBuilder());
+        }
+
+        private void symbol(ByteArrayInputStream stab, StringBuilder name) throws IOException{
+            int m = stab.read();
+            if(m < 0) throw new IOException("the symbol table ends too early");
+
+            if((m & 0x40) != 0) symbol(stab,name);
+            if((m & 0x2F) != 0){
+                int c = stab.read();
+                if((m & 0x80) != 0) c = c << 8 | stab.read();
+                name.append((char)c);
+
+                int j = m & 0xF;
+                if(j != 0){
+                    long value = 0;
+                    if(j == 15){
+                        value = stab.read();
+                    }else{
+                        for(int b=0; b<(j > 8 ? j-8 : j); b++) value = value << 8 | stab.read();
+                        if(j > 8) value += 0x2000000000000000L;
+                    }
+                    // The serial number ends with a byte of at least 128.
+                    for(int b = 0; b < 0x80;){
+                        if((b = stab.read()) < 0) throw new IOException("the symbol table ends too early");
+                    }
+                    // The names in the table start with the prefix ':'.
+                    symbols.put(name.substring(1),value);
+                }
+
+                if((m & 0x20) != 0) symbol(stab,name);
+                name.setLength(name.length()-1);
+            }
+            if((m & 0x10) != 0) symbol(stab,name);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package compiler.sim;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that compiling with --parallel writes exactly the same assembly as
+ * compiling one fragment after another.
+ *
+ * <p>
+ * Usage: <code>ParallelCheck [--runs=n] [--processors=n] [compiler options]
+ * program.prev ...</code>. Every program is compiled once serially and then
+ * several times (3 by default) in parallel. The JVM is told it has several
+ * processors (8 by default), so that the fragments are really processed by
+ * several threads even on a single core. The check fails if any .mms file
+ * differs from the serial one.
+ * </p>
+ */
+public class ParallelCheck{
+
+    public static void main(String[] args) throws IOException, InterruptedException{
+        int runs = 3;
+        int processors = 8;
+        LinkedList<String> options = new LinkedList<String>();
+        LinkedList<File> programs = new LinkedList<File>();
+
+        options.add("--phase=build");
+        for(String arg : args){
+            if(arg.startsWith("--runs=")) runs = Integer.parseInt(arg.replaceFirst("--runs=",""));
+            else if(arg.startsWith("--processors=")) processors = Integer.parseInt(arg.replaceFirst("--processors=",""));
+            else if(arg.startsWith("--")) options.add(arg);
+            else programs.add(new File(arg));
+        }
+
+        LinkedList<String> parallel = new LinkedList<String>(options);
+        parallel.add("--parallel");
+        List<String> jvm = Arrays.asList("-XX:ActiveProcessorCount="+processors);
+
+        boolean failed = false;
+        for(File program : programs){
+            String name = program.getName().replaceFirst("\\.prev$","");
+
+            Compilation serial = new Compilation(program);
+            if(!serial.run(Collections.<String>emptyList(),options)){
+                // A program the compiler rejects has no output to compare.
+                System.out.println(name+": not compiled");
+                serial.delete();
+                continue;
+            }
+            byte[] expected = Files.readAllBytes(serial.file("mms").toPath());
+            serial.delete();
+
+            String result = "same";
+            for(int run=1; run<=runs && result.equals("same"); run++){
+                Compilation compilation = new Compilation(program);
+                if(!compilation.run(jvm,parallel)) result = "failed in parallel (run "+run+")";
+                else if(!Arrays.equals(expected,Files.readAllBytes(compilation.file("mms").toPath()))) result = "different (run "+run+")";
+                compilation.delete();
+            }
+            System.out.println(name+": "+result);
+            failed |= !result.equals("same");
+        }
+
+        if(failed){
+            System.err.println("The parallel output differs from the serial one.");
+            System.exit(1);
+        }
+    }
+}
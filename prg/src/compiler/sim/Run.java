@@ -0,0 +1,47 @@
+package compiler.sim;
+
+import java.util.*;
+
+import compiler.*;
+import compiler.common.report.*;
+import compiler.phase.*;
+import compiler.phase.build.*;
+
+/**
+ * Runs an assembled program on the simulator and reports its running time.
+ */
+public class Run extends Phase{
+
+    private final Assembler program;
+
+    private Machine machine;
+
+    public Run(Task task, Assembler program){
+        super(task,"run");
+        this.program = program;
+    }
+
+    /**
+     * Loads the program into a fresh machine and runs it from Main.
+     */
+    public void run(){
+        machine = new Machine(program.rG(),program.globals(),System.out);
+        for(Map.Entry<Long,byte[]> tetra : program.memory().entrySet()){
+            byte[] bytes = tetra.getValue();
+            long value = 0;
+            for(byte b : bytes) value = (value << 8) | (b & 0xFF);
+            machine.tetra(tetra.getKey(),value);
+        }
+        machine.run(program.symbol("Main"));
+
+        Report.info("Executed "+machine.instructions+" instructions ("+machine.loads+" loads, "+machine.stores+" stores).");
+        Report.info("Running time "+machine.oops+" oops + "+machine.mems+" mems.");
+    }
+
+    /**
+     * Returns the machine the program was run on.
+     */
+    public Machine machine(){
+        return machine;
+    }
+}
@@ -164,6 +164,10 @@
       <td>
 	<text>&#xA0;</text>
  	<span style="white-space:nowrap">
+	  <xsl:if test="@temp!=''">
+	    <xsl:text>temp</xsl:text>
+	    <text>&#xA0;</text>
+	  </xsl:if>
 	  <xsl:if test="@level!=''">
 	    <xsl:text>level=</xsl:text>
 	    <xsl:value-of select="@level"/>